@@ -31,6 +31,12 @@ public class Constants {
 
     public static final String StatusStreamName = "status";
 
+    /**
+     * Stream used for sending the outlinks of a page in batches, see
+     * {@link com.digitalpebble.stormcrawler.bolt.StatusEmitterBolt}
+     **/
+    public static final String OutlinksStreamName = "outlinks";
+
     public static final String DELETION_STREAM_NAME = "deletion";
 
     public static final String AllowRedirParamName = "redirections.allowed";
@@ -41,7 +41,6 @@ import org.xml.sax.InputSource;
 import com.digitalpebble.stormcrawler.Constants;
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.parse.Outlink;
-import com.digitalpebble.stormcrawler.parse.ParseFilter;
 import com.digitalpebble.stormcrawler.parse.ParseFilters;
 import com.digitalpebble.stormcrawler.parse.ParseResult;
 import com.digitalpebble.stormcrawler.persistence.Status;
@@ -67,7 +66,7 @@ public class FeedParserBolt extends StatusEmitterBolt {
 
     private boolean sniffWhenNoMDKey = false;
 
-    private ParseFilter parseFilters;
+    private ParseFilters parseFilters;
     private int filterHoursSincePub = -1;
 
     private String protocolMDprefix;
@@ -246,6 +245,7 @@ public class FeedParserBolt extends StatusEmitterBolt {
         filterHoursSincePub = ConfUtils.getInt(stormConf,
                 "feed.filter.hours.since.published", -1);
         parseFilters = ParseFilters.fromConf(stormConf);
+        parseFilters.registerMetrics(context, 10);
         protocolMDprefix = ConfUtils.getString(stormConf,
                 ProtocolResponse.PROTOCOL_MD_PREFIX_PARAM, "");
     }
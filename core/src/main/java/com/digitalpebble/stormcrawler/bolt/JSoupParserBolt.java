@@ -24,8 +24,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -54,9 +54,11 @@ import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.parse.DocumentFragmentBuilder;
 import com.digitalpebble.stormcrawler.parse.Outlink;
 import com.digitalpebble.stormcrawler.parse.ParseData;
-import com.digitalpebble.stormcrawler.parse.ParseFilter;
 import com.digitalpebble.stormcrawler.parse.ParseFilters;
 import com.digitalpebble.stormcrawler.parse.ParseResult;
+import com.digitalpebble.stormcrawler.parse.SinglePassExtractor;
+import com.digitalpebble.stormcrawler.parse.SinglePassExtractor.Link;
+import com.digitalpebble.stormcrawler.parse.StreamingExtractor;
 import com.digitalpebble.stormcrawler.parse.TextExtractor;
 import com.digitalpebble.stormcrawler.persistence.Status;
 import com.digitalpebble.stormcrawler.protocol.HttpHeaders;
@@ -81,7 +83,7 @@ public class JSoupParserBolt extends StatusEmitterBolt {
 
     private MultiCountMetric eventCounter;
 
-    private ParseFilter parseFilters = null;
+    private ParseFilters parseFilters = null;
 
     private Detector detector = TikaConfig.getDefaultConfig().getDetector();
 
@@ -110,6 +112,23 @@ public class JSoupParserBolt extends StatusEmitterBolt {
 
     private TextExtractor textExtractor;
 
+    /**
+     * Whether the links, text and meta tags are extracted in a single
+     * traversal of the document instead of separate selections
+     **/
+    private boolean singlePass = true;
+
+    private SinglePassExtractor singlePassExtractor;
+
+    /**
+     * Whether the HTML is tokenized without building a document, only
+     * possible if the parse filters don't need a DOM and the text extractor
+     * has no inclusion patterns
+     **/
+    private boolean streaming = false;
+
+    private StreamingExtractor streamingExtractor;
+
     private String protocolMDprefix;
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -123,6 +142,7 @@ public class JSoupParserBolt extends StatusEmitterBolt {
                 new MultiCountMetric(), 10);
 
         parseFilters = ParseFilters.fromConf(conf);
+        parseFilters.registerMetrics(context, 10);
 
         emitOutlinks = ConfUtils.getBoolean(conf, "parser.emitOutlinks", true);
 
@@ -146,6 +166,19 @@ public class JSoupParserBolt extends StatusEmitterBolt {
                 ProtocolResponse.PROTOCOL_MD_PREFIX_PARAM, "");
 
         textExtractor = new TextExtractor(conf);
+
+        singlePass = ConfUtils.getBoolean(conf, "parser.single.pass", true);
+        singlePassExtractor = new SinglePassExtractor(textExtractor);
+
+        streaming = ConfUtils.getBoolean(conf, "parser.streaming", false);
+        if (streaming
+                && (parseFilters.needsDOM() || textExtractor
+                        .hasInclusionPatterns())) {
+            LOG.warn("parser.streaming ignored: the parse filters need a DOM "
+                    + "or the text extractor has inclusion patterns");
+            streaming = false;
+        }
+        streamingExtractor = new StreamingExtractor(textExtractor);
     }
 
     @Override
@@ -213,19 +246,64 @@ public class JSoupParserBolt extends StatusEmitterBolt {
 
         Map<String, List<String>> slinks;
         String text = "";
+        String refreshContent = null;
         final org.jsoup.nodes.Document jsoupDoc;
 
         try {
-            String html = Charset.forName(charset)
-                    .decode(ByteBuffer.wrap(content)).toString();
-
-            jsoupDoc = Parser.htmlParser().parseInput(html, url);
+            // faster than going through a CharsetDecoder and a CharBuffer
+            String html = new String(content, Charset.forName(charset));
+
+            String robotsContent = null;
+            List<Link> links;
+
+            if (streaming) {
+                jsoupDoc = null;
+                streamingExtractor.extract(html, url);
+                robotsContent = streamingExtractor.getRobotsContent();
+                refreshContent = streamingExtractor.getRefreshContent();
+                links = streamingExtractor.getLinks();
+                text = streamingExtractor.getText();
+            } else if (singlePass) {
+                jsoupDoc = Parser.htmlParser().parseInput(html, url);
+                singlePassExtractor.extract(jsoupDoc);
+                robotsContent = singlePassExtractor.getRobotsContent();
+                refreshContent = singlePassExtractor.getRefreshContent();
+                links = singlePassExtractor.getLinks();
+                text = singlePassExtractor.getText();
+                if (text == null) {
+                    Element body = jsoupDoc.body();
+                    text = body != null ? textExtractor.text(body) : "";
+                }
+            } else {
+                jsoupDoc = Parser.htmlParser().parseInput(html, url);
+                Element robotelement = jsoupDoc
+                        .selectFirst("meta[name~=(?i)robots][content]");
+                if (robotelement != null) {
+                    robotsContent = robotelement.attr("content");
+                }
+                Element redirElement = jsoupDoc
+                        .selectFirst("meta[http-equiv~=(?i)refresh][content]");
+                if (redirElement != null) {
+                    refreshContent = redirElement.attr("content");
+                }
+                Elements elements = jsoupDoc.select("a[href]");
+                links = new ArrayList<>(elements.size());
+                for (Element link : elements) {
+                    // abs:href tells jsoup to return fully qualified domains
+                    // for relative urls.
+                    // e.g.: /foo will resolve to http://shopstyle.com/foo
+                    links.add(new Link(link.attr("abs:href"), "nofollow"
+                            .equalsIgnoreCase(link.attr("rel")), link.text()));
+                }
+                Element body = jsoupDoc.body();
+                if (body != null) {
+                    text = textExtractor.text(body);
+                }
+            }
 
             // extracts the robots directives from the meta tags
-            Element robotelement = jsoupDoc
-                    .selectFirst("meta[name~=(?i)robots][content]");
-            if (robotelement != null) {
-                robotsTags.extractMetaTags(robotelement.attr("content"));
+            if (robotsContent != null) {
+                robotsTags.extractMetaTags(robotsContent);
             }
 
             // store a normalised representation in metadata
@@ -237,18 +315,12 @@ public class JSoupParserBolt extends StatusEmitterBolt {
             if (robotsTags.isNoFollow() && robots_noFollow_strict) {
                 slinks = new HashMap<>(0);
             } else {
-                Elements links = jsoupDoc.select("a[href]");
                 slinks = new HashMap<>(links.size());
-                for (Element link : links) {
-                    // abs:href tells jsoup to return fully qualified domains
-                    // for
-                    // relative urls.
-                    // e.g.: /foo will resolve to http://shopstyle.com/foo
-                    String targetURL = link.attr("abs:href");
+                for (Link link : links) {
+                    String targetURL = link.getURL();
 
                     // nofollow
-                    boolean noFollow = "nofollow".equalsIgnoreCase(link
-                            .attr("rel"));
+                    boolean noFollow = link.isNoFollow();
                     // remove altogether
                     if (noFollow && robots_noFollow_strict) {
                         continue;
@@ -260,7 +332,7 @@ public class JSoupParserBolt extends StatusEmitterBolt {
                         noFollow = true;
                     }
 
-                    String anchor = link.text();
+                    String anchor = link.getAnchor();
                     if (StringUtils.isNotBlank(targetURL)) {
                         // any existing anchors for the same target?
                         List<String> anchors = slinks.get(targetURL);
@@ -276,11 +348,6 @@ public class JSoupParserBolt extends StatusEmitterBolt {
                 }
             }
 
-            Element body = jsoupDoc.body();
-            if (body != null) {
-                text = textExtractor.text(body);
-            }
-
         } catch (Throwable e) {
             String errorMessage = "Exception while parsing " + url + ": " + e;
             handleException(url, e, metadata, tuple, "content parsing",
@@ -299,11 +366,8 @@ public class JSoupParserBolt extends StatusEmitterBolt {
         try {
             String redirection = null;
 
-            Element redirElement = jsoupDoc
-                    .selectFirst("meta[http-equiv~=(?i)refresh][content]");
-            if (redirElement != null) {
-                redirection = RefreshTag.extractRefreshURL(redirElement
-                        .attr("content"));
+            if (refreshContent != null) {
+                redirection = RefreshTag.extractRefreshURL(refreshContent);
             }
 
             if (StringUtils.isNotBlank(redirection)) {
@@ -343,11 +407,12 @@ public class JSoupParserBolt extends StatusEmitterBolt {
         // apply the parse filters if any
         try {
             DocumentFragment fragment = null;
-            // lazy building of fragment
-            if (parseFilters.needsDOM()) {
+            // lazy building of fragment, not needed by the filters which
+            // can work on the JSoup document
+            if (jsoupDoc != null && parseFilters.needsDOMWithJSoup()) {
                 fragment = DocumentFragmentBuilder.fromJsoup(jsoupDoc);
             }
-            parseFilters.filter(url, content, fragment, parse);
+            parseFilters.filter(url, content, jsoupDoc, fragment, parse);
         } catch (RuntimeException e) {
             String errorMessage = "Exception while running parse filters on "
                     + url + ": " + e;
@@ -360,13 +425,7 @@ public class JSoupParserBolt extends StatusEmitterBolt {
             final List<Outlink> outlinksAfterLimit = (maxOutlinksPerPage == -1) ? parse
                     .getOutlinks() : parse.getOutlinks().stream()
                     .limit(maxOutlinksPerPage).collect(Collectors.toList());
-            for (Outlink outlink : outlinksAfterLimit) {
-                collector.emit(
-                        StatusStreamName,
-                        tuple,
-                        new Values(outlink.getTargetURL(), outlink
-                                .getMetadata(), Status.DISCOVERED));
-            }
+            emitOutlinks(tuple, url, metadata, outlinksAfterLimit);
         }
 
         // emit each document/subdocument in the ParseResult object
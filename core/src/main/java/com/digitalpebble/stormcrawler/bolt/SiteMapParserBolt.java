@@ -46,7 +46,6 @@ import org.slf4j.LoggerFactory;
 import com.digitalpebble.stormcrawler.Constants;
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.parse.Outlink;
-import com.digitalpebble.stormcrawler.parse.ParseFilter;
 import com.digitalpebble.stormcrawler.parse.ParseFilters;
 import com.digitalpebble.stormcrawler.parse.ParseResult;
 import com.digitalpebble.stormcrawler.persistence.DefaultScheduler;
@@ -83,7 +82,7 @@ public class SiteMapParserBolt extends StatusEmitterBolt {
 
     private SiteMapParser parser;
 
-    private ParseFilter parseFilters;
+    private ParseFilters parseFilters;
     private int filterHoursSinceModified = -1;
 
     private int maxOffsetGuess = 300;
@@ -177,11 +176,7 @@ public class SiteMapParserBolt extends StatusEmitterBolt {
         }
 
         // send to status stream
-        for (Outlink ol : parse.getOutlinks()) {
-            Values v = new Values(ol.getTargetURL(), ol.getMetadata(),
-                    Status.DISCOVERED);
-            collector.emit(Constants.StatusStreamName, tuple, v);
-        }
+        emitOutlinks(tuple, url, metadata, parse.getOutlinks());
 
         // marking the main URL as successfully fetched
         // regardless of whether we got a parse exception or not
@@ -345,6 +340,7 @@ public class SiteMapParserBolt extends StatusEmitterBolt {
         filterHoursSinceModified = ConfUtils.getInt(stormConf,
                 "sitemap.filter.hours.since.modified", -1);
         parseFilters = ParseFilters.fromConf(stormConf);
+        parseFilters.registerMetrics(context, 10);
         maxOffsetGuess = ConfUtils.getInt(stormConf, "sitemap.offset.guess",
                 300);
         averagedMetrics = context.registerMetric(
@@ -19,6 +19,9 @@ package com.digitalpebble.stormcrawler.bolt;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.storm.task.OutputCollector;
@@ -41,15 +44,37 @@ import com.digitalpebble.stormcrawler.util.URLUtil;
  * Provides common functionalities for Bolts which emit tuples to the status
  * stream, e.g. Fetchers, Parsers. Encapsulates the logic of URL filtering and
  * metadata transfer to outlinks.
+ * <p>
+ * If <i>parser.emitOutlinks.batch</i> is set to true, the outlinks found in a
+ * document are sent as a single tuple to the 'outlinks' stream with the
+ * fields:
+ * <ul>
+ * <li>url: the URL of the source document</li>
+ * <li>metadata: the metadata shared by all the outlinks</li>
+ * <li>targets: List&lt;String&gt; of the target URLs</li>
+ * <li>targetsMetadata: List&lt;Metadata&gt; of the key/values specific to
+ * each target, overriding the shared ones (null if there are none)</li>
+ * </ul>
+ * This stream must be connected to the status updater, which expands the
+ * batches with the status DISCOVERED. Outlinks whose metadata can't be
+ * expressed from the shared metadata are sent to the status stream as usual.
  **/
 public abstract class StatusEmitterBolt extends BaseRichBolt {
 
+    /**
+     * Whether outlinks should be sent in batches to the outlinks stream
+     * instead of individually to the status stream. Default is false.
+     **/
+    public static final String batchOutlinksParamName = "parser.emitOutlinks.batch";
+
     private URLFilters urlFilters;
 
     private MetadataTransfer metadataTransfer;
 
     private boolean allowRedirs;
 
+    private boolean batchOutlinks;
+
     protected OutputCollector collector;
 
     @Override
@@ -57,10 +82,13 @@ public abstract class StatusEmitterBolt extends BaseRichBolt {
             OutputCollector collector) {
         this.collector = collector;
         urlFilters = URLFilters.fromConf(stormConf);
+        urlFilters.registerMetrics(context, 10);
         metadataTransfer = MetadataTransfer.getInstance(stormConf);
         allowRedirs = ConfUtils.getBoolean(stormConf,
                 com.digitalpebble.stormcrawler.Constants.AllowRedirParamName,
                 true);
+        batchOutlinks = ConfUtils.getBoolean(stormConf,
+                batchOutlinksParamName, false);
     }
 
     @Override
@@ -68,6 +96,78 @@ public abstract class StatusEmitterBolt extends BaseRichBolt {
         declarer.declareStream(
                 com.digitalpebble.stormcrawler.Constants.StatusStreamName,
                 new Fields("url", "metadata", "status"));
+        declarer.declareStream(
+                com.digitalpebble.stormcrawler.Constants.OutlinksStreamName,
+                new Fields("url", "metadata", "targets", "targetsMetadata"));
+    }
+
+    /**
+     * Sends the outlinks of a document to the status stream with the status
+     * DISCOVERED or, if batching is activated, as a single tuple to the
+     * outlinks stream.
+     **/
+    protected void emitOutlinks(Tuple t, String sourceURL,
+            Metadata sourceMetadata, List<Outlink> outlinks) {
+
+        if (!batchOutlinks) {
+            for (Outlink ol : outlinks) {
+                emitOutlink(t, ol);
+            }
+            return;
+        }
+
+        // metadata common to all the outlinks
+        Metadata shared = metadataTransfer.getMetaForOutlink(sourceURL,
+                sourceURL, sourceMetadata);
+
+        List<String> targets = new ArrayList<>(outlinks.size());
+        List<Metadata> targetsMetadata = new ArrayList<>(outlinks.size());
+
+        for (Outlink ol : outlinks) {
+            Metadata specific = diff(shared, ol.getMetadata());
+            // can't be expressed from the shared metadata
+            if (specific == null) {
+                emitOutlink(t, ol);
+                continue;
+            }
+            targets.add(ol.getTargetURL());
+            targetsMetadata.add(specific.size() == 0 ? null : specific);
+        }
+
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        collector.emit(
+                com.digitalpebble.stormcrawler.Constants.OutlinksStreamName,
+                t, new Values(sourceURL, shared, targets, targetsMetadata));
+    }
+
+    private void emitOutlink(Tuple t, Outlink ol) {
+        collector.emit(
+                com.digitalpebble.stormcrawler.Constants.StatusStreamName, t,
+                new Values(ol.getTargetURL(), ol.getMetadata(),
+                        Status.DISCOVERED));
+    }
+
+    /**
+     * Returns the key/values of md which are not found as-is in base or null
+     * if md lacks some of the keys of base.
+     **/
+    private static Metadata diff(Metadata base, Metadata md) {
+        for (String key : base.keySet()) {
+            if (md.getValues(key) == null) {
+                return null;
+            }
+        }
+        Metadata specific = new Metadata();
+        for (String key : md.keySet()) {
+            String[] values = md.getValues(key);
+            if (values != null && !Arrays.equals(values, base.getValues(key))) {
+                specific.setValues(key, values);
+            }
+        }
+        return specific;
     }
 
     /**
@@ -81,10 +181,7 @@ public abstract class StatusEmitterBolt extends BaseRichBolt {
         if (ol == null)
             return;
 
-        collector.emit(
-                com.digitalpebble.stormcrawler.Constants.StatusStreamName, t,
-                new Values(ol.getTargetURL(), ol.getMetadata(),
-                        Status.DISCOVERED));
+        emitOutlink(t, ol);
     }
 
     protected Outlink filterOutlink(URL sURL, String newUrl,
@@ -118,6 +118,7 @@ public class URLFilterBolt extends BaseRichBolt {
         } else {
             urlFilters = URLFilters.fromConf(stormConf);
         }
+        urlFilters.registerMetrics(context, 10);
     }
 
 }
@@ -24,19 +24,24 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.storm.task.TopologyContext;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.stormcrawler.JSONResource;
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.util.ConfUtils;
 import com.digitalpebble.stormcrawler.util.Configurable;
+import com.digitalpebble.stormcrawler.util.FilterMetrics;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
- * Wrapper for the URLFilters defined in a JSON configuration
+ * Wrapper for the URLFilters defined in a JSON configuration. The time spent
+ * in each filter and the number of URLs it rejects are measured once
+ * {@link #registerMetrics(TopologyContext, int)} or {@link #getMetrics()} has
+ * been called.
  */
 public class URLFilters implements URLFilter, JSONResource {
 
@@ -47,6 +52,8 @@ public class URLFilters implements URLFilter, JSONResource {
 
     private URLFilter[] filters;
 
+    private volatile FilterMetrics metrics;
+
     private URLFilters() {
         filters = new URLFilters[0];
     }
@@ -105,13 +112,18 @@ public class URLFilters implements URLFilter, JSONResource {
             String urlToFilter) {
         String normalizedURL = urlToFilter;
         try {
-            for (URLFilter filter : filters) {
-                long start = System.currentTimeMillis();
+            FilterMetrics timings = metrics;
+            for (int i = 0; i < filters.length; i++) {
+                URLFilter filter = filters[i];
+                long start = System.nanoTime();
                 normalizedURL = filter.filter(sourceUrl, sourceMetadata,
                         normalizedURL);
-                long end = System.currentTimeMillis();
+                long elapsed = System.nanoTime() - start;
+                if (timings != null) {
+                    timings.record(i, elapsed, normalizedURL == null);
+                }
                 LOG.debug("URLFilter {} took {} msec", filter.getClass()
-                        .getName(), end - start);
+                        .getName(), elapsed / 1000000);
                 if (normalizedURL == null)
                     break;
             }
@@ -121,6 +133,31 @@ public class URLFilters implements URLFilter, JSONResource {
         return normalizedURL;
     }
 
+    /**
+     * Returns the metrics of the filters, starting to collect them on the
+     * first call
+     * 
+     * @since 1.17
+     **/
+    public synchronized FilterMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new FilterMetrics(filters, true);
+        }
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of the filters with the context under
+     * <code>urlfilters</code>
+     * 
+     * @since 1.17
+     **/
+    public void registerMetrics(TopologyContext context,
+            int timeBucketSizeInSecs) {
+        context.registerMetric("urlfilters", getMetrics(),
+                timeBucketSizeInSecs);
+    }
+
     @Override
     public String getResourceFile() {
         return this.configFile;
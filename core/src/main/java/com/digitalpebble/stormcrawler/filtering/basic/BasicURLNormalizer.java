@@ -88,6 +88,13 @@ public class BasicURLNormalizer implements URLFilter {
         }
     }
 
+    /** Buffer reused by {@link #fastFilter(String)} **/
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal
+            .withInitial(() -> new StringBuilder(256));
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF"
+            .toCharArray();
+
     boolean removeAnchorPart = true;
     boolean unmangleQueryString = true;
     boolean checkValidURI = true;
@@ -101,6 +108,11 @@ public class BasicURLNormalizer implements URLFilter {
 
         urlToFilter = urlToFilter.trim();
 
+        String normalised = fastFilter(urlToFilter);
+        if (normalised != null) {
+            return normalised;
+        }
+
         final String originalURL = urlToFilter;
 
         if (removeAnchorPart) {
@@ -436,6 +448,415 @@ public class BasicURLNormalizer implements URLFilter {
         return sb.toString();
     }
 
+    /**
+     * Normalises in a single pass over a reused buffer the common case of an
+     * http(s) URL made of ASCII characters, with the same result as the
+     * general case but without the URL, URI, regular expression and query
+     * parameter objects it relies on. Returns null if the URL is not in that
+     * case or could be rejected, it then goes through the general one.
+     */
+    private String fastFilter(String url) {
+        int length = url.length();
+        int start;
+        if (url.startsWith("http://")) {
+            start = 7;
+        } else if (url.startsWith("https://")) {
+            start = 8;
+        } else {
+            return null;
+        }
+
+        int end = url.indexOf('#');
+        if (end == -1) {
+            end = length;
+        } else if (!removeAnchorPart) {
+            return null;
+        } else if (url.charAt(end - 1) <= ' ') {
+            // java.net.URL trims what is left once the anchor is removed
+            return null;
+        }
+
+        // beginning of the query, possibly at a '&' which stands for a '?'
+        int query = url.indexOf('?');
+        if (query >= end) {
+            query = -1;
+        }
+        if (query == -1 && unmangleQueryString) {
+            query = url.indexOf('&');
+            if (query >= end) {
+                query = -1;
+            }
+            // within the authority, which is parsed before being unmangled
+            int slash = url.indexOf('/', start);
+            if (query != -1 && (slash == -1 || slash > query)) {
+                return null;
+            }
+        }
+        int pathEnd = query == -1 ? end : query;
+
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.append(url, 0, start);
+
+        // host in lower case, no user info, IPv6 or IDN
+        int i = start;
+        for (; i < pathEnd; i++) {
+            char c = url.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '.')) {
+                break;
+            }
+            sb.append(c);
+        }
+        if (i == start) {
+            return null;
+        }
+        if (i < pathEnd && url.charAt(i) == ':') {
+            int digits = ++i;
+            while (i < pathEnd && url.charAt(i) >= '0'
+                    && url.charAt(i) <= '9') {
+                i++;
+            }
+            // the port would not be rendered the same way
+            if (i == digits || i - digits > 5 || url.charAt(digits) == '0') {
+                return null;
+            }
+            sb.append(url, digits - 1, i);
+        }
+        if (i < pathEnd && url.charAt(i) != '/') {
+            return null;
+        }
+
+        boolean processQuery = !queryElementsToRemove.isEmpty()
+                || removeHashes;
+        // path parameters are turned into query elements and the query is
+        // split on semicolons as well
+        int semicolon = url.indexOf(';', i);
+        if (processQuery && semicolon != -1 && semicolon < end) {
+            return null;
+        }
+
+        int pathStart = sb.length();
+        while (i < pathEnd) {
+            i = appendEscaped(url, i, end, sb);
+            if (i == -1) {
+                return null;
+            }
+        }
+        if (checkValidURI) {
+            normalizePath(sb, pathStart);
+        }
+
+        if (processQuery && query != -1 && query + 1 < end) {
+            if (!appendQuery(url, query + 1, end, sb)) {
+                return null;
+            }
+        } else if (query != -1) {
+            sb.append('?');
+            i = query + 1;
+            while (i < end) {
+                i = appendEscaped(url, i, end, sb);
+                if (i == -1) {
+                    return null;
+                }
+            }
+        }
+
+        if (url.contentEquals(sb)) {
+            return url;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the character at position i or the escape sequence starting
+     * there, percent encoded the way {@link #unescapePath(String)} then
+     * {@link #escapePath(String)} would do it. Returns the position of the
+     * next character or -1 if the URL needs the general case.
+     */
+    private static int appendEscaped(String url, int i, int end,
+            StringBuilder sb) {
+        char c = url.charAt(i);
+        if (c == '%') {
+            if (i + 2 >= end) {
+                return -1;
+            }
+            int high = hexValue(url.charAt(i + 1), true);
+            int low = hexValue(url.charAt(i + 2), true);
+            if (high == -1 || low == -1) {
+                return -1;
+            }
+            int letter = high * 16 + low;
+            if (letter < 128 && unescapedCharacters[letter]) {
+                sb.append((char) letter);
+            } else {
+                sb.append('%').append(HEX_DIGITS[high])
+                        .append(HEX_DIGITS[low]);
+            }
+            return i + 3;
+        }
+        if (c == ' ' || c == '[' || c == '\\' || c == ']' || c == '|') {
+            appendByte(c, sb);
+            return i + 1;
+        }
+        if (c > ' ' && c < 127) {
+            // not valid in a URI
+            if (c == '"' || c == '<' || c == '>' || c == '^' || c == '`'
+                    || c == '{' || c == '}') {
+                return -1;
+            }
+            sb.append(c);
+            return i + 1;
+        }
+        if (c < ' ' || c == 127) {
+            return -1;
+        }
+        // UTF-8 bytes of a non ASCII character
+        int codePoint = c;
+        int next = i + 1;
+        if (Character.isHighSurrogate(c) && next < end
+                && Character.isLowSurrogate(url.charAt(next))) {
+            codePoint = Character.toCodePoint(c, url.charAt(next));
+            next++;
+        } else if (Character.isSurrogate(c)) {
+            return -1;
+        }
+        if (codePoint < 0x800) {
+            appendByte(0xC0 | codePoint >> 6, sb);
+        } else if (codePoint < 0x10000) {
+            appendByte(0xE0 | codePoint >> 12, sb);
+            appendByte(0x80 | codePoint >> 6 & 0x3F, sb);
+        } else {
+            appendByte(0xF0 | codePoint >> 18, sb);
+            appendByte(0x80 | codePoint >> 12 & 0x3F, sb);
+            appendByte(0x80 | codePoint >> 6 & 0x3F, sb);
+        }
+        appendByte(0x80 | codePoint & 0x3F, sb);
+        return next;
+    }
+
+    /**
+     * Returns the value of an ASCII hexadecimal digit, -1 if the character is
+     * not one or is in lower case and that is not allowed
+     */
+    private static int hexValue(char c, boolean lowerCase) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (lowerCase && c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static void appendByte(int b, StringBuilder sb) {
+        sb.append('%').append(HEX_DIGITS[b >> 4 & 0xF])
+                .append(HEX_DIGITS[b & 0xF]);
+    }
+
+    /**
+     * Appends the query without the elements to remove and with the others
+     * sorted by name, the way {@link #processQueryElements(String)} would do
+     * it. Only handles the elements which it would not decode or encode
+     * differently, returns false otherwise.
+     */
+    private boolean appendQuery(String url, int start, int end,
+            StringBuilder sb) {
+        int count = 1;
+        for (int i = start; i < end; i++) {
+            if (url.charAt(i) == '&') {
+                count++;
+            }
+        }
+        // start, end of the name and end of each element kept
+        int[] elements = new int[count * 3];
+        int kept = 0;
+        int i = start;
+        while (i <= end) {
+            int next = url.indexOf('&', i);
+            if (next == -1 || next > end) {
+                next = end;
+            }
+            int equals = i;
+            while (equals < next && url.charAt(equals) != '=') {
+                char c = url.charAt(equals);
+                if (!isFormSafe(c)) {
+                    return false;
+                }
+                equals++;
+            }
+            // empty names are ignored
+            if (equals > i) {
+                boolean hash = next - equals - 1 == 32;
+                for (int v = equals + 1; v < next; v++) {
+                    char c = url.charAt(v);
+                    if (c == '%') {
+                        if (v + 2 >= next) {
+                            return false;
+                        }
+                        int high = hexValue(url.charAt(v + 1), false);
+                        int low = hexValue(url.charAt(v + 2), false);
+                        if (high == -1 || low == -1) {
+                            return false;
+                        }
+                        int letter = high * 16 + low;
+                        // re-encoded then unescaped, e.g. %7E becomes ~
+                        if (letter >= 128 || letter == ' '
+                                || isFormSafe((char) letter)
+                                || unescapedCharacters[letter]) {
+                            return false;
+                        }
+                        v += 2;
+                        hash = false;
+                    } else if (c == '+') {
+                        hash = false;
+                    } else if (!isFormSafe(c)) {
+                        return false;
+                    } else if (hexValue(c, true) == -1) {
+                        hash = false;
+                    }
+                }
+                boolean remove = queryElementsToRemove
+                        .contains(url.substring(i, equals))
+                        || (removeHashes && equals < next && hash);
+                if (!remove) {
+                    // insertion keeping the elements sorted by name
+                    int k = kept;
+                    while (k > 0 && compareNames(url, elements[(k - 1) * 3],
+                            elements[(k - 1) * 3 + 1], i, equals) > 0) {
+                        elements[k * 3] = elements[(k - 1) * 3];
+                        elements[k * 3 + 1] = elements[(k - 1) * 3 + 1];
+                        elements[k * 3 + 2] = elements[(k - 1) * 3 + 2];
+                        k--;
+                    }
+                    elements[k * 3] = i;
+                    elements[k * 3 + 1] = equals;
+                    elements[k * 3 + 2] = next;
+                    kept++;
+                }
+            }
+            i = next + 1;
+        }
+        for (int k = 0; k < kept; k++) {
+            sb.append(k == 0 ? '?' : '&');
+            sb.append(url, elements[k * 3], elements[k * 3 + 2]);
+        }
+        return true;
+    }
+
+    /**
+     * Characters left as they are by the form encoding of the query elements
+     **/
+    private static boolean isFormSafe(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+                && c <= '9' || c == '-' || c == '_' || c == '.' || c == '*';
+    }
+
+    private static int compareNames(String url, int start1, int end1,
+            int start2, int end2) {
+        int length1 = end1 - start1;
+        int length2 = end2 - start2;
+        for (int i = 0; i < Math.min(length1, length2); i++) {
+            int diff = url.charAt(start1 + i) - url.charAt(start2 + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Removes the dot segments and the redundant slashes from the path
+     * between from and the end of the buffer, the same way as
+     * {@link URI#normalize()}
+     */
+    private static void normalizePath(StringBuilder sb, int from) {
+        int end = sb.length();
+        if (!needsNormalization(sb, from, end)) {
+            return;
+        }
+        // start and end of the segments kept so far
+        int[] segments = new int[end - from + 2];
+        boolean[] separated = new boolean[segments.length / 2];
+        int kept = 0;
+        boolean absolute = sb.charAt(from) == '/';
+        int p = from;
+        while (p < end && sb.charAt(p) == '/') {
+            p++;
+        }
+        while (p < end) {
+            int segment = p;
+            while (p < end && sb.charAt(p) != '/') {
+                p++;
+            }
+            int length = p - segment;
+            boolean separator = p < end;
+            while (p < end && sb.charAt(p) == '/') {
+                p++;
+            }
+            if (length == 1 && sb.charAt(segment) == '.') {
+                continue;
+            }
+            if (length == 2 && sb.charAt(segment) == '.'
+                    && sb.charAt(segment + 1) == '.' && kept > 0) {
+                int previous = (kept - 1) * 2;
+                boolean dots = segments[previous + 1]
+                        - segments[previous] == 2
+                        && sb.charAt(segments[previous]) == '.'
+                        && sb.charAt(segments[previous] + 1) == '.';
+                if (!dots) {
+                    kept--;
+                    continue;
+                }
+            }
+            segments[kept * 2] = segment;
+            segments[kept * 2 + 1] = segment + length;
+            separated[kept] = separator;
+            kept++;
+        }
+        // the segments only move towards the beginning
+        int w = from;
+        if (absolute) {
+            sb.setCharAt(w++, '/');
+        }
+        for (int k = 0; k < kept; k++) {
+            for (int r = segments[k * 2]; r < segments[k * 2 + 1]; r++) {
+                sb.setCharAt(w++, sb.charAt(r));
+            }
+            if (separated[k]) {
+                sb.setCharAt(w++, '/');
+            }
+        }
+        sb.setLength(w);
+    }
+
+    /** Whether the path has dot segments or redundant slashes **/
+    private static boolean needsNormalization(CharSequence path, int from,
+            int end) {
+        for (int p = from; p < end; p++) {
+            char c = path.charAt(p);
+            if (c == '/' && p + 1 < end && path.charAt(p + 1) == '/') {
+                return true;
+            }
+            // at the beginning of a segment
+            if (c == '.' && (p == from || path.charAt(p - 1) == '/')) {
+                int q = p + 1;
+                if (q < end && path.charAt(q) == '.') {
+                    q++;
+                }
+                if (q == end || path.charAt(q) == '/') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private boolean isAscii(String str) {
         char[] chars = str.toCharArray();
         for (char c : chars) {
@@ -45,7 +45,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * URL filter based on regex patterns and organised by [host | domain | metadata
  * | global]. For a given URL, the scopes are tried in the order given above and
  * the URL is kept or removed based on the first matching rule. The default
- * policy is to accept a URL if no matches are found.
+ * policy is to accept a URL if no matches are found. The patterns of a scope are
+ * compiled into a {@link MultiPatternMatcher} so that the URL is scanned once
+ * for their literal parts instead of trying each pattern in turn.
  * 
  * The resource file is in JSON and at the following format.
  * 
@@ -161,7 +163,13 @@ public class FastURLFilter implements URLFilter, JSONResource {
             Iterator<JsonNode> iterPatterns = patternsNode.elements();
             while (iterPatterns.hasNext()) {
                 JsonNode patternNode = iterPatterns.next();
-                rlist.add(new Rule(patternNode.asText()));
+                Rule rule = new Rule(patternNode.asText());
+                if (rule.getType() == null) {
+                    LOG.warn("Invalid rule {} for scope {}",
+                            patternNode.asText(), scopeval);
+                    continue;
+                }
+                rlist.add(rule);
             }
 
             scope.setRules(rlist);
@@ -200,7 +208,7 @@ class Rules {
         } else if (t.equals(Scope.Type.HOSTNAME)) {
             hostNameRules.put(value, s);
         } else if (t.equals(Scope.Type.METADATA)) {
-            metadataRules.add(new MDScope(value, s.getRules()));
+            metadataRules.add(new MDScope(value, s));
         }
     }
 
@@ -260,20 +268,20 @@ class Rules {
     private boolean checkScope(Scope s, URL u) {
         if (s == null)
             return false;
-        for (Rule r : s.getRules()) {
-            String haystack = u.getPath();
-            // whether to include the query as well?
-            if (r.getType().toString().endsWith("QUERY")) {
-                if (u.getQuery() != null) {
-                    haystack += "?" + u.getQuery();
-                }
-            }
-            if (r.getPattern().matcher(haystack).find()) {
-                // matches! returns true for DENY, false for ALLOW
-                return r.getType().toString().startsWith("DENY");
-            }
+        // the PATH rules only look at the path, the QUERY ones at the query
+        // as well
+        String path = u.getPath();
+        String haystack = path;
+        if (u.getQuery() != null) {
+            haystack += "?" + u.getQuery();
         }
-        return false;
+        int index = s.getMatcher().firstMatch(haystack, path.length());
+        if (index == -1) {
+            return false;
+        }
+        // matches! returns true for DENY, false for ALLOW
+        Rule.Type type = s.getRules()[index].getType();
+        return type == Rule.Type.DENYPATH || type == Rule.Type.DENYPATHQUERY;
     }
 }
 
@@ -285,14 +293,29 @@ class Scope {
 
     protected Rule[] rules;
 
+    protected MultiPatternMatcher matcher;
+
     public void setRules(List<Rule> rlist) {
         this.rules = rlist.toArray(new Rule[rlist.size()]);
+        Pattern[] patterns = new Pattern[rules.length];
+        boolean[] withQuery = new boolean[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            patterns[i] = rules[i].getPattern();
+            withQuery[i] = rules[i].getType() == Rule.Type.DENYPATHQUERY
+                    || rules[i].getType() == Rule.Type.ALLOWPATHQUERY;
+        }
+        this.matcher = new MultiPatternMatcher(patterns, withQuery);
     }
 
     public Rule[] getRules() {
         return rules;
     }
 
+    /** Matcher for the patterns of the rules, in the same order **/
+    public MultiPatternMatcher getMatcher() {
+        return matcher;
+    }
+
 }
 
 class MDScope extends Scope {
@@ -300,8 +323,9 @@ class MDScope extends Scope {
     private String key;
     private String value;
 
-    MDScope(String constraint, Rule[] rules) {
-        this.rules = rules;
+    MDScope(String constraint, Scope scope) {
+        this.rules = scope.getRules();
+        this.matcher = scope.getMatcher();
         int eq = constraint.indexOf("=");
         if (eq != -1) {
             key = constraint.substring(0, eq);
@@ -0,0 +1,486 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.filtering.regex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first of a list of patterns which can be found in a string, with
+ * the same result as trying them in turn with {@link java.util.regex.Matcher#find()}.
+ * <p>
+ * A literal which any match must contain is extracted from each pattern where
+ * possible, e.g. <code>.jpg</code> from <code>\.jpg$</code>. The literals of
+ * all the patterns are compiled into an Aho-Corasick automaton and the string
+ * is scanned once to find those it contains. The patterns whose literal is
+ * absent are skipped without running the regular expression, those consisting
+ * only of a literal do not need it at all. The patterns without a literal are
+ * always tried. Immutable and thread safe.
+ *
+ * @since 1.17
+ **/
+final class MultiPatternMatcher {
+
+    /** Below that number of literals, trying the patterns is cheaper **/
+    static final int MIN_LITERALS = 8;
+
+    private final Pattern[] patterns;
+
+    /** Whether a pattern applies to the whole string or only to the prefix **/
+    private final boolean[] whole;
+
+    /** Literal which must be found for a pattern to match, null if none **/
+    private final String[] literals;
+
+    /** Whether a pattern is its literal **/
+    private final boolean[] exact;
+
+    private final boolean useAutomaton;
+
+    /** Transitions of each state, sorted by character **/
+    private char[][] keys;
+    private int[][] next;
+    private int[] fail;
+    /** Patterns whose literal ends at a state **/
+    private int[][] outputs;
+    /** Next state along the failure links which has outputs, 0 if none **/
+    private int[] dictionary;
+
+    /**
+     * @param patterns
+     *            patterns in the order in which they are tried
+     * @param whole
+     *            whether each pattern applies to the whole string or only to
+     *            its prefix, see {@link #firstMatch(String, int)}
+     **/
+    MultiPatternMatcher(Pattern[] patterns, boolean[] whole) {
+        this.patterns = patterns;
+        this.whole = whole;
+        literals = new String[patterns.length];
+        exact = new boolean[patterns.length];
+        int count = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].flags() != 0) {
+                continue;
+            }
+            String regex = patterns[i].pattern();
+            literals[i] = requiredLiteral(regex);
+            if (literals[i] != null) {
+                exact[i] = literals[i].equals(regex);
+                count++;
+            }
+        }
+        useAutomaton = count >= MIN_LITERALS;
+        if (useAutomaton) {
+            build();
+        }
+    }
+
+    MultiPatternMatcher(Pattern[] patterns) {
+        this(patterns, all(patterns.length));
+    }
+
+    private static boolean[] all(int length) {
+        boolean[] whole = new boolean[length];
+        Arrays.fill(whole, true);
+        return whole;
+    }
+
+    /** Returns the index of the first pattern found in the string, -1 if none **/
+    int firstMatch(String input) {
+        return firstMatch(input, input.length());
+    }
+
+    /**
+     * Returns the index of the first pattern found in the string or in its
+     * first prefixLength characters, depending on the pattern, -1 if none
+     **/
+    int firstMatch(String input, int prefixLength) {
+        long[] anywhere = null;
+        long[] inPrefix = null;
+        if (useAutomaton) {
+            anywhere = new long[(patterns.length + 63) >>> 6];
+            inPrefix = new long[anywhere.length];
+            scan(input, prefixLength, anywhere, inPrefix);
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            if (useAutomaton && literals[i] != null) {
+                long[] found = whole[i] ? anywhere : inPrefix;
+                if ((found[i >>> 6] & (1L << i)) == 0) {
+                    continue;
+                }
+                if (exact[i]) {
+                    return i;
+                }
+            }
+            int end = whole[i] ? input.length() : prefixLength;
+            if (patterns[i].matcher(input).region(0, end).find()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void scan(String input, int prefixLength, long[] anywhere,
+            long[] inPrefix) {
+        int state = 0;
+        for (int pos = 0; pos < input.length(); pos++) {
+            char c = input.charAt(pos);
+            while (true) {
+                int index = Arrays.binarySearch(keys[state], c);
+                if (index >= 0) {
+                    state = next[state][index];
+                    break;
+                }
+                if (state == 0) {
+                    break;
+                }
+                state = fail[state];
+            }
+            int s = outputs[state].length > 0 ? state : dictionary[state];
+            for (; s != 0; s = dictionary[s]) {
+                for (int p : outputs[s]) {
+                    anywhere[p >>> 6] |= 1L << p;
+                    if (pos < prefixLength) {
+                        inPrefix[p >>> 6] |= 1L << p;
+                    }
+                }
+            }
+        }
+    }
+
+    private void build() {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> found = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        found.add(new ArrayList<>());
+        for (int i = 0; i < literals.length; i++) {
+            if (literals[i] == null) {
+                continue;
+            }
+            int state = 0;
+            for (char c : literals[i].toCharArray()) {
+                Integer target = trie.get(state).get(c);
+                if (target == null) {
+                    target = trie.size();
+                    trie.add(new TreeMap<>());
+                    found.add(new ArrayList<>());
+                    trie.get(state).put(c, target);
+                }
+                state = target;
+            }
+            found.get(state).add(i);
+        }
+
+        int size = trie.size();
+        keys = new char[size][];
+        next = new int[size][];
+        outputs = new int[size][];
+        fail = new int[size];
+        dictionary = new int[size];
+        for (int s = 0; s < size; s++) {
+            Map<Character, Integer> transitions = trie.get(s);
+            keys[s] = new char[transitions.size()];
+            next[s] = new int[transitions.size()];
+            int k = 0;
+            for (Map.Entry<Character, Integer> e : transitions.entrySet()) {
+                keys[s][k] = e.getKey();
+                next[s][k] = e.getValue();
+                k++;
+            }
+            outputs[s] = found.get(s).stream().mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        // failure links in breadth first order
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : next[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int k = 0; k < keys[s].length; k++) {
+                char c = keys[s][k];
+                int child = next[s][k];
+                int f = fail[s];
+                int target = 0;
+                while (true) {
+                    int index = Arrays.binarySearch(keys[f], c);
+                    if (index >= 0) {
+                        target = next[f][index];
+                        break;
+                    }
+                    if (f == 0) {
+                        break;
+                    }
+                    f = fail[f];
+                }
+                fail[child] = target;
+                dictionary[child] = outputs[target].length > 0 ? target
+                        : dictionary[target];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the longest literal which any match of the regular expression
+     * must contain or null if none can be determined. Only the top level of
+     * the expression is looked at, groups and character classes are treated
+     * as unknown.
+     **/
+    static String requiredLiteral(String regex) {
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int length = regex.length();
+        int i = 0;
+        while (i < length) {
+            char c = regex.charAt(i);
+            // the character of a literal atom, -1 if not a literal
+            int literal = -1;
+            switch (c) {
+            case '|':
+                // alternatives
+                return null;
+            case '\\':
+                if (i + 1 >= length) {
+                    return null;
+                }
+                char d = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(d)) {
+                    if (d == 'Q') {
+                        int e = regex.indexOf("\\E", i + 2);
+                        i = e == -1 ? length : e + 2;
+                    } else {
+                        i = skipEscape(regex, i + 1);
+                    }
+                } else {
+                    literal = d;
+                    i += 2;
+                }
+                break;
+            case '[':
+                i = skipClass(regex, i);
+                if (i == -1) {
+                    return null;
+                }
+                break;
+            case '(':
+                if (regex.startsWith("(?", i) && i + 2 < length
+                        && "idmsuxU-".indexOf(regex.charAt(i + 2)) != -1) {
+                    // embedded flags
+                    return null;
+                }
+                i = skipGroup(regex, i);
+                if (i == -1) {
+                    return null;
+                }
+                break;
+            case '.':
+            case '^':
+            case '$':
+                i++;
+                break;
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+            case ')':
+                return null;
+            default:
+                literal = c;
+                i++;
+            }
+
+            // quantifier
+            int min = 1;
+            boolean quantified = false;
+            if (i < length) {
+                char q = regex.charAt(i);
+                if (q == '*' || q == '?') {
+                    min = 0;
+                    quantified = true;
+                    i++;
+                } else if (q == '+') {
+                    quantified = true;
+                    i++;
+                } else if (q == '{') {
+                    int close = regex.indexOf('}', i);
+                    if (close == -1) {
+                        return null;
+                    }
+                    String bounds = regex.substring(i + 1, close);
+                    int comma = bounds.indexOf(',');
+                    try {
+                        min = Integer.parseInt(comma == -1 ? bounds : bounds
+                                .substring(0, comma));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    quantified = true;
+                    i = close + 1;
+                }
+                // lazy or possessive
+                if (quantified && i < length
+                        && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+                    i++;
+                }
+            }
+
+            if (literal != -1 && min > 0) {
+                run.append((char) literal);
+            }
+            if (literal == -1 || quantified) {
+                if (run.length() > best.length()) {
+                    best = run.toString();
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() > best.length()) {
+            best = run.toString();
+        }
+        return best.isEmpty() ? null : best;
+    }
+
+    /** Returns the position after the escape whose letter is at i **/
+    private static int skipEscape(String regex, int i) {
+        char d = regex.charAt(i);
+        int length = regex.length();
+        switch (d) {
+        case 'x':
+            if (i + 1 < length && regex.charAt(i + 1) == '{') {
+                return closing(regex, i + 1, '}');
+            }
+            return Math.min(i + 3, length);
+        case 'u':
+            return Math.min(i + 5, length);
+        case 'c':
+            return Math.min(i + 2, length);
+        case 'p':
+        case 'P':
+        case 'N':
+            if (i + 1 < length && regex.charAt(i + 1) == '{') {
+                return closing(regex, i + 1, '}');
+            }
+            return Math.min(i + 2, length);
+        case 'k':
+            return closing(regex, i + 1, '>');
+        case '0':
+            i++;
+            for (int n = 0; n < 3 && i < length
+                    && Character.isDigit(regex.charAt(i)); n++) {
+                i++;
+            }
+            return i;
+        default:
+            if (Character.isDigit(d)) {
+                // back reference
+                while (i < length && Character.isDigit(regex.charAt(i))) {
+                    i++;
+                }
+                return i;
+            }
+            return i + 1;
+        }
+    }
+
+    private static int closing(String regex, int from, char c) {
+        int close = regex.indexOf(c, from);
+        return close == -1 ? regex.length() : close + 1;
+    }
+
+    /**
+     * Returns the position after the character class starting at i, -1 if it
+     * can't be found
+     **/
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                i++;
+                // a closing bracket first is a literal
+                if (i < length && regex.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < length && regex.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            }
+            if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after the group starting at i, -1 if it can't be
+     * found
+     **/
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int e = regex.indexOf("\\E", i + 2);
+                    i = e == -1 ? length : e + 2;
+                } else {
+                    i += 2;
+                }
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                if (i == -1) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+}
@@ -17,6 +17,8 @@
 
 package com.digitalpebble.stormcrawler.filtering.regex;
 
+import java.util.regex.Pattern;
+
 /**
  * A generic regular expression rule. Borrowed from Apache Nutch 1.9.
  */
@@ -60,4 +62,17 @@ public abstract class RegexRule {
      */
     protected abstract boolean match(String url);
 
+    /**
+     * Returns the pattern which {@link #match(String)} looks for in the url
+     * with {@link java.util.regex.Matcher#find()}, if any. This allows the
+     * rules to be compiled into a single {@link MultiPatternMatcher}.
+     * 
+     * @return the pattern or <code>null</code> if the rule does not match
+     *         that way
+     * @since 1.17
+     */
+    protected Pattern getPattern() {
+        return null;
+    }
+
 }
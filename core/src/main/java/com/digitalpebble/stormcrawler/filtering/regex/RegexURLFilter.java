@@ -50,6 +50,11 @@ public class RegexURLFilter extends RegexURLFilterBase {
         protected boolean match(String url) {
             return pattern.matcher(url).find();
         }
+
+        @Override
+        protected Pattern getPattern() {
+            return pattern;
+        }
     }
 
 }
\ No newline at end of file
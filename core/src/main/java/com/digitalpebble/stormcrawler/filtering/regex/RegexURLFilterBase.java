@@ -27,6 +27,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +49,12 @@ public abstract class RegexURLFilterBase implements URLFilter {
     /** A list of applicable rules */
     private List<RegexRule> rules;
 
+    /**
+     * Matcher for the patterns of the rules, null if some of them do not
+     * expose one
+     */
+    private MultiPatternMatcher matcher;
+
     @Override
     public void configure(Map stormConf, JsonNode paramNode) {
         JsonNode node = paramNode.get("urlFilters");
@@ -63,6 +70,18 @@ public abstract class RegexURLFilterBase implements URLFilter {
             }
             rules = readRules(rulesFileName);
         }
+        matcher = compile(rules);
+    }
+
+    private static MultiPatternMatcher compile(List<RegexRule> rules) {
+        Pattern[] patterns = new Pattern[rules.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = rules.get(i).getPattern();
+            if (patterns[i] == null) {
+                return null;
+            }
+        }
+        return new MultiPatternMatcher(patterns);
     }
 
     /** Populates a List of Rules off of JsonNode. */
@@ -154,6 +173,13 @@ public abstract class RegexURLFilterBase implements URLFilter {
 
     @Override
     public String filter(URL pageUrl, Metadata sourceMetadata, String url) {
+        if (matcher != null) {
+            int index = matcher.firstMatch(url);
+            if (index == -1) {
+                return null;
+            }
+            return rules.get(index).accept() ? url : null;
+        }
         for (RegexRule rule : rules) {
             if (rule.match(url)) {
                 return rule.accept() ? url : null;
@@ -17,6 +17,8 @@
 
 package com.digitalpebble.stormcrawler.parse;
 
+import java.util.Set;
+
 import org.w3c.dom.DocumentFragment;
 
 import com.digitalpebble.stormcrawler.util.Configurable;
@@ -29,6 +31,22 @@ import com.digitalpebble.stormcrawler.util.Configurable;
  */
 public abstract class ParseFilter implements Configurable {
 
+    /**
+     * Stands for the text of the document in the sets returned by
+     * {@link #getReadSet()} and {@link #getWriteSet()}
+     * 
+     * @since 1.17
+     **/
+    public static final String TEXT = "_text_";
+
+    /**
+     * Stands for the outlinks of the document in the sets returned by
+     * {@link #getReadSet()} and {@link #getWriteSet()}
+     * 
+     * @since 1.17
+     **/
+    public static final String OUTLINKS = "_outlinks_";
+
     /**
      * Called when parsing a specific page
      * 
@@ -56,4 +74,59 @@ public abstract class ParseFilter implements Configurable {
         return false;
     }
 
+    /**
+     * Called when parsing a specific page with a parser based on JSoup, such
+     * as {@link com.digitalpebble.stormcrawler.bolt.JSoupParserBolt}. The
+     * default implementation ignores the JSoup document and calls
+     * {@link #filter(String, byte[], DocumentFragment, ParseResult)}.
+     * 
+     * @param jsoupDoc
+     *            the JSoup document resulting of the parsing of the content
+     * @param doc
+     *            the DOM tree or null if {@link #needsDOMWithJSoup()} returns
+     *            <code>false</code>
+     * @since 1.17
+     */
+    public void filter(String URL, byte[] content,
+            org.jsoup.nodes.Document jsoupDoc, DocumentFragment doc,
+            ParseResult parse) {
+        filter(URL, content, doc, parse);
+    }
+
+    /**
+     * Specifies whether this filter still requires a DOM representation of
+     * the document when it is given the JSoup document, which is cheaper to
+     * obtain. Returns {@link #needsDOM()} by default.
+     * 
+     * @since 1.17
+     */
+    public boolean needsDOMWithJSoup() {
+        return needsDOM();
+    }
+
+    /**
+     * Returns the metadata keys read by this filter, including {@link #TEXT}
+     * or {@link #OUTLINKS} if it reads the text or the outlinks of the
+     * document. Filters which read and write different keys can be run
+     * concurrently by {@link ParseFilters}. Returns null by default, meaning
+     * that the filter can read anything.
+     * 
+     * @since 1.17
+     */
+    public Set<String> getReadSet() {
+        return null;
+    }
+
+    /**
+     * Returns the metadata keys written by this filter, including
+     * {@link #TEXT} or {@link #OUTLINKS} if it modifies the text or the
+     * outlinks of the document. Returns null by default, meaning that the
+     * filter can modify anything and must run on its own.
+     * 
+     * @since 1.17
+     */
+    public Set<String> getWriteSet() {
+        return null;
+    }
+
 }
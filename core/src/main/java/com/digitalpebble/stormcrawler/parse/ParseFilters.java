@@ -20,8 +20,15 @@ package com.digitalpebble.stormcrawler.parse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -31,22 +38,37 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.TopologyContext;
 import org.apache.storm.utils.Utils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.DocumentFragment;
 
 import com.digitalpebble.stormcrawler.JSONResource;
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.filtering.URLFilters;
 import com.digitalpebble.stormcrawler.util.ConfUtils;
 import com.digitalpebble.stormcrawler.util.Configurable;
+import com.digitalpebble.stormcrawler.util.FilterMetrics;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
- * Wrapper for the ParseFilters defined in a JSON configuration
+ * Wrapper for the ParseFilters defined in a JSON configuration.
+ * <p>
+ * The consecutive filters which declare read and write sets not conflicting
+ * with each other can be run concurrently on a shared ForkJoinPool, if
+ * <code>parsefilters.parallelism</code> is more than 1 and the content is at
+ * least <code>parsefilters.parallel.min.size</code> bytes. Each of them works
+ * on a copy of the ParseResult, the keys they write being copied back in the
+ * order of the configuration so that the outcome is the same as when running
+ * them sequentially. The filters of a group share the JSoup document, which
+ * must only be read. At most one of them can be given the DOM.
  */
 public class ParseFilters extends ParseFilter implements JSONResource {
 
@@ -55,10 +77,39 @@ public class ParseFilters extends ParseFilter implements JSONResource {
     private static final org.slf4j.Logger LOG = LoggerFactory
             .getLogger(ParseFilters.class);
 
+    /**
+     * Number of threads used to run the filters concurrently, 0 or 1 to run
+     * them sequentially
+     * 
+     * @since 1.17
+     **/
+    public static final String PARALLELISM_PARAM_NAME = "parsefilters.parallelism";
+
+    /**
+     * Size in bytes from which the content is large enough for the filters to
+     * be run concurrently
+     * 
+     * @since 1.17
+     **/
+    public static final String PARALLEL_MIN_SIZE_PARAM_NAME = "parsefilters.parallel.min.size";
+
+    /** Shared by all the instances in the JVM **/
+    private static ForkJoinPool pool;
+
     private ParseFilter[] filters;
 
+    /** Groups of consecutive filters which can run concurrently **/
+    private ParseFilter[][] stages;
+
+    private int parallelism = 0;
+
+    private int minParallelSize = 262144;
+
+    private volatile FilterMetrics metrics;
+
     private ParseFilters() {
         filters = new ParseFilter[0];
+        stages = new ParseFilter[0][];
     }
 
     private String configFile = "parsefilters.config.file";
@@ -122,6 +173,101 @@ public class ParseFilters extends ParseFilter implements JSONResource {
         List<ParseFilter> list = Configurable.configure(stormConf, filtersConf,
                 ParseFilter.class, this.getClass().getName());
         filters = list.toArray(new ParseFilter[list.size()]);
+        stages = group(filters);
+        parallelism = ConfUtils.getInt(stormConf, PARALLELISM_PARAM_NAME, 0);
+        minParallelSize = ConfUtils.getInt(stormConf,
+                PARALLEL_MIN_SIZE_PARAM_NAME, 262144);
+        if (parallelism > 1 && stages.length < filters.length) {
+            getPool(parallelism);
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool(int parallelism) {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Groups the consecutive filters which neither read nor write what the
+     * others in the group write
+     **/
+    static ParseFilter[][] group(ParseFilter[] filters) {
+        List<ParseFilter[]> stages = new ArrayList<>();
+        List<ParseFilter> current = new ArrayList<>();
+        for (ParseFilter filter : filters) {
+            for (ParseFilter other : current) {
+                if (!independent(filter, other)) {
+                    stages.add(current.toArray(new ParseFilter[0]));
+                    current.clear();
+                    break;
+                }
+            }
+            current.add(filter);
+        }
+        if (!current.isEmpty()) {
+            stages.add(current.toArray(new ParseFilter[0]));
+        }
+        return stages.toArray(new ParseFilter[stages.size()][]);
+    }
+
+    private static boolean independent(ParseFilter a, ParseFilter b) {
+        Set<String> writeA = a.getWriteSet();
+        Set<String> writeB = b.getWriteSet();
+        // could modify anything
+        if (writeA == null || writeB == null) {
+            return false;
+        }
+        return disjoint(writeA, writeB) && disjoint(a.getReadSet(), writeB)
+                && disjoint(b.getReadSet(), writeA);
+    }
+
+    /** null stands for all the keys **/
+    private static boolean disjoint(Set<String> read, Set<String> write) {
+        if (read == null) {
+            return write.isEmpty();
+        }
+        return Collections.disjoint(read, write);
+    }
+
+    /**
+     * Returns the invocation counts and latencies of the filters, starting to
+     * collect them on the first call
+     * 
+     * @since 1.17
+     **/
+    public synchronized FilterMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new FilterMetrics(filters, false);
+        }
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of the filters with the context under
+     * <code>parsefilters</code> as well as the filters which implement
+     * {@link IMetric}, under the simple name of their class
+     * 
+     * @since 1.17
+     **/
+    public void registerMetrics(TopologyContext context,
+            int timeBucketSizeInSecs) {
+        context.registerMetric("parsefilters", getMetrics(),
+                timeBucketSizeInSecs);
+        Set<String> names = new HashSet<>();
+        for (ParseFilter filter : filters) {
+            if (!(filter instanceof IMetric)) {
+                continue;
+            }
+            String name = filter.getClass().getSimpleName();
+            // several instances of the same class
+            for (int i = 1; !names.add(name); i++) {
+                name = filter.getClass().getSimpleName() + "." + i;
+            }
+            context.registerMetric(name, (IMetric) filter,
+                    timeBucketSizeInSecs);
+        }
     }
 
     @Override
@@ -135,27 +281,160 @@ public class ParseFilters extends ParseFilter implements JSONResource {
         return false;
     }
 
+    @Override
+    public boolean needsDOMWithJSoup() {
+        for (ParseFilter filter : filters) {
+            if (filter.needsDOMWithJSoup()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<String> getReadSet() {
+        Set<String> keys = new HashSet<>();
+        for (ParseFilter filter : filters) {
+            Set<String> read = filter.getReadSet();
+            if (read == null) {
+                return null;
+            }
+            keys.addAll(read);
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        Set<String> keys = new HashSet<>();
+        for (ParseFilter filter : filters) {
+            Set<String> written = filter.getWriteSet();
+            if (written == null) {
+                return null;
+            }
+            keys.addAll(written);
+        }
+        return keys;
+    }
+
     @Override
     public void filter(String URL, byte[] content, DocumentFragment doc,
             ParseResult parse) {
+        filter(URL, content, null, doc, parse);
+    }
 
-        for (ParseFilter filter : filters) {
-            long start = System.currentTimeMillis();
-            if (doc == null && filter.needsDOM()) {
-                LOG.info(
-                        "ParseFilter {} needs DOM but has none to work on - skip : {}",
-                        filter.getClass().getName(), URL);
+    @Override
+    public void filter(String URL, byte[] content, Document jsoupDoc,
+            DocumentFragment doc, ParseResult parse) {
+
+        boolean parallel = parallelism > 1 && content != null
+                && content.length >= minParallelSize;
+
+        // position of the first filter of the stage in the chain
+        int offset = 0;
+        for (ParseFilter[] stage : stages) {
+            List<Integer> active = new ArrayList<>(stage.length);
+            int usingDOM = 0;
+            for (int j = 0; j < stage.length; j++) {
+                ParseFilter filter = stage[j];
+                boolean needsDOM = jsoupDoc == null ? filter.needsDOM()
+                        : filter.needsDOMWithJSoup();
+                if (needsDOM) {
+                    if (doc == null) {
+                        LOG.info(
+                                "ParseFilter {} needs DOM but has none to work on - skip : {}",
+                                filter.getClass().getName(), URL);
+                        continue;
+                    }
+                    usingDOM++;
+                }
+                active.add(offset + j);
+            }
+            offset += stage.length;
+            // the DOM is not thread safe
+            if (!parallel || active.size() < 2 || usingDOM > 1) {
+                for (int index : active) {
+                    run(index, URL, content, jsoupDoc, doc, parse);
+                }
                 continue;
             }
-            filter.filter(URL, content, doc, parse);
-            long end = System.currentTimeMillis();
-            LOG.debug("ParseFilter {} took {} msec",
-                    filter.getClass().getName(), end - start);
+            ParseResult[] copies = new ParseResult[active.size()];
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[active.size()];
+            for (int i = 0; i < tasks.length; i++) {
+                int index = active.get(i);
+                ParseResult result = copy(parse);
+                copies[i] = result;
+                tasks[i] = pool.submit(() -> run(index, URL, content,
+                        jsoupDoc, doc, result));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            // merge in the order of the configuration
+            for (int i = 0; i < tasks.length; i++) {
+                merge(copies[i], filters[active.get(i)].getWriteSet(), parse);
+            }
+        }
+    }
+
+    private void run(int index, String URL, byte[] content,
+            Document jsoupDoc, DocumentFragment doc, ParseResult parse) {
+        ParseFilter filter = filters[index];
+        long start = System.nanoTime();
+        filter.filter(URL, content, jsoupDoc, doc, parse);
+        long elapsed = System.nanoTime() - start;
+        FilterMetrics timings = metrics;
+        if (timings != null) {
+            timings.record(index, elapsed, false);
+        }
+        LOG.debug("ParseFilter {} took {} msec", filter.getClass().getName(),
+                elapsed / 1000000);
+    }
+
+    /** Copies the metadata, text and list of outlinks **/
+    private static ParseResult copy(ParseResult parse) {
+        List<Outlink> outlinks = parse.getOutlinks();
+        ParseResult copy = new ParseResult(outlinks == null ? null
+                : new ArrayList<>(outlinks));
+        for (Map.Entry<String, ParseData> entry : parse) {
+            ParseData data = entry.getValue();
+            ParseData dataCopy = new ParseData(data.getText(), new Metadata(
+                    new HashMap<>(data.getMetadata().asMap())));
+            dataCopy.setContent(data.getContent());
+            copy.getParseMap().put(entry.getKey(), dataCopy);
+        }
+        return copy;
+    }
+
+    /** Copies the keys written by a filter from its copy of the result **/
+    private static void merge(ParseResult copy, Set<String> written,
+            ParseResult parse) {
+        for (Map.Entry<String, ParseData> entry : copy) {
+            ParseData source = entry.getValue();
+            ParseData target = parse.get(entry.getKey());
+            for (String key : written) {
+                if (TEXT.equals(key)) {
+                    target.setText(source.getText());
+                } else if (!OUTLINKS.equals(key)) {
+                    String[] values = source.getValues(key);
+                    if (values == null) {
+                        target.getMetadata().remove(key);
+                    } else {
+                        target.getMetadata().setValues(key, values);
+                    }
+                }
+            }
+        }
+        if (written.contains(OUTLINKS)) {
+            parse.setOutlinks(copy.getOutlinks());
         }
     }
 
     /***
-     * Used for quick testing + debugging
+     * Used for quick testing + debugging. With <code>-p</code>, the filters are
+     * applied <code>-n</code> times and the time spent in each of them is
+     * reported along with that of the URLFilters applied to the links of the
+     * page.
      * @since 1.17
      * @throws ParseException
      **/
@@ -170,6 +449,9 @@ public class ParseFilters extends ParseFilter implements JSONResource {
 
         Options options = new Options();
         options.addOption("c", true, "stormcrawler configuration file");
+        options.addOption("n", true, "number of iterations, default 1");
+        options.addOption("p", false,
+                "profile the parse filters and URL filters");
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
@@ -183,6 +465,15 @@ public class ParseFilters extends ParseFilter implements JSONResource {
 
         System.out.println(filters.filters.length + " filters found");
 
+        boolean profile = cmd.hasOption("p");
+        int iterations = Integer.parseInt(cmd.getOptionValue("n", "1"));
+
+        URLFilters urlFilters = URLFilters.fromConf(conf);
+        if (profile) {
+            filters.getMetrics();
+            urlFilters.getMetrics();
+        }
+
         ParseResult parse = new ParseResult();
 
         String url = cmd.getArgs()[0];
@@ -191,11 +482,33 @@ public class ParseFilters extends ParseFilter implements JSONResource {
 
         Document doc = Jsoup.parse(new String(content), url);
 
-        filters.filter(url, content, DocumentFragmentBuilder.fromJsoup(doc),
-                parse);
+        DocumentFragment fragment = null;
+        if (filters.needsDOMWithJSoup()) {
+            fragment = DocumentFragmentBuilder.fromJsoup(doc);
+        }
+
+        URL sourceURL = new URL(url);
+        for (int i = 0; i < iterations; i++) {
+            parse = new ParseResult();
+            filters.filter(url, content, doc, fragment, parse);
+            if (!profile) {
+                continue;
+            }
+            for (Element link : doc.select("a[href]")) {
+                urlFilters.filter(sourceURL, new Metadata(),
+                        link.attr("abs:href"));
+            }
+        }
 
         System.out.println(parse.toString());
 
+        if (profile) {
+            System.out.println("PARSEFILTERS");
+            System.out.println(filters.getMetrics().report());
+            System.out.println("URLFILTERS");
+            System.out.println(urlFilters.getMetrics().report());
+        }
+
         System.exit(0);
     }
 
@@ -0,0 +1,258 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Extracts in a single traversal of a JSoup document what JSoupParserBolt
+ * needs: the links with their anchors, the robots and refresh meta tags and
+ * the text of the body as produced by the {@link TextExtractor}. The result is
+ * the same as with separate selections and traversals. The text is not
+ * extracted if the TextExtractor has inclusion patterns, it must then be
+ * obtained from the TextExtractor. Not thread safe.
+ * 
+ * @since 1.17
+ **/
+public class SinglePassExtractor implements NodeVisitor {
+
+    private static final Pattern ROBOTS = Pattern.compile("(?i)robots");
+
+    private static final Pattern REFRESH = Pattern.compile("(?i)refresh");
+
+    /** Link found in a document **/
+    public static class Link {
+        private final String url;
+        private final boolean noFollow;
+        private String anchor;
+
+        Link(String url, boolean noFollow) {
+            this.url = url;
+            this.noFollow = noFollow;
+        }
+
+        public Link(String url, boolean noFollow, String anchor) {
+            this(url, noFollow);
+            this.anchor = anchor;
+        }
+
+        /** Absolute URL of the target, can be empty **/
+        public String getURL() {
+            return url;
+        }
+
+        /** Whether the link is marked with rel="nofollow" **/
+        public boolean isNoFollow() {
+            return noFollow;
+        }
+
+        public String getAnchor() {
+            return anchor;
+        }
+
+        void setAnchor(String anchor) {
+            this.anchor = anchor;
+        }
+    }
+
+    /** Link being traversed, accumulating the text of its anchor **/
+    private static class OpenLink {
+        private final Element element;
+        private final Link link;
+        private final StringBuilder text = new StringBuilder();
+
+        OpenLink(Element element, Link link) {
+            this.element = element;
+            this.link = link;
+        }
+    }
+
+    private final TextExtractor textExtractor;
+
+    private final int maxLength;
+
+    private Element body;
+    private boolean inBody;
+    private Node excluded;
+    private int preserveDepth;
+    private StringBuilder text;
+    private final List<OpenLink> openLinks = new ArrayList<>(2);
+
+    private List<Link> links;
+    private String robotsContent;
+    private String refreshContent;
+
+    public SinglePassExtractor(TextExtractor textExtractor) {
+        this.textExtractor = textExtractor;
+        this.maxLength = textExtractor.getMaxLength();
+    }
+
+    /** Traverses the document, the results are then available via getters **/
+    public void extract(Document doc) {
+        body = doc.body();
+        inBody = false;
+        excluded = null;
+        preserveDepth = 0;
+        text = textExtractor.hasInclusionPatterns() ? null
+                : new StringBuilder();
+        openLinks.clear();
+        links = new ArrayList<>();
+        robotsContent = null;
+        refreshContent = null;
+        NodeTraversor.traverse(this, doc);
+    }
+
+    /** Links in the order of the document, null if none **/
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    /** Content of the first robots meta tag, null if none **/
+    public String getRobotsContent() {
+        return robotsContent;
+    }
+
+    /** Content of the first refresh meta tag, null if none **/
+    public String getRefreshContent() {
+        return refreshContent;
+    }
+
+    /**
+     * Text of the body, empty if there is no body and null if the
+     * TextExtractor has inclusion patterns
+     **/
+    public String getText() {
+        if (text == null) {
+            return null;
+        }
+        if (maxLength >= 0 && text.length() > maxLength) {
+            text.setLength(maxLength);
+        }
+        return text.toString().trim();
+    }
+
+    @Override
+    public void head(Node node, int depth) {
+        if (node instanceof TextNode) {
+            TextNode textNode = (TextNode) node;
+            boolean preserve = preserveDepth > 0;
+            if (inBody && text != null && excluded == null
+                    && (maxLength < 0 || text.length() < maxLength)) {
+                TextExtractor.appendNormalisedText(text, textNode, preserve);
+            }
+            for (int i = 0; i < openLinks.size(); i++) {
+                TextExtractor.appendNormalisedText(openLinks.get(i).text,
+                        textNode, preserve);
+            }
+            return;
+        }
+        if (!(node instanceof Element)) {
+            return;
+        }
+        Element element = (Element) node;
+        String tagName = element.tagName();
+        boolean spaced = element.isBlock() || tagName.equals("br");
+
+        if (element == body) {
+            inBody = true;
+        }
+        if (element.tag().preserveWhitespace()) {
+            preserveDepth++;
+        }
+        if (inBody && text != null) {
+            if (excluded == null && textExtractor.isExcluded(tagName)) {
+                excluded = element;
+            }
+            if (spaced) {
+                space(text);
+            }
+        }
+        if (spaced) {
+            for (int i = 0; i < openLinks.size(); i++) {
+                space(openLinks.get(i).text);
+            }
+        }
+
+        if (tagName.equals("a") && element.hasAttr("href")) {
+            Link link = new Link(element.absUrl("href"),
+                    "nofollow".equalsIgnoreCase(element.attr("rel")));
+            links.add(link);
+            openLinks.add(new OpenLink(element, link));
+        } else if (tagName.equals("meta") && element.hasAttr("content")) {
+            if (robotsContent == null
+                    && ROBOTS.matcher(element.attr("name")).find()) {
+                robotsContent = element.attr("content");
+            }
+            if (refreshContent == null
+                    && REFRESH.matcher(element.attr("http-equiv")).find()) {
+                refreshContent = element.attr("content");
+            }
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+        if (!(node instanceof Element)) {
+            return;
+        }
+        Element element = (Element) node;
+        if (element.tag().preserveWhitespace()) {
+            preserveDepth--;
+        }
+        // a space between block tags and immediately following text nodes
+        // <div>One</div>Two should be "One Two"
+        boolean spaced = element.isBlock()
+                && (node.nextSibling() instanceof TextNode);
+        if (inBody && text != null) {
+            if (element == excluded) {
+                excluded = null;
+            }
+            if (spaced && !TextExtractor.lastCharIsWhitespace(text)) {
+                text.append(' ');
+            }
+        }
+        for (int i = openLinks.size() - 1; i >= 0; i--) {
+            OpenLink open = openLinks.get(i);
+            if (spaced && !TextExtractor.lastCharIsWhitespace(open.text)) {
+                open.text.append(' ');
+            }
+            if (open.element == element) {
+                open.link.setAnchor(open.text.toString().trim());
+                openLinks.remove(i);
+            }
+        }
+        if (element == body) {
+            inBody = false;
+        }
+    }
+
+    private static void space(StringBuilder accum) {
+        if (accum.length() > 0 && !TextExtractor.lastCharIsWhitespace(accum)) {
+            accum.append(' ');
+        }
+    }
+}
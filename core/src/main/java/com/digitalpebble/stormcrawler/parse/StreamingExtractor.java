@@ -0,0 +1,561 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.jsoup.internal.StringUtil;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+
+import com.digitalpebble.stormcrawler.parse.SinglePassExtractor.Link;
+
+/**
+ * Extracts the links with their anchors, the robots and refresh meta tags and
+ * the text of an HTML page by tokenizing it, without building a document. The
+ * memory used is proportional to what is extracted and not to the size of the
+ * page. The tokenizer follows the HTML syntax closely enough to give the same
+ * results as {@link SinglePassExtractor} on most pages, but does not implement
+ * the tree building rules which fix badly nested markup. The text exclusion of
+ * the {@link TextExtractor} is supported but not its inclusion patterns. Not
+ * thread safe.
+ *
+ * @since 1.17
+ **/
+public class StreamingExtractor {
+
+    private static final Pattern ROBOTS = Pattern.compile("(?i)robots");
+
+    private static final Pattern REFRESH = Pattern.compile("(?i)refresh");
+
+    private final TextExtractor textExtractor;
+
+    private final int maxLength;
+
+    private String baseURL;
+    private boolean baseSet;
+
+    private List<Link> links;
+    private String robotsContent;
+    private String refreshContent;
+
+    private final StringBuilder text = new StringBuilder();
+
+    /** Link being read and the text of its anchor **/
+    private Link openLink;
+    private final StringBuilder anchor = new StringBuilder();
+
+    private boolean inHead;
+    private int excludedDepth;
+    private int preserveDepth;
+
+    /** A block element has just been closed **/
+    private boolean pendingSpace;
+
+    /** Attributes of the current tag, only kept for the tags of interest **/
+    private String href;
+    private String rel;
+    private String name;
+    private String httpEquiv;
+    private String content;
+
+    /**
+     * The current tag ends with a '/' which is not part of an unquoted
+     * attribute value, e.g. &lt;br/&gt; but not &lt;a href=/foo/&gt;
+     **/
+    private boolean selfClosing;
+
+    public StreamingExtractor(TextExtractor textExtractor) {
+        this.textExtractor = textExtractor;
+        this.maxLength = textExtractor.getMaxLength();
+    }
+
+    /** Tokenizes the page, the results are then available via getters **/
+    public void extract(String html, String url) {
+        baseURL = url;
+        baseSet = false;
+        links = new ArrayList<>();
+        robotsContent = null;
+        refreshContent = null;
+        text.setLength(0);
+        openLink = null;
+        anchor.setLength(0);
+        // the head is implied until something belonging to the body
+        inHead = true;
+        excludedDepth = 0;
+        preserveDepth = 0;
+        pendingSpace = false;
+
+        final int length = html.length();
+        int pos = 0;
+        while (pos < length) {
+            int lt = html.indexOf('<', pos);
+            if (lt == -1) {
+                text(html, pos, length, true);
+                break;
+            }
+            if (lt > pos) {
+                text(html, pos, lt, true);
+            }
+            pos = markup(html, lt);
+        }
+        closeLink();
+    }
+
+    /** Links in the order of the document **/
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    /** Content of the first robots meta tag, null if none **/
+    public String getRobotsContent() {
+        return robotsContent;
+    }
+
+    /** Content of the first refresh meta tag, null if none **/
+    public String getRefreshContent() {
+        return refreshContent;
+    }
+
+    /** Text of the page outside of its head **/
+    public String getText() {
+        if (maxLength >= 0 && text.length() > maxLength) {
+            text.setLength(maxLength);
+        }
+        return text.toString().trim();
+    }
+
+    /** Reads the markup starting at the given '<', returns the next position **/
+    private int markup(String html, int lt) {
+        final int length = html.length();
+        if (lt + 1 >= length) {
+            text(html, lt, length, false);
+            return length;
+        }
+        char c = html.charAt(lt + 1);
+        if (c == '!') {
+            if (html.startsWith("--", lt + 2)) {
+                int end = html.indexOf("-->", lt + 4);
+                return end == -1 ? length : end + 3;
+            }
+            // doctype, CDATA and the likes
+            return skipTo(html, '>', lt + 2);
+        }
+        if (c == '?') {
+            return skipTo(html, '>', lt + 2);
+        }
+        if (c == '/') {
+            if (lt + 2 < length && isLetter(html.charAt(lt + 2))) {
+                int end = nameEnd(html, lt + 2);
+                endTag(tagName(html, lt + 2, end));
+                return skipTo(html, '>', end);
+            }
+            return skipTo(html, '>', lt + 2);
+        }
+        if (!isLetter(c)) {
+            text(html, lt, lt + 1, false);
+            return lt + 1;
+        }
+        int end = nameEnd(html, lt + 1);
+        String tagName = tagName(html, lt + 1, end);
+        boolean keep = tagName.equals("a") || tagName.equals("meta")
+                || tagName.equals("base");
+        href = rel = name = httpEquiv = content = null;
+        int pos = attributes(html, end, keep);
+        if (pos == -1) {
+            // unterminated tag
+            return length;
+        }
+        startTag(tagName, selfClosing);
+        return rawText(html, tagName, pos);
+    }
+
+    /**
+     * Reads the attributes until the end of the tag, returns the position
+     * after the '>' or -1 if the tag is not terminated
+     **/
+    private int attributes(String html, int pos, boolean keep) {
+        final int length = html.length();
+        selfClosing = false;
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c == '>') {
+                return pos + 1;
+            }
+            // like the tokenizer, only a '/' right before the '>' counts
+            selfClosing = c == '/';
+            if (isWhitespace(c) || c == '/') {
+                pos++;
+                continue;
+            }
+            int nameStart = pos;
+            while (pos < length) {
+                c = html.charAt(pos);
+                if (isWhitespace(c) || c == '=' || c == '>'
+                        || (c == '/' && pos > nameStart)) {
+                    break;
+                }
+                pos++;
+            }
+            int nameEnd = pos;
+            while (pos < length && isWhitespace(html.charAt(pos))) {
+                pos++;
+            }
+            int valueStart = pos;
+            int valueEnd = pos;
+            if (pos < length && html.charAt(pos) == '=') {
+                pos++;
+                while (pos < length && isWhitespace(html.charAt(pos))) {
+                    pos++;
+                }
+                if (pos >= length) {
+                    return -1;
+                }
+                c = html.charAt(pos);
+                if (c == '"' || c == '\'') {
+                    int close = html.indexOf(c, pos + 1);
+                    if (close == -1) {
+                        return -1;
+                    }
+                    valueStart = pos + 1;
+                    valueEnd = close;
+                    pos = close + 1;
+                } else {
+                    valueStart = pos;
+                    while (pos < length && !isWhitespace(html.charAt(pos))
+                            && html.charAt(pos) != '>') {
+                        pos++;
+                    }
+                    valueEnd = pos;
+                }
+            }
+            if (keep) {
+                attribute(html, nameStart, nameEnd, valueStart, valueEnd);
+            }
+        }
+        return -1;
+    }
+
+    /** Keeps the value if the attribute is one we need, the first one wins **/
+    private void attribute(String html, int nameStart, int nameEnd,
+            int valueStart, int valueEnd) {
+        int length = nameEnd - nameStart;
+        if (length == 4 && href == null
+                && html.regionMatches(true, nameStart, "href", 0, 4)) {
+            href = value(html, valueStart, valueEnd);
+        } else if (length == 3 && rel == null
+                && html.regionMatches(true, nameStart, "rel", 0, 3)) {
+            rel = value(html, valueStart, valueEnd);
+        } else if (length == 4 && name == null
+                && html.regionMatches(true, nameStart, "name", 0, 4)) {
+            name = value(html, valueStart, valueEnd);
+        } else if (length == 10 && httpEquiv == null
+                && html.regionMatches(true, nameStart, "http-equiv", 0, 10)) {
+            httpEquiv = value(html, valueStart, valueEnd);
+        } else if (length == 7 && content == null
+                && html.regionMatches(true, nameStart, "content", 0, 7)) {
+            content = value(html, valueStart, valueEnd);
+        }
+    }
+
+    private static String value(String html, int start, int end) {
+        String value = html.substring(start, end);
+        if (value.indexOf('&') != -1) {
+            value = Parser.unescapeEntities(value, true);
+        }
+        return value;
+    }
+
+    private void startTag(String tagName, boolean selfClosing) {
+        pendingSpace = false;
+        Tag tag = Tag.valueOf(tagName);
+
+        if (inHead && !tagName.equals("html") && !tagName.equals("head")
+                && !isHeadElement(tagName)) {
+            // the head ends at the first element which can't be in it
+            inHead = false;
+        }
+
+        boolean hasEnd = !selfClosing && !tag.isEmpty();
+        if (hasEnd && textExtractor.isExcluded(tagName)) {
+            excludedDepth++;
+        }
+        if (hasEnd && tag.preserveWhitespace()) {
+            preserveDepth++;
+        }
+        if (tag.isBlock() || tagName.equals("br")) {
+            if (!inHead && excludedDepth == 0) {
+                space(text);
+            }
+            if (openLink != null) {
+                space(anchor);
+            }
+        }
+
+        if (tagName.equals("a")) {
+            // links can't be nested
+            closeLink();
+            if (href != null) {
+                openLink = new Link(StringUtil.resolve(baseURL, href),
+                        "nofollow".equalsIgnoreCase(rel));
+                links.add(openLink);
+                if (selfClosing) {
+                    closeLink();
+                }
+            }
+        } else if (tagName.equals("meta") && content != null) {
+            if (robotsContent == null && name != null
+                    && ROBOTS.matcher(name).find()) {
+                robotsContent = content;
+            }
+            if (refreshContent == null && httpEquiv != null
+                    && REFRESH.matcher(httpEquiv).find()) {
+                refreshContent = content;
+            }
+        } else if (tagName.equals("base") && !baseSet && href != null) {
+            String base = StringUtil.resolve(baseURL, href);
+            if (base.length() != 0) {
+                baseURL = base;
+                baseSet = true;
+            }
+        }
+    }
+
+    private void endTag(String tagName) {
+        Tag tag = Tag.valueOf(tagName);
+        if (tagName.equals("head")) {
+            inHead = false;
+        } else if (tagName.equals("a")) {
+            closeLink();
+        }
+        if (excludedDepth > 0 && textExtractor.isExcluded(tagName)) {
+            excludedDepth--;
+        }
+        if (preserveDepth > 0 && tag.preserveWhitespace()) {
+            preserveDepth--;
+        }
+        // <div>One</div>Two should be "One Two"
+        pendingSpace = tag.isBlock();
+    }
+
+    /**
+     * Skips the content of the elements which can't contain markup, returns
+     * the position after their end tag
+     **/
+    private int rawText(String html, String tagName, int pos) {
+        boolean isText;
+        boolean entities;
+        switch (tagName) {
+        case "script":
+        case "style":
+            isText = false;
+            entities = false;
+            break;
+        case "xmp":
+        case "iframe":
+        case "noembed":
+        case "noframes":
+            isText = true;
+            entities = false;
+            break;
+        case "title":
+        case "textarea":
+            // the title is only part of the text if misplaced in the body
+            isText = !inHead;
+            entities = true;
+            break;
+        case "plaintext":
+            text(html, pos, html.length(), false);
+            return html.length();
+        default:
+            return pos;
+        }
+        int end = pos;
+        while (true) {
+            end = html.indexOf("</", end);
+            if (end == -1) {
+                end = html.length();
+                break;
+            }
+            int nameEnd = end + 2 + tagName.length();
+            if (html.regionMatches(true, end + 2, tagName, 0,
+                    tagName.length())
+                    && (nameEnd == html.length() || isWhitespace(html
+                            .charAt(nameEnd)) || html.charAt(nameEnd) == '>'
+                            || html.charAt(nameEnd) == '/')) {
+                break;
+            }
+            end += 2;
+        }
+        if (isText && end > pos) {
+            text(html, pos, end, entities);
+        }
+        if (end == html.length()) {
+            return end;
+        }
+        endTag(tagName);
+        return skipTo(html, '>', end + 2);
+    }
+
+    private void text(String html, int start, int end, boolean entities) {
+        CharSequence chars = html;
+        if (entities && contains(html, '&', start, end)) {
+            chars = Parser.unescapeEntities(html.substring(start, end), false);
+            start = 0;
+            end = chars.length();
+        }
+        boolean inText = !inHead && excludedDepth == 0;
+        if (inHead && !isBlank(chars, start, end)) {
+            // text can't be in the head, the body has started
+            inHead = false;
+            inText = excludedDepth == 0;
+        }
+        if (pendingSpace && !isBlank(chars, start, end)) {
+            if (inText && !lastCharIsWhitespace(text)) {
+                text.append(' ');
+            }
+            if (openLink != null && !lastCharIsWhitespace(anchor)) {
+                anchor.append(' ');
+            }
+            pendingSpace = false;
+        }
+        boolean preserve = preserveDepth > 0;
+        if (inText && (maxLength < 0 || text.length() < maxLength)) {
+            appendNormalised(text, chars, start, end, preserve);
+        }
+        if (openLink != null) {
+            appendNormalised(anchor, chars, start, end, preserve);
+        }
+    }
+
+    private void closeLink() {
+        if (openLink != null) {
+            openLink.setAnchor(anchor.toString().trim());
+            openLink = null;
+        }
+        anchor.setLength(0);
+    }
+
+    /**
+     * Same as the normalisation of the text nodes by JSoup: the runs of
+     * whitespace become a single space, dropped if there is one already
+     **/
+    private static void appendNormalised(StringBuilder accum,
+            CharSequence chars, int start, int end, boolean preserve) {
+        if (preserve) {
+            accum.append(chars, start, end);
+            return;
+        }
+        boolean lastWasWhite = false;
+        boolean reachedNonWhite = false;
+        boolean stripLeading = lastCharIsWhitespace(accum);
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (isWhitespace(c) || c == 160) {
+                if ((stripLeading && !reachedNonWhite) || lastWasWhite) {
+                    continue;
+                }
+                accum.append(' ');
+                lastWasWhite = true;
+            } else if (c != 8203 && c != 173) {
+                accum.append(c);
+                lastWasWhite = false;
+                reachedNonWhite = true;
+            }
+        }
+    }
+
+    private static void space(StringBuilder accum) {
+        if (accum.length() > 0 && !lastCharIsWhitespace(accum)) {
+            accum.append(' ');
+        }
+    }
+
+    private static boolean lastCharIsWhitespace(StringBuilder sb) {
+        return TextExtractor.lastCharIsWhitespace(sb);
+    }
+
+    private static boolean isBlank(CharSequence chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Only looks within the range, unlike String.indexOf **/
+    private static boolean contains(String html, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (html.charAt(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isHeadElement(String tagName) {
+        switch (tagName) {
+        case "base":
+        case "basefont":
+        case "bgsound":
+        case "link":
+        case "meta":
+        case "title":
+        case "noscript":
+        case "script":
+        case "style":
+        case "template":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static int nameEnd(String html, int pos) {
+        final int length = html.length();
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static String tagName(String html, int start, int end) {
+        return html.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static int skipTo(String html, char c, int pos) {
+        int end = html.indexOf(c, pos);
+        return end == -1 ? html.length() : end + 1;
+    }
+}
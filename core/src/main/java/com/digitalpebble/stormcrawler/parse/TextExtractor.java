@@ -26,8 +26,8 @@ import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
+import org.jsoup.select.NodeFilter;
 import org.jsoup.select.NodeTraversor;
-import org.jsoup.select.NodeVisitor;
 
 import com.digitalpebble.stormcrawler.util.ConfUtils;
 
@@ -54,18 +54,32 @@ import com.digitalpebble.stormcrawler.util.ConfUtils;
  *   textextractor.exclude.tags:
  *    - STYLE
  *    - SCRIPT
+ *
+ *   textextractor.maxlength: 100000
  *    }
  * </pre>
  * 
+ * The text is truncated to textextractor.maxlength characters, the traversal
+ * of the document stopping once it is reached. The default value of -1 means
+ * that the text is not truncated.
+ * 
  * @since 1.13
  **/
 public class TextExtractor {
 
     public final static String INCLUDE_PARAM_NAME = "textextractor.include.pattern";
     public final static String EXCLUDE_PARAM_NAME = "textextractor.exclude.tags";
+    public final static String MAX_LENGTH_PARAM_NAME = "textextractor.maxlength";
+
+    /** Builders which grew beyond that are not kept for the next document **/
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal
+            .withInitial(StringBuilder::new);
 
     private List<String> inclusionPatterns;
     private HashSet<String> excludedTags;
+    private int maxLength;
 
     public TextExtractor(Map stormConf) {
         inclusionPatterns = ConfUtils.loadListFromConf(INCLUDE_PARAM_NAME,
@@ -73,16 +87,14 @@ public class TextExtractor {
         excludedTags = new HashSet<String>();
         ConfUtils.loadListFromConf(EXCLUDE_PARAM_NAME, stormConf)
                 .forEach((s) -> excludedTags.add(s.toLowerCase()));
+        maxLength = ConfUtils.getInt(stormConf, MAX_LENGTH_PARAM_NAME, -1);
     }
 
     public String text(Element element) {
-        // no patterns at all - return the text from the whole document
-        if (inclusionPatterns.size() == 0 && excludedTags.size() == 0) {
-            return _text(element);
-        }
-
-        Elements matches = new Elements();
+        StringBuilder accum = builders.get();
+        accum.setLength(0);
 
+        Elements matches = null;
         for (String pattern : inclusionPatterns) {
             matches = element.select(pattern);
             if (!matches.isEmpty())
@@ -90,85 +102,166 @@ public class TextExtractor {
         }
 
         // if nothing matches or no patterns were defined use the whole doc
-        if (matches.isEmpty()) {
-            matches.add(element);
+        if (matches == null || matches.isEmpty()) {
+            append(accum, element);
+        } else {
+            for (Element node : matches) {
+                if (append(accum, node)) {
+                    break;
+                }
+                accum.append('\n');
+            }
         }
 
-        final StringBuilder accum = new StringBuilder();
-
-        for (Element node : matches) {
-            accum.append(_text(node)).append("\n");
+        if (maxLength >= 0 && accum.length() > maxLength) {
+            accum.setLength(maxLength);
         }
+        int start = 0;
+        int end = accum.length();
+        while (start < end && accum.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && accum.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        String text = accum.substring(start, end);
+        if (accum.capacity() > MAX_RETAINED_CAPACITY) {
+            builders.remove();
+        }
+        return text;
+    }
 
-        return accum.toString().trim();
+    /**
+     * Appends the trimmed text of the node, returns true if the maximum length
+     * has been reached
+     **/
+    private boolean append(StringBuilder accum, Node node) {
+        int start = accum.length();
+        TextVisitor visitor = new TextVisitor(accum, start,
+                preserveWhitespace(node.parent()));
+        NodeTraversor.filter(visitor, node);
+        int end = accum.length();
+        while (end > start && accum.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        accum.setLength(end);
+        int first = start;
+        while (first < end && accum.charAt(first) <= ' ') {
+            first++;
+        }
+        if (first > start) {
+            accum.delete(start, first);
+        }
+        return visitor.full;
     }
 
-    private String _text(Node node) {
-        final StringBuilder accum = new StringBuilder();
-        NodeTraversor.traverse(new NodeVisitor() {
-
-            private Node excluded = null;
-
-            public void head(Node node, int depth) {
-                if (excluded == null && node instanceof TextNode) {
-                    TextNode textNode = (TextNode) node;
-                    appendNormalisedText(accum, textNode);
-                } else if (node instanceof Element) {
-                    Element element = (Element) node;
-                    if (excludedTags.contains(element.tagName())) {
-                        excluded = element;
-                    }
-                    if (accum.length() > 0
-                            && (element.isBlock() || element.tag().getName()
-                                    .equals("br"))
-                            && !lastCharIsWhitespace(accum))
-                        accum.append(' ');
+    /**
+     * Keeps track of whether the current node is within an element preserving
+     * whitespace or an excluded one, instead of looking up its ancestors
+     **/
+    private final class TextVisitor implements NodeFilter {
+
+        private final StringBuilder accum;
+        private final int start;
+        private int preserveDepth;
+        private int excludedDepth = 0;
+        private boolean full = false;
+
+        TextVisitor(StringBuilder accum, int start, boolean preserve) {
+            this.accum = accum;
+            this.start = start;
+            this.preserveDepth = preserve ? 1 : 0;
+        }
+
+        @Override
+        public FilterResult head(Node node, int depth) {
+            if (node instanceof TextNode) {
+                if (excludedDepth > 0) {
+                    return FilterResult.CONTINUE;
+                }
+                appendNormalisedText(accum, (TextNode) node,
+                        preserveDepth > 0);
+                if (maxLength >= 0 && accum.length() >= maxLength) {
+                    full = true;
+                    return FilterResult.STOP;
                 }
+            } else if (node instanceof Element) {
+                Element element = (Element) node;
+                if (excludedTags.contains(element.tagName())) {
+                    excludedDepth++;
+                }
+                if (element.tag().preserveWhitespace()) {
+                    preserveDepth++;
+                }
+                if (accum.length() > start
+                        && (element.isBlock() || element.tag().getName()
+                                .equals("br"))
+                        && !lastCharIsWhitespace(accum))
+                    accum.append(' ');
             }
+            return FilterResult.CONTINUE;
+        }
 
-            public void tail(Node node, int depth) {
-                // make sure there is a space between block tags and immediately
-                // following text nodes <div>One</div>Two should be "One Two".
-                if (node instanceof Element) {
-                    Element element = (Element) node;
-                    if (element == excluded) {
-                        excluded = null;
-                    }
-                    if (element.isBlock()
-                            && (node.nextSibling() instanceof TextNode)
-                            && !lastCharIsWhitespace(accum))
-                        accum.append(' ');
+        @Override
+        public FilterResult tail(Node node, int depth) {
+            // make sure there is a space between block tags and immediately
+            // following text nodes <div>One</div>Two should be "One Two".
+            if (node instanceof Element) {
+                Element element = (Element) node;
+                if (excludedTags.contains(element.tagName())) {
+                    excludedDepth--;
                 }
-
+                if (element.tag().preserveWhitespace()) {
+                    preserveDepth--;
+                }
+                if (element.isBlock()
+                        && (node.nextSibling() instanceof TextNode)
+                        && !lastCharIsWhitespace(accum))
+                    accum.append(' ');
             }
-        }, node);
-        return accum.toString().trim();
+            return FilterResult.CONTINUE;
+        }
+    }
+
+    /** Whether the text is restricted to some elements of the document **/
+    public boolean hasInclusionPatterns() {
+        return !inclusionPatterns.isEmpty();
+    }
+
+    /** Maximum number of characters of text, -1 if unlimited **/
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /** Whether the text of the elements with that tag name is ignored **/
+    boolean isExcluded(String tagName) {
+        return excludedTags.contains(tagName);
     }
 
-    private static void appendNormalisedText(StringBuilder accum,
-            TextNode textNode) {
+    /**
+     * Appends the text of the node, with its whitespace normalised unless
+     * preserve is true or the node is a CDATA section
+     **/
+    static void appendNormalisedText(StringBuilder accum, TextNode textNode,
+            boolean preserve) {
         String text = textNode.getWholeText();
 
-        if (preserveWhitespace(textNode.parent())
-                || textNode instanceof CDataNode)
+        if (preserve || textNode instanceof CDataNode)
             accum.append(text);
         else
             StringUtil.appendNormalisedWhitespace(accum, text,
                     lastCharIsWhitespace(accum));
     }
 
+    /**
+     * Whether the node or one of its ancestors preserves whitespace, only
+     * used for the root of a traversal which then keeps track of the depth
+     **/
     static boolean preserveWhitespace(Node node) {
-        // looks only at this element and five levels up, to prevent recursion &
-        // needless stack searches
-        if (node != null && node instanceof Element) {
-            Element el = (Element) node;
-            int i = 0;
-            do {
-                if (el.tag().preserveWhitespace())
-                    return true;
-                el = el.parent();
-                i++;
-            } while (i < 6 && el != null);
+        for (Node n = node; n != null; n = n.parent()) {
+            if (n instanceof Element
+                    && ((Element) n).tag().preserveWhitespace())
+                return true;
         }
         return false;
     }
@@ -137,6 +137,16 @@ public class CollectionTagger extends ParseFilter implements JSONResource {
         }
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        return java.util.Collections.emptySet();
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return java.util.Collections.singleton(key);
+    }
+
 }
 
 class Collections {
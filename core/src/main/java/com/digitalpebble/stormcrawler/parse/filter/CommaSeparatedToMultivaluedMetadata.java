@@ -70,4 +70,14 @@ public class CommaSeparatedToMultivaluedMetadata extends ParseFilter {
         }
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        return keys;
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return keys;
+    }
+
 }
@@ -17,8 +17,10 @@
 
 package com.digitalpebble.stormcrawler.parse.filter;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.w3c.dom.DocumentFragment;
 
@@ -64,4 +66,14 @@ public class DomainParseFilter extends ParseFilter {
         metadata.setValue(mdKey, value);
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return Collections.singleton(mdKey);
+    }
+
 }
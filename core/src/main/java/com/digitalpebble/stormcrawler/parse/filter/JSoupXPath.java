@@ -0,0 +1,484 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Evaluates XPath expressions directly on a JSoup document, without
+ * converting it to a DOM with
+ * {@link com.digitalpebble.stormcrawler.parse.DocumentFragmentBuilder}. The
+ * results are the same as those of javax.xml.xpath on the DocumentFragment,
+ * where the element names are in uppercase and the attribute names in
+ * lowercase. Only location paths are supported, made of steps such as
+ * <code>NAME</code>, <code>*</code>, <code>@name</code> or
+ * <code>text()</code> separated by <code>/</code> or <code>//</code>. The
+ * steps on elements can have predicates on positions or attributes e.g.
+ * <code>[1]</code>, <code>[@name]</code>, <code>[@name="value"]</code>,
+ * <code>[@name!="value"]</code>, <code>[contains(@name,"value")]</code> and
+ * <code>[starts-with(@name,"value")]</code>. The compiled expressions are
+ * immutable and can be shared between threads.
+ *
+ * @since 1.17
+ **/
+public final class JSoupXPath {
+
+    private enum Kind {
+        ELEMENT, ATTRIBUTE, TEXT
+    }
+
+    private enum Operator {
+        POSITION, EXISTS, EQUALS, NOT_EQUALS, CONTAINS, STARTS_WITH
+    }
+
+    private static final class Predicate {
+        private final Operator operator;
+        private final String attribute;
+        private final String value;
+        private final int position;
+
+        private Predicate(Operator operator, String attribute, String value,
+                int position) {
+            this.operator = operator;
+            this.attribute = attribute;
+            this.value = value;
+            this.position = position;
+        }
+
+        private boolean matches(Element element) {
+            // unlike hasAttr() and attr(), case-sensitive like the DOM
+            if (!element.attributes().hasKey(attribute)) {
+                return false;
+            }
+            String actual = element.attributes().get(attribute);
+            switch (operator) {
+            case EQUALS:
+                return actual.equals(value);
+            case NOT_EQUALS:
+                return !actual.equals(value);
+            case CONTAINS:
+                return actual.contains(value);
+            case STARTS_WITH:
+                return actual.startsWith(value);
+            default:
+                return true;
+            }
+        }
+    }
+
+    private static final class Step {
+        /** descendant-or-self::node()/ before the step i.e. '//' **/
+        private final boolean descendant;
+        private final Kind kind;
+        /** Name of the element or attribute, null for any element **/
+        private final String name;
+        private final Predicate[] predicates;
+        private final boolean positional;
+        /** The DOM has the element names in uppercase **/
+        private final boolean matchesNone;
+
+        private Step(boolean descendant, Kind kind, String name,
+                List<Predicate> predicates) {
+            this.descendant = descendant;
+            this.kind = kind;
+            this.name = name;
+            this.predicates = predicates.toArray(new Predicate[0]);
+            boolean p = false;
+            for (Predicate predicate : predicates) {
+                p |= predicate.operator == Operator.POSITION;
+            }
+            this.positional = p;
+            this.matchesNone = kind == Kind.ELEMENT && name != null
+                    && !name.equals(name.toUpperCase(Locale.ENGLISH));
+        }
+
+        private boolean matchesName(Element element) {
+            if (name == null) {
+                return true;
+            }
+            return !matchesNone && element.tagName().equalsIgnoreCase(name);
+        }
+
+        /** Applies the name test and predicates to the children **/
+        private void children(Element parent, List<Node> out) {
+            List<Element> matches = new ArrayList<>();
+            for (Element child : parent.children()) {
+                if (matchesName(child)) {
+                    matches.add(child);
+                }
+            }
+            for (Predicate predicate : predicates) {
+                if (predicate.operator == Operator.POSITION) {
+                    Element e = predicate.position <= matches.size() ? matches
+                            .get(predicate.position - 1) : null;
+                    matches.clear();
+                    if (e != null) {
+                        matches.add(e);
+                    }
+                    continue;
+                }
+                matches.removeIf(e -> !predicate.matches(e));
+            }
+            out.addAll(matches);
+        }
+
+        private boolean matches(Element element) {
+            if (!matchesName(element)) {
+                return false;
+            }
+            for (Predicate predicate : predicates) {
+                if (!predicate.matches(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final String expression;
+    private final boolean absolute;
+    private final Step[] steps;
+
+    private JSoupXPath(String expression, boolean absolute, List<Step> steps) {
+        this.expression = expression;
+        this.absolute = absolute;
+        this.steps = steps.toArray(new Step[0]);
+    }
+
+    /**
+     * Compiles the expression, returns null if it is not supported and must
+     * be evaluated with javax.xml.xpath instead
+     **/
+    public static JSoupXPath compile(String expression) {
+        try {
+            return new Compiler(expression.trim()).compile(expression);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the string values of the nodes selected in the document order:
+     * the concatenated text of the elements including the content of the
+     * scripts, the values of the attributes or the text nodes
+     **/
+    public List<String> evaluate(Node context) {
+        Node root = context;
+        while (root.parent() != null) {
+            root = root.parent();
+        }
+        List<Node> current = Collections.singletonList(absolute ? root
+                : context);
+        for (Step step : steps) {
+            if (step.kind == Kind.ATTRIBUTE) {
+                return attributes(step, root, current);
+            }
+            List<Node> next = new ArrayList<>();
+            boolean ordered = current.size() <= 1;
+            for (Node node : current) {
+                if (!(node instanceof Element)) {
+                    continue;
+                }
+                Element element = (Element) node;
+                if (step.kind == Kind.TEXT) {
+                    for (Node child : element.childNodes()) {
+                        if (child instanceof TextNode
+                                || child instanceof DataNode) {
+                            next.add(child);
+                        }
+                    }
+                } else if (!step.descendant) {
+                    step.children(element, next);
+                } else if (!step.positional) {
+                    for (Element e : element.getAllElements()) {
+                        if (e != element && step.matches(e)) {
+                            next.add(e);
+                        }
+                    }
+                } else {
+                    // the positions are relative to the parents
+                    for (Element e : element.getAllElements()) {
+                        step.children(e, next);
+                    }
+                    ordered = false;
+                }
+            }
+            current = ordered ? next : documentOrder(root, next);
+        }
+        List<String> values = new ArrayList<>(current.size());
+        for (Node node : current) {
+            values.add(stringValue(node));
+        }
+        return values;
+    }
+
+    /** Values of the attributes of the elements, in document order **/
+    private static List<String> attributes(Step step, Node root,
+            List<Node> elements) {
+        if (step.descendant) {
+            List<Node> all = new ArrayList<>();
+            for (Node node : elements) {
+                if (node instanceof Element) {
+                    all.addAll(((Element) node).getAllElements());
+                }
+            }
+            elements = elements.size() <= 1 ? all : documentOrder(root, all);
+        }
+        List<String> values = new ArrayList<>();
+        for (Node node : elements) {
+            if (node instanceof Element
+                    && node.attributes().hasKey(step.name)) {
+                values.add(node.attributes().get(step.name));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /** Sorts the nodes in document order and removes the duplicates **/
+    private static List<Node> documentOrder(Node root, List<Node> nodes) {
+        if (nodes.size() <= 1) {
+            return nodes;
+        }
+        final Set<Node> set = Collections
+                .newSetFromMap(new IdentityHashMap<>(nodes.size() * 2));
+        set.addAll(nodes);
+        final List<Node> ordered = new ArrayList<>(set.size());
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (set.contains(node)) {
+                    ordered.add(node);
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+            }
+        }, root);
+        return ordered;
+    }
+
+    /** Same as getTextContent() on the equivalent DOM node **/
+    private static String stringValue(Node node) {
+        if (node instanceof TextNode) {
+            return ((TextNode) node).getWholeText();
+        }
+        if (node instanceof DataNode) {
+            return ((DataNode) node).getWholeData();
+        }
+        final StringBuilder text = new StringBuilder();
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node n, int depth) {
+                if (n instanceof TextNode) {
+                    text.append(((TextNode) n).getWholeText());
+                } else if (n instanceof DataNode) {
+                    text.append(((DataNode) n).getWholeData());
+                }
+            }
+
+            @Override
+            public void tail(Node n, int depth) {
+            }
+        }, node);
+        return text.toString();
+    }
+
+    /** Recursive descent parser of the supported expressions **/
+    private static final class Compiler {
+        private final String input;
+        private int pos = 0;
+
+        private Compiler(String input) {
+            this.input = input;
+        }
+
+        private JSoupXPath compile(String expression) {
+            boolean absolute = input.startsWith("/");
+            boolean descendant = input.startsWith("//");
+            if (absolute) {
+                pos = descendant ? 2 : 1;
+            }
+            List<Step> steps = new ArrayList<>();
+            while (true) {
+                Step step = step(descendant);
+                if (step.kind != Kind.ELEMENT && pos != input.length()) {
+                    throw new IllegalArgumentException(
+                            "Attribute or text must be the last step");
+                }
+                steps.add(step);
+                if (pos == input.length()) {
+                    break;
+                }
+                if (input.startsWith("//", pos)) {
+                    descendant = true;
+                    pos += 2;
+                } else if (input.startsWith("/", pos)) {
+                    descendant = false;
+                    pos += 1;
+                } else {
+                    throw new IllegalArgumentException("Unexpected "
+                            + input.substring(pos));
+                }
+            }
+            return new JSoupXPath(expression, absolute, steps);
+        }
+
+        private Step step(boolean descendant) {
+            List<Predicate> predicates = new ArrayList<>();
+            if (consume("@")) {
+                return new Step(descendant, Kind.ATTRIBUTE, name(), predicates);
+            }
+            if (consume("text()")) {
+                if (descendant) {
+                    throw new IllegalArgumentException("//text()");
+                }
+                return new Step(descendant, Kind.TEXT, null, predicates);
+            }
+            String name = null;
+            if (!consume("*")) {
+                name = name();
+            }
+            while (consume("[")) {
+                predicates.add(predicate());
+                whitespace();
+                expect("]");
+            }
+            return new Step(descendant, Kind.ELEMENT, name, predicates);
+        }
+
+        private Predicate predicate() {
+            whitespace();
+            int start = pos;
+            while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
+                pos++;
+            }
+            if (pos > start) {
+                int position = Integer.parseInt(input.substring(start, pos));
+                if (position < 1) {
+                    throw new IllegalArgumentException("Position " + position);
+                }
+                return new Predicate(Operator.POSITION, null, null, position);
+            }
+            Operator function = null;
+            if (consume("contains(")) {
+                function = Operator.CONTAINS;
+            } else if (consume("starts-with(")) {
+                function = Operator.STARTS_WITH;
+            }
+            whitespace();
+            expect("@");
+            String attribute = name();
+            whitespace();
+            if (function != null) {
+                expect(",");
+                whitespace();
+                String value = literal();
+                whitespace();
+                expect(")");
+                return new Predicate(function, attribute, value, 0);
+            }
+            if (consume("=")) {
+                whitespace();
+                return new Predicate(Operator.EQUALS, attribute, literal(), 0);
+            }
+            if (consume("!=")) {
+                whitespace();
+                return new Predicate(Operator.NOT_EQUALS, attribute,
+                        literal(), 0);
+            }
+            return new Predicate(Operator.EXISTS, attribute, null, 0);
+        }
+
+        private String name() {
+            int start = pos;
+            while (pos < input.length()) {
+                char c = input.charAt(pos);
+                if (c == ':') {
+                    // prefixes, and jsoup's abs: for attributes
+                    throw new IllegalArgumentException("Prefix at " + pos);
+                }
+                if (!Character.isLetterOrDigit(c) && c != '-' && c != '_'
+                        && c != '.') {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start || !Character.isLetter(input.charAt(start))
+                    && input.charAt(start) != '_') {
+                throw new IllegalArgumentException("Name expected at " + start);
+            }
+            return input.substring(start, pos);
+        }
+
+        private String literal() {
+            if (pos >= input.length()) {
+                throw new IllegalArgumentException("Literal expected");
+            }
+            char quote = input.charAt(pos);
+            if (quote != '"' && quote != '\'') {
+                throw new IllegalArgumentException("Literal expected");
+            }
+            int end = input.indexOf(quote, pos + 1);
+            if (end == -1) {
+                throw new IllegalArgumentException("Unterminated literal");
+            }
+            String value = input.substring(pos + 1, end);
+            pos = end + 1;
+            return value;
+        }
+
+        private void whitespace() {
+            while (pos < input.length()
+                    && Character.isWhitespace(input.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private boolean consume(String s) {
+            if (input.startsWith(s, pos)) {
+                pos += s.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String s) {
+            if (!consume(s)) {
+                throw new IllegalArgumentException(s + " expected at " + pos);
+            }
+        }
+    }
+}
@@ -17,14 +17,17 @@
 
 package com.digitalpebble.stormcrawler.parse.filter;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 import org.slf4j.Logger;
@@ -48,8 +51,21 @@ public class LDJsonParseFilter extends ParseFilter {
     public static final Logger LOG = LoggerFactory
             .getLogger(LDJsonParseFilter.class);
 
-    private static XPathFactory factory = XPathFactory.newInstance();
-    private static XPath xpath = factory.newXPath();
+    private static final String LD_JSON_XPATH = "//SCRIPT[@type=\"application/ld+json\"]";
+
+    private static final JSoupXPath LD_JSON = JSoupXPath
+            .compile(LD_JSON_XPATH);
+
+    /** XPath objects are not thread safe, compiled once per thread **/
+    private static final ThreadLocal<XPathExpression> ldJsonExpression = ThreadLocal
+            .withInitial(() -> {
+                try {
+                    return XPathFactory.newInstance().newXPath()
+                            .compile(LD_JSON_XPATH);
+                } catch (XPathExpressionException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
 
     private static ObjectMapper mapper = new ObjectMapper();
 
@@ -58,11 +74,19 @@ public class LDJsonParseFilter extends ParseFilter {
     @Override
     public void filter(String URL, byte[] content, DocumentFragment doc,
             ParseResult parse) {
-        if (doc == null) {
+        filter(URL, content, null, doc, parse);
+    }
+
+    @Override
+    public void filter(String URL, byte[] content,
+            org.jsoup.nodes.Document jsoupDoc, DocumentFragment doc,
+            ParseResult parse) {
+        if (jsoupDoc == null && doc == null) {
             return;
         }
         try {
-            JsonNode json = filterJson(doc);
+            JsonNode json = jsoupDoc != null ? filterJson(jsoupDoc)
+                    : filterJson(doc);
             if (json == null) {
                 return;
             }
@@ -86,9 +110,7 @@ public class LDJsonParseFilter extends ParseFilter {
     }
 
     public static JsonNode filterJson(DocumentFragment doc) throws Exception {
-        XPathExpression expressionJobPosting = xpath
-                .compile("//SCRIPT[@type=\"application/ld+json\"]");
-        Node scriptNode = (Node) expressionJobPosting.evaluate(doc,
+        Node scriptNode = (Node) ldJsonExpression.get().evaluate(doc,
                 XPathConstants.NODE);
         if (scriptNode == null) {
             return null;
@@ -96,6 +118,26 @@ public class LDJsonParseFilter extends ParseFilter {
         return mapper.readValue(scriptNode.getTextContent(), JsonNode.class);
     }
 
+    /** @since 1.17 **/
+    public static JsonNode filterJson(org.jsoup.nodes.Document doc)
+            throws Exception {
+        List<String> scripts = LD_JSON.evaluate(doc);
+        if (scripts.isEmpty()) {
+            return null;
+        }
+        return mapper.readValue(scripts.get(0), JsonNode.class);
+    }
+
+    @Override
+    public boolean needsDOM() {
+        return true;
+    }
+
+    @Override
+    public boolean needsDOMWithJSoup() {
+        return false;
+    }
+
     public void configure(@SuppressWarnings("rawtypes") Map stormConf,
             JsonNode filterParams) {
         java.util.Iterator<Entry<String, JsonNode>> iter = filterParams
@@ -126,4 +168,18 @@ public class LDJsonParseFilter extends ParseFilter {
         }
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        Set<String> keys = new HashSet<>();
+        for (LabelledJsonPointer expression : expressions) {
+            keys.add(expression.label);
+        }
+        return keys;
+    }
+
 }
@@ -20,9 +20,11 @@ package com.digitalpebble.stormcrawler.parse.filter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -132,6 +134,19 @@ public class LinkParseFilter extends XPathFilter {
         parse.setOutlinks(new ArrayList(dedup.values()));
     }
 
+    /** The expressions are evaluated on the DOM only **/
+    @Override
+    public void filter(String URL, byte[] content,
+            org.jsoup.nodes.Document jsoupDoc, DocumentFragment doc,
+            ParseResult parse) {
+        filter(URL, content, doc, parse);
+    }
+
+    @Override
+    public boolean needsDOMWithJSoup() {
+        return true;
+    }
+
     @SuppressWarnings("rawtypes")
     @Override
     public void configure(Map stormConf, JsonNode filterParams) {
@@ -140,4 +155,15 @@ public class LinkParseFilter extends XPathFilter {
         this.urlFilters = URLFilters.fromConf(stormConf);
     }
 
+    /** The metadata transfer and URL filters can read any key **/
+    @Override
+    public Set<String> getReadSet() {
+        return null;
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return Collections.singleton(OUTLINKS);
+    }
+
 }
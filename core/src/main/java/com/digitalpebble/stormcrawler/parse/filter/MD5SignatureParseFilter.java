@@ -18,7 +18,9 @@
 package com.digitalpebble.stormcrawler.parse.filter;
 
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.storm.shade.org.apache.commons.lang.StringUtils;
@@ -101,4 +103,26 @@ public class MD5SignatureParseFilter extends ParseFilter {
         }
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        Set<String> keys = new HashSet<>();
+        if (copyKeyName != null) {
+            keys.add(key_name);
+        }
+        if (useText) {
+            keys.add(TEXT);
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        Set<String> keys = new HashSet<>();
+        keys.add(key_name);
+        if (copyKeyName != null) {
+            keys.add(copyKeyName);
+        }
+        return keys;
+    }
+
 }
@@ -17,6 +17,9 @@
 
 package com.digitalpebble.stormcrawler.parse.filter;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.apache.storm.shade.org.apache.commons.lang.StringUtils;
 import org.w3c.dom.DocumentFragment;
 
@@ -63,4 +66,14 @@ public class MimeTypeNormalization extends ParseFilter {
         m.setValue("format", ct);
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        return Collections.singleton("parse.Content-Type");
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return Collections.singleton("format");
+    }
+
 }
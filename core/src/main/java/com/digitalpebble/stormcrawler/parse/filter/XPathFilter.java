@@ -20,11 +20,15 @@ package com.digitalpebble.stormcrawler.parse.filter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.namespace.QName;
 import javax.xml.xpath.XPath;
@@ -34,6 +38,9 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.metric.api.MeanReducer;
+import org.apache.storm.metric.api.MultiReducedMetric;
 import org.apache.xml.serialize.Method;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.XMLSerializer;
@@ -53,9 +60,17 @@ import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * Simple ParseFilter to illustrate and test the interface. Reads a XPATH
- * pattern from the config file and stores the value as metadata
+ * pattern from the config file and stores the value as metadata.
+ * <p>
+ * The expressions are evaluated on the JSoup document with a {@link JSoupXPath}
+ * whenever possible. These are immutable and shared by all the instances of
+ * the filter in a JVM. The other expressions are compiled by each instance,
+ * which is only used by the thread of its bolt. The average time in msec
+ * spent evaluating each expression is reported as a metric, under the key
+ * followed by the position of the expression for that key e.g.
+ * <code>title.0</code>.
  */
-public class XPathFilter extends ParseFilter {
+public class XPathFilter extends ParseFilter implements IMetric {
 
     private enum EvalFunction {
 
@@ -74,31 +89,62 @@ public class XPathFilter extends ParseFilter {
     private static final Logger LOG = LoggerFactory
             .getLogger(XPathFilter.class);
 
+    /** Compiled expressions or empty if not supported by JSoupXPath **/
+    private static final Map<String, Optional<JSoupXPath>> jsoupExpressions = new ConcurrentHashMap<>();
+
     private XPathFactory factory = XPathFactory.newInstance();
     private XPath xpath = factory.newXPath();
 
+    private final MultiReducedMetric timings = new MultiReducedMetric(
+            new MeanReducer());
+
     protected final Map<String, List<LabelledExpression>> expressions = new HashMap<>();
 
     class LabelledExpression {
 
         String key;
+        /** Name of the metric for the time spent evaluating the expression **/
+        private String label;
         private EvalFunction evalFunction;
         private XPathExpression expression;
+        /** Evaluated on the JSoup document if not null **/
+        private JSoupXPath jsoupExpression;
 
-        private LabelledExpression(String key, String expression)
-                throws XPathExpressionException {
+        private LabelledExpression(String key, String label,
+                String expression) throws XPathExpressionException {
             this.key = key;
+            this.label = label;
             if (expression.startsWith("string(")) {
                 evalFunction = EvalFunction.STRING;
+                if (expression.endsWith(")")) {
+                    jsoupExpression = compileJSoup(expression.substring(7,
+                            expression.length() - 1));
+                }
             } else if (expression.startsWith("serialize(")) {
                 expression = expression.substring(10, expression.length() - 1);
                 evalFunction = EvalFunction.SERIALIZE;
             } else {
                 evalFunction = EvalFunction.NONE;
+                jsoupExpression = compileJSoup(expression);
             }
             this.expression = xpath.compile(expression);
         }
 
+        List<String> evaluate(org.jsoup.nodes.Document jsoupDoc) {
+            List<String> results = jsoupExpression.evaluate(jsoupDoc);
+            List<String> values = new LinkedList<>();
+            if (evalFunction == EvalFunction.STRING) {
+                // string value of the first node
+                values.add(StringUtils.strip(results.isEmpty() ? ""
+                        : results.get(0)));
+            } else {
+                for (String result : results) {
+                    values.add(StringUtils.strip(result));
+                }
+            }
+            return values;
+        }
+
         List<String> evaluate(DocumentFragment doc)
                 throws XPathExpressionException, IOException {
             Object evalResult = expression.evaluate(doc,
@@ -160,9 +206,21 @@ public class XPathFilter extends ParseFilter {
         }
     }
 
+    private static JSoupXPath compileJSoup(String expression) {
+        return jsoupExpressions.computeIfAbsent(expression,
+                e -> Optional.ofNullable(JSoupXPath.compile(e))).orElse(null);
+    }
+
     @Override
     public void filter(String URL, byte[] content, DocumentFragment doc,
             ParseResult parse) {
+        filter(URL, content, null, doc, parse);
+    }
+
+    @Override
+    public void filter(String URL, byte[] content,
+            org.jsoup.nodes.Document jsoupDoc, DocumentFragment doc,
+            ParseResult parse) {
 
         ParseData parseData = parse.get(URL);
         Metadata metadata = parseData.getMetadata();
@@ -173,8 +231,16 @@ public class XPathFilter extends ParseFilter {
         while (iter.hasNext()) {
             List<LabelledExpression> leList = iter.next();
             for (LabelledExpression le : leList) {
+                long start = System.nanoTime();
                 try {
-                    List<String> values = le.evaluate(doc);
+                    List<String> values;
+                    if (jsoupDoc != null && le.jsoupExpression != null) {
+                        values = le.evaluate(jsoupDoc);
+                    } else if (doc != null) {
+                        values = le.evaluate(doc);
+                    } else {
+                        continue;
+                    }
                     if (values != null && !values.isEmpty()) {
                         metadata.addValues(le.key, values);
                         break;
@@ -183,6 +249,9 @@ public class XPathFilter extends ParseFilter {
                     LOG.error("Error evaluating {}: {}", le.key, e);
                 } catch (IOException e) {
                     LOG.error("Error evaluating {}: {}", le.key, e);
+                } finally {
+                    timings.scope(le.label).update(
+                            (System.nanoTime() - start) / 1000000d);
                 }
             }
         }
@@ -215,8 +284,8 @@ public class XPathFilter extends ParseFilter {
                 lexpressionList = new ArrayList<>();
                 expressions.put(key, lexpressionList);
             }
-            LabelledExpression lexpression = new LabelledExpression(key,
-                    xpathvalue);
+            LabelledExpression lexpression = new LabelledExpression(key, key
+                    + "." + lexpressionList.size(), xpathvalue);
             lexpressionList.add(lexpression);
         } catch (XPathExpressionException e) {
             throw new RuntimeException("Can't compile expression : "
@@ -229,4 +298,31 @@ public class XPathFilter extends ParseFilter {
         return true;
     }
 
+    @Override
+    public boolean needsDOMWithJSoup() {
+        for (List<LabelledExpression> leList : expressions.values()) {
+            for (LabelledExpression le : leList) {
+                if (le.jsoupExpression == null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        return timings.getValueAndReset();
+    }
+
+    @Override
+    public Set<String> getReadSet() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return expressions.keySet();
+    }
+
 }
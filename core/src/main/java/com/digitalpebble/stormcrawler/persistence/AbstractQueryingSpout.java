@@ -18,11 +18,11 @@
 package com.digitalpebble.stormcrawler.persistence;
 
 import java.time.Instant;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.storm.metric.api.MultiCountMetric;
 import org.apache.storm.spout.SpoutOutputCollector;
@@ -32,12 +32,10 @@ import org.apache.storm.topology.base.BaseRichSpout;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.utils.Utils;
 
+import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.persistence.urlbuffer.URLBuffer;
 import com.digitalpebble.stormcrawler.util.CollectionMetric;
 import com.digitalpebble.stormcrawler.util.ConfUtils;
-import com.google.common.base.Optional;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 
 /**
  * Common features of spouts which query a backend to generate tuples. Tracks
@@ -77,6 +75,21 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
     protected static final String resetFetchDateParamName = "spout.reset.fetchdate.after";
     protected int resetFetchDateAfterNSecs = 120;
 
+    /**
+     * Sends the next query to the backend before the buffer is empty, as soon
+     * as the number of URLs it contains falls below what is expected to be
+     * emitted while the query runs, based on the observed emission rate and
+     * query times. Default false.
+     **/
+    protected static final String prefetchParamName = "spout.prefetch";
+
+    /**
+     * Factor applied to the number of URLs expected to be emitted during a
+     * query to get the low-water mark of the buffer when prefetching, default
+     * 2.
+     **/
+    protected static final String prefetchMarginParamName = "spout.prefetch.margin";
+
     protected Instant lastTimeResetToNOW;
 
     private long timeLastQuerySent = 0;
@@ -84,6 +97,25 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
 
     private long timestampEmptyBuffer = -1;
 
+    private boolean prefetch = false;
+
+    private float prefetchMargin = 2f;
+
+    /** Time at which the current query was sent, 0 once it has returned **/
+    private final AtomicLong timeQueryStarted = new AtomicLong(0);
+
+    /** Smoothed duration of the queries in msec **/
+    private volatile double queryLatency = -1;
+
+    /** Smoothed number of URLs emitted per msec **/
+    private double emitRate = -1;
+
+    private long emitWindowStart = 0;
+
+    private int emittedInWindow = 0;
+
+    private boolean starvedInWindow = false;
+
     protected MultiCountMetric eventCounter;
 
     protected URLBuffer buffer;
@@ -113,6 +145,8 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
                 new MultiCountMetric(), 10);
 
         buffer = URLBuffer.getInstance(stormConf);
+
+        budget = CrawlBudget.getInstance(stormConf);
         
         context.registerMetric("buffer_size", () -> buffer.size(), 10);
         context.registerMetric("numQueues", () -> buffer.numQueues(), 10);
@@ -126,6 +160,14 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
         resetFetchDateAfterNSecs = ConfUtils.getInt(stormConf,
                 resetFetchDateParamName, resetFetchDateAfterNSecs);
 
+        prefetch = ConfUtils.getBoolean(stormConf, prefetchParamName, false);
+        prefetchMargin = ConfUtils.getFloat(stormConf,
+                prefetchMarginParamName, prefetchMargin);
+        if (prefetch) {
+            context.registerMetric("buffer_low_water_mark",
+                    () -> lowWaterMark(), 10);
+        }
+
         _collector = collector;
     }
 
@@ -135,6 +177,18 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
      **/
     protected abstract void populateBuffer();
 
+    /**
+     * Called with a URL which is not emitted because its host has reached the
+     * max number of URLs fetched. Implementations should reschedule it in the
+     * storage e.g. {@link CrawlBudget#getDelaySecs()} later so that it is not
+     * returned by the next queries. The default implementation can only keep
+     * it in the purgatory so that it is not queried again straight away.
+     **/
+    protected void overBudget(String url, Metadata metadata) {
+        beingProcessed.put(url, null);
+        beingProcessed.remove(url);
+    }
+
     /**
      * Map to keep in-process URLs, with the URL as key and optional value
      * depending on the spout implementation. The entries are kept in a cache
@@ -144,35 +198,8 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
     protected InProcessMap<String, Object> beingProcessed;
     private boolean active;
 
-    /** Map which holds elements some additional time after the removal. */
-    public class InProcessMap<K, V> extends HashMap<K, V> {
-
-        private Cache<K, Optional<V>> deletionCache;
-
-        public InProcessMap(long maxDuration, TimeUnit timeUnit) {
-            deletionCache = CacheBuilder.newBuilder()
-                    .expireAfterWrite(maxDuration, timeUnit).build();
-        }
-
-        @Override
-        public boolean containsKey(Object key) {
-            boolean incache = super.containsKey(key);
-            if (!incache) {
-                incache = (deletionCache.getIfPresent(key) != null);
-            }
-            return incache;
-        }
-
-        @Override
-        public V remove(Object key) {
-            deletionCache.put((K) key, Optional.absent());
-            return super.remove(key);
-        }
-
-        public long inCache() {
-            return deletionCache.size();
-        }
-    }
+    /** Number of URLs emitted per host, null if there are no limits **/
+    protected CrawlBudget budget;
 
     @Override
     public void nextTuple() {
@@ -181,8 +208,14 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
 
         // force the refresh of the buffer even if the buffer is not empty
         if (!isInQuery.get() && triggerQueries()) {
-            populateBuffer();
-            timeLastQuerySent = System.currentTimeMillis();
+            query();
+        }
+
+        // query before the buffer runs out
+        else if (prefetch && !isInQuery.get() && throttleQueries() == -1
+                && buffer.size() <= lowWaterMark()) {
+            eventCounter.scope("prefetch").incrBy(1);
+            query();
         }
 
         if (buffer.hasNext()) {
@@ -194,12 +227,23 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
             }
             List<Object> fields = buffer.next();
             String url = fields.get(0).toString();
+            Metadata metadata = (Metadata) fields.get(1);
+            if (budget != null
+                    && !budget.tryFetched(budget.getKey(url, metadata))) {
+                overBudget(url, metadata);
+                eventCounter.scope("over_budget").incrBy(1);
+                return;
+            }
             this._collector.emit(fields, url);
             beingProcessed.put(url, null);
             eventCounter.scope("emitted").incrBy(1);
+            if (prefetch) {
+                trackEmitRate();
+            }
             return;
         } else if (timestampEmptyBuffer == -1) {
             timestampEmptyBuffer = System.currentTimeMillis();
+            starvedInWindow = true;
         }
 
         if (isInQuery.get() || throttleQueries() > 0) {
@@ -210,11 +254,67 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
         }
 
         // re-populate the buffer
-        populateBuffer();
+        query();
+    }
 
+    private void query() {
+        timeQueryStarted.set(System.currentTimeMillis());
+        populateBuffer();
+        // synchronous implementations have got their results by now
+        if (!isInQuery.get()) {
+            trackQueryLatency();
+        }
         timeLastQuerySent = System.currentTimeMillis();
     }
 
+    /**
+     * Updates the emission rate once per second, ignoring the periods where
+     * the buffer got empty as they don't reflect what the topology can take.
+     **/
+    private void trackEmitRate() {
+        long now = System.currentTimeMillis();
+        if (emitWindowStart == 0) {
+            emitWindowStart = now;
+        }
+        emittedInWindow++;
+        long elapsed = now - emitWindowStart;
+        if (elapsed < 1000) {
+            return;
+        }
+        if (!starvedInWindow) {
+            double rate = (double) emittedInWindow / elapsed;
+            emitRate = emitRate < 0 ? rate : 0.7 * emitRate + 0.3 * rate;
+        }
+        emitWindowStart = now;
+        emittedInWindow = 0;
+        starvedInWindow = false;
+    }
+
+    private void trackQueryLatency() {
+        long started = timeQueryStarted.getAndSet(0);
+        if (started == 0) {
+            return;
+        }
+        long latency = System.currentTimeMillis() - started;
+        queryLatency = queryLatency < 0 ? latency
+                : 0.7 * queryLatency + 0.3 * latency;
+    }
+
+    /**
+     * Number of URLs in the buffer under which a new query is sent when
+     * prefetching i.e. the number of URLs expected to be emitted while the
+     * query runs, with a margin. The query is sent only when the buffer is
+     * empty until the emission rate and query times are known.
+     **/
+    protected long lowWaterMark() {
+        if (emitRate < 0 || queryLatency < 0) {
+            return 0;
+        }
+        // the buffer can't be refilled more often than that
+        double duration = Math.max(queryLatency, minDelayBetweenQueries);
+        return (long) Math.ceil(emitRate * duration * prefetchMargin);
+    }
+
     /**
      * Returns the amount of time to wait if the backend was queried too
      * recently and needs throttling or -1 if the backend can be queried
@@ -257,6 +357,7 @@ public abstract class AbstractQueryingSpout extends BaseRichSpout {
      * to now
      **/
     protected void markQueryReceivedNow() {
+        trackQueryLatency();
         isInQuery.set(false);
         timeLastQueryReceived = System.currentTimeMillis();
     }
@@ -16,13 +16,23 @@
  */
 package com.digitalpebble.stormcrawler.persistence;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.OutputCollector;
@@ -39,12 +49,17 @@ import com.digitalpebble.stormcrawler.Constants;
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.util.ConfUtils;
 import com.digitalpebble.stormcrawler.util.MetadataTransfer;
+import com.digitalpebble.stormcrawler.util.ScalableBloomFilter;
+import com.digitalpebble.stormcrawler.util.URLFingerprint;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 /**
  * Abstract bolt used to store the status of URLs. Uses the DefaultScheduler and
- * MetadataTransfer.
+ * MetadataTransfer. Also accepts the batches of outlinks sent on the
+ * {@value com.digitalpebble.stormcrawler.Constants#OutlinksStreamName} stream,
+ * the tuple of a batch is acked once all its outlinks have been stored and
+ * failed as soon as one of them fails.
  **/
 @SuppressWarnings("serial")
 public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
@@ -70,6 +85,37 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
      **/
     public static String cacheConfigParamName = "status.updater.cache.spec";
 
+    /**
+     * Parameter name to indicate whether a Bloom filter should be used to skip
+     * the discovered URLs which have already been stored. Unlike the cache, the
+     * filter does not forget the URLs but can have false positives, i.e. a
+     * small fraction of new URLs will be considered as known and won't be
+     * stored. Default is false.
+     **/
+    public static String useBloomParamName = "status.updater.use.bloom";
+
+    /**
+     * Number of URLs the Bloom filter is sized for initially, it grows beyond
+     * that value if needed. Default is 1000000.
+     **/
+    public static String bloomExpectedInsertionsParamName = "status.updater.bloom.expected.insertions";
+
+    /**
+     * False positive probability of the Bloom filter. Default is 0.001.
+     **/
+    public static String bloomFppParamName = "status.updater.bloom.fpp";
+
+    /**
+     * Directory where the Bloom filter is saved periodically and loaded from
+     * when the bolt starts. The filter is kept in memory only if not set.
+     **/
+    public static String bloomSnapshotDirParamName = "status.updater.bloom.snapshot.dir";
+
+    /**
+     * Frequency in seconds at which the Bloom filter is saved. Default is 600.
+     **/
+    public static String bloomSnapshotFreqParamName = "status.updater.bloom.snapshot.secs";
+
     /**
      * Used for rounding nextFetchDates. Values are hour, minute or second, the
      * latter is the default value.
@@ -89,7 +135,20 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
     private Scheduler scheduler;
     private MetadataTransfer mdTransfer;
 
-    private Cache<Object, Object> cache;
+    private URLScorer scorer;
+    private String scoreKey;
+
+    private CrawlBudget budget;
+    private long overBudget = 0;
+
+    /**
+     * Budget keys of the DISCOVERED URLs being stored, counted once they have
+     * been stored
+     **/
+    private final Map<String, String> pendingDiscovered = new ConcurrentHashMap<>();
+
+    /** Fingerprints of the URLs recently stored **/
+    private Cache<URLFingerprint, Object> cache;
     private boolean useCache = true;
 
     private int maxFetchErrors = 3;
@@ -97,18 +156,32 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
     private long cacheHits = 0;
     private long cacheMisses = 0;
 
+    private ScalableBloomFilter bloom;
+    private File bloomFile;
+    private ScheduledExecutorService bloomSnapshotExecutor;
+
+    private long bloomHits = 0;
+
     private int roundDateUnit = Calendar.SECOND;
 
+    /** Batches of outlinks with the number of targets not acked yet **/
+    private final Map<Tuple, OutlinksBatch> batches = Collections
+            .synchronizedMap(new IdentityHashMap<>());
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public void prepare(Map stormConf, TopologyContext context,
             OutputCollector collector) {
-        _collector = collector;
+        _collector = new BatchAwareCollector(collector);
 
         scheduler = Scheduler.getInstance(stormConf);
 
         mdTransfer = MetadataTransfer.getInstance(stormConf);
 
+        scorer = URLScorer.getInstance(stormConf);
+        scoreKey = ConfUtils.getString(stormConf,
+                URLScorer.scoreKeyParamName, URLScorer.DEFAULT_SCORE_KEY);
+
         useCache = ConfUtils.getBoolean(stormConf, useCacheParamName, true);
 
         if (useCache) {
@@ -129,6 +202,19 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
             }, 30);
         }
 
+        if (ConfUtils.getBoolean(stormConf, useBloomParamName, false)) {
+            initBloomFilter(stormConf, context);
+        }
+
+        budget = CrawlBudget.getInstance(stormConf);
+        if (budget != null) {
+            context.registerMetric("over_budget", () -> {
+                long value = overBudget;
+                overBudget = 0;
+                return value;
+            }, 30);
+        }
+
         maxFetchErrors = ConfUtils
                 .getInt(stormConf, maxFetchErrorsParamName, 3);
 
@@ -141,20 +227,139 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
         }
     }
 
+    private void initBloomFilter(Map stormConf, TopologyContext context) {
+        long expectedInsertions = ConfUtils.getLong(stormConf,
+                bloomExpectedInsertionsParamName, 1000000);
+        double fpp = ConfUtils.getFloat(stormConf, bloomFppParamName, 0.001f);
+        bloom = new ScalableBloomFilter(expectedInsertions, fpp);
+
+        String snapshotDir = ConfUtils.getString(stormConf,
+                bloomSnapshotDirParamName);
+        if (StringUtils.isNotBlank(snapshotDir)) {
+            // one file per task
+            bloomFile = new File(snapshotDir, context.getThisComponentId()
+                    + "-" + context.getThisTaskIndex() + ".bloom");
+            if (bloomFile.exists()) {
+                try {
+                    bloom.load(bloomFile);
+                    LOG.info("Loaded Bloom filter from {} with ~{} URLs",
+                            bloomFile, bloom.approximateElementCount());
+                } catch (IOException e) {
+                    LOG.error("Could not load Bloom filter from {}",
+                            bloomFile, e);
+                }
+            } else {
+                bloomFile.getParentFile().mkdirs();
+            }
+            int freq = ConfUtils.getInt(stormConf, bloomSnapshotFreqParamName,
+                    600);
+            bloomSnapshotExecutor = Executors
+                    .newSingleThreadScheduledExecutor();
+            bloomSnapshotExecutor.scheduleAtFixedRate(this::saveBloomFilter,
+                    freq, freq, TimeUnit.SECONDS);
+        }
+
+        context.registerMetric("bloom", new IMetric() {
+            @Override
+            public Object getValueAndReset() {
+                Map<String, Long> statsMap = new HashMap<>();
+                statsMap.put("hits", bloomHits);
+                statsMap.put("size", bloom.approximateElementCount());
+                statsMap.put("filters", (long) bloom.numFilters());
+                bloomHits = 0;
+                return statsMap;
+            }
+        }, 30);
+    }
+
+    private void saveBloomFilter() {
+        try {
+            long start = System.currentTimeMillis();
+            bloom.save(bloomFile);
+            LOG.info("Saved Bloom filter to {} in {} msec", bloomFile,
+                    System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            LOG.error("Could not save Bloom filter to {}", bloomFile, e);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        if (bloomSnapshotExecutor != null) {
+            bloomSnapshotExecutor.shutdownNow();
+            saveBloomFilter();
+        }
+    }
+
     @Override
     public void execute(Tuple tuple) {
 
+        if (Constants.OutlinksStreamName.equals(tuple.getSourceStreamId())) {
+            executeBatch(tuple);
+            return;
+        }
+
         String url = tuple.getStringByField("url");
         Status status = (Status) tuple.getValueByField("status");
 
+        execute(url, status, null, tuple);
+    }
+
+    /** Expands a batch of outlinks into DISCOVERED URLs **/
+    @SuppressWarnings("unchecked")
+    private void executeBatch(Tuple tuple) {
+        Metadata shared = (Metadata) tuple.getValueByField("metadata");
+        List<String> targets = (List<String>) tuple
+                .getValueByField("targets");
+        List<Metadata> targetsMetadata = (List<Metadata>) tuple
+                .getValueByField("targetsMetadata");
+
+        if (targets.isEmpty()) {
+            _collector.ack(tuple);
+            return;
+        }
+
+        OutlinksBatch batch = new OutlinksBatch(targets);
+        batches.put(tuple, batch);
+
+        for (int i = 0; i < targets.size(); i++) {
+            // the batch has already failed, no need to store the rest
+            if (batch.failed) {
+                ((BatchAwareCollector) _collector).processed(tuple, batch,
+                        targets.size() - i, true);
+                return;
+            }
+            Metadata metadata = new Metadata();
+            metadata.putAll(shared);
+            Metadata specific = targetsMetadata.get(i);
+            if (specific != null) {
+                metadata.putAll(specific);
+            }
+            execute(targets.get(i), Status.DISCOVERED, metadata, tuple);
+        }
+    }
+
+    /**
+     * Processes a single URL, the metadata are read from the tuple if null.
+     **/
+    private void execute(String url, Status status, Metadata metadata,
+            Tuple tuple) {
+
         boolean potentiallyNew = status.equals(Status.DISCOVERED);
 
         // if the URL is a freshly discovered one
         // check whether it is already known in the cache
         // if so we've already seen it and don't need to
         // store it again
+        if (potentiallyNew && bloom != null && bloom.mightContain(url)) {
+            LOG.debug("URL {} already in Bloom filter", url);
+            bloomHits++;
+            _collector.ack(tuple);
+            return;
+        }
+
         if (potentiallyNew && useCache) {
-            if (cache.getIfPresent(url) != null) {
+            if (cache.getIfPresent(URLFingerprint.of(url)) != null) {
                 // no need to add it to the queue
                 LOG.debug("URL {} already in cache", url);
                 cacheHits++;
@@ -166,7 +371,21 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
             }
         }
 
-        Metadata metadata = (Metadata) tuple.getValueByField("metadata");
+        if (metadata == null) {
+            metadata = (Metadata) tuple.getValueByField("metadata");
+        }
+
+        // too many URLs already for that host?
+        if (potentiallyNew && budget != null) {
+            String key = budget.getKey(url, metadata);
+            if (budget.isDiscoveredOverBudget(key)) {
+                LOG.debug("URL {} over budget", url);
+                overBudget++;
+                _collector.ack(tuple);
+                return;
+            }
+            pendingDiscovered.put(url, key);
+        }
 
         // store directly with the date specified in the metadata without
         // changing the status or scheduling.
@@ -180,6 +399,7 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
                 return;
             } catch (Exception e) {
                 LOG.error("Exception caught when storing", e);
+                pendingDiscovered.remove(url);
                 _collector.fail(tuple);
                 return;
             }
@@ -234,10 +454,21 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
         // determine the value of the next fetch based on the status
         Date nextFetch = scheduler.schedule(status, metadata);
 
+        // same for the scorer
+        double score = 0;
+        if (scorer != null) {
+            score = scorer.score(url, status, metadata);
+        }
+
         // filter metadata just before storing it, so that non-persisted
         // metadata is available to fetch schedulers
         metadata = mdTransfer.filter(metadata);
 
+        // stored whether listed in metadata.persist or not
+        if (scorer != null) {
+            metadata.setValue(scoreKey, Double.toString(score));
+        }
+
         // round next fetch date
         nextFetch = DateUtils.round(nextFetch, this.roundDateUnit);
 
@@ -247,6 +478,7 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
             store(url, status, metadata, nextFetch, tuple);
         } catch (Exception e) {
             LOG.error("Exception caught when storing", e);
+            pendingDiscovered.remove(url);
             _collector.fail(tuple);
             return;
         }
@@ -257,13 +489,130 @@ public abstract class AbstractStatusUpdaterBolt extends BaseRichBolt {
      **/
     protected final void ack(Tuple t, String url) {
         // keep the URL in the cache
-        if (useCache) {
-            cache.put(url, "");
+        // the targets of a batch are added when it is complete
+        if (!batches.containsKey(t)) {
+            remember(url);
         }
 
         _collector.ack(t);
     }
 
+    /**
+     * Same as {@link #ack(Tuple, String)} for the storages which can tell
+     * whether a DISCOVERED URL was new, the ones which were already known do
+     * not count towards the crawl budget of their host.
+     **/
+    protected final void ack(Tuple t, String url, boolean created) {
+        if (!created) {
+            pendingDiscovered.remove(url);
+        }
+        ack(t, url);
+    }
+
+    /**
+     * Keeps track of a URL which has been stored. A new URL is counted in the
+     * crawl budget only at this stage, i.e. not if it could not be stored or
+     * if it was stored as the target of a batch which failed, so that it is
+     * counted once when the tuple is replayed.
+     **/
+    private void remember(String url) {
+        if (useCache) {
+            cache.put(URLFingerprint.of(url), "");
+        }
+        if (bloom != null) {
+            bloom.put(url);
+        }
+        if (budget != null) {
+            String key = pendingDiscovered.remove(url);
+            if (key != null) {
+                budget.discovered(key);
+            }
+        }
+    }
+
+    /** Tracks the outlinks of a batch which haven't been processed yet **/
+    private static class OutlinksBatch {
+        private final List<String> targets;
+        private int pending;
+        private volatile boolean failed = false;
+
+        OutlinksBatch(List<String> targets) {
+            this.targets = targets;
+            this.pending = targets.size();
+        }
+    }
+
+    /**
+     * Acks the tuple of a batch of outlinks only when all its targets have
+     * been acked or fails it as soon as one of them fails.
+     **/
+    private class BatchAwareCollector extends OutputCollector {
+
+        BatchAwareCollector(OutputCollector delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void ack(Tuple input) {
+            OutlinksBatch batch = batches.get(input);
+            if (batch == null) {
+                super.ack(input);
+                return;
+            }
+            processed(input, batch, 1, false);
+        }
+
+        @Override
+        public void fail(Tuple input) {
+            OutlinksBatch batch = batches.get(input);
+            if (batch == null) {
+                if (input.contains("url")) {
+                    pendingDiscovered.remove(input.getStringByField("url"));
+                }
+                super.fail(input);
+                return;
+            }
+            processed(input, batch, 1, true);
+        }
+
+        /**
+         * Marks some targets of a batch as processed, the tuple is failed at
+         * most once and acked only if none of the targets failed
+         **/
+        void processed(Tuple input, OutlinksBatch batch, int count,
+                boolean failure) {
+            boolean failNow = false;
+            boolean ackNow = false;
+            boolean done = false;
+            synchronized (batch) {
+                if (failure && !batch.failed) {
+                    batch.failed = true;
+                    failNow = true;
+                }
+                batch.pending -= count;
+                if (batch.pending <= 0) {
+                    batches.remove(input);
+                    ackNow = !batch.failed;
+                    done = true;
+                }
+            }
+            // the targets are counted in the budget when the tuple is replayed
+            if (failNow || done && !ackNow) {
+                for (String target : batch.targets) {
+                    pendingDiscovered.remove(target);
+                }
+            }
+            if (failNow) {
+                super.fail(input);
+            } else if (ackNow) {
+                for (String target : batch.targets) {
+                    remember(target);
+                }
+                super.ack(input);
+            }
+        }
+    }
+
     protected abstract void store(String url, Status status, Metadata metadata,
             Date nextFetch, Tuple t) throws Exception;
 
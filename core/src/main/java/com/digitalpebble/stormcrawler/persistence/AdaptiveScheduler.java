@@ -17,9 +17,8 @@
 
 package com.digitalpebble.stormcrawler.persistence;
 
-import java.util.Calendar;
+import java.time.Instant;
 import java.util.Date;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
@@ -236,15 +235,13 @@ public class AdaptiveScheduler extends DefaultScheduler {
             return super.schedule(status, metadata);
         }
 
-        Calendar now = Calendar.getInstance(Locale.ROOT);
+        final long now = System.currentTimeMillis();
 
         String signatureModified = metadata
                 .getFirstValue(SIGNATURE_MODIFIED_KEY);
 
         boolean changed = false;
 
-        final String modifiedTimeString = now.toInstant().toString();
-
         if (metadata.getFirstValue("fetch.statusCode").equals("304")) {
             // HTTP 304 Not Modified
             // - no new signature calculated because no content fetched
@@ -262,9 +259,9 @@ public class AdaptiveScheduler extends DefaultScheduler {
         } else {
             // change detected by signature comparison
             changed = true;
-            signatureModified = modifiedTimeString;
+            signatureModified = Instant.ofEpochMilli(now).toString();
             if (setLastModified) {
-                metadata.setValue(HttpHeaders.LAST_MODIFIED, modifiedTimeString);
+                metadata.setValue(HttpHeaders.LAST_MODIFIED, signatureModified);
             }
         }
 
@@ -304,16 +301,14 @@ public class AdaptiveScheduler extends DefaultScheduler {
             // remove old signature (do not keep same signature twice)
             metadata.remove(SIGNATURE_OLD_KEY);
             if (signatureModified == null) {
-                signatureModified = modifiedTimeString;
+                signatureModified = Instant.ofEpochMilli(now).toString();
             }
         }
 
         metadata.setValue(FETCH_INTERVAL_KEY, Integer.toString(interval));
         metadata.setValue(SIGNATURE_MODIFIED_KEY, signatureModified);
 
-        now.add(Calendar.MINUTE, interval);
-
-        return now.getTime();
+        return new Date(now + interval * 60 * 1000L);
     }
 
 }
@@ -0,0 +1,214 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
+import com.digitalpebble.stormcrawler.util.CountMinSketch;
+import com.digitalpebble.stormcrawler.util.URLPartitioner;
+
+/**
+ * Counts the URLs discovered and fetched per host, domain or IP as defined by
+ * <code>partition.url.mode</code> and tells when a quota has been reached. Used
+ * by the status updater to stop storing new URLs for a host which already has
+ * too many and by the spouts to skip the hosts which have been fetched too
+ * much, e.g. spider traps.
+ * <p>
+ * The counts are exact for the first hosts seen, then estimated with a
+ * count-min sketch so that the memory used is bounded whatever the number of
+ * hosts. The estimates can only be higher than the real counts, i.e. a host
+ * may be considered over budget slightly too early but never too late. The
+ * counts are held in memory by each instance of a bolt or spout and start
+ * from 0 when it is restarted.
+ * <p>
+ * The spouts which support it reschedule the URLs of the hosts over budget
+ * <code>crawl.budget.delay.secs</code> later in the storage so that they are
+ * not returned by the next queries.
+ * 
+ * @since 1.17
+ **/
+public class CrawlBudget {
+
+    /** Max number of URLs discovered per host, -1 (default) for no limit **/
+    public static final String maxDiscoveredParamName = "crawl.budget.max.discovered";
+
+    /** Max number of URLs fetched per host, -1 (default) for no limit **/
+    public static final String maxFetchedParamName = "crawl.budget.max.fetched";
+
+    /**
+     * Number of hosts for which the counts are exact, the counts of the
+     * following hosts are estimated. Default is 100000.
+     **/
+    public static final String exactKeysParamName = "crawl.budget.exact.keys";
+
+    /** Number of counters per row of the sketch. Default is 1048576. **/
+    public static final String sketchWidthParamName = "crawl.budget.sketch.width";
+
+    /**
+     * Delay in seconds by which the URLs of a host over budget are
+     * rescheduled. Default is 86400.
+     **/
+    public static final String delayParamName = "crawl.budget.delay.secs";
+
+    private static final int SKETCH_DEPTH = 4;
+
+    private final URLPartitioner partitioner = new URLPartitioner();
+
+    private final int maxDiscovered;
+
+    private final int maxFetched;
+
+    private final int exactKeys;
+
+    private final int sketchWidth;
+
+    private int delaySecs = 86400;
+
+    /** Exact counts, discovered then fetched **/
+    private final Map<String, int[]> counts = new HashMap<>();
+
+    private CountMinSketch discoveredSketch;
+
+    private CountMinSketch fetchedSketch;
+
+    public CrawlBudget(int maxDiscovered, int maxFetched, int exactKeys,
+            int sketchWidth) {
+        this.maxDiscovered = maxDiscovered;
+        this.maxFetched = maxFetched;
+        this.exactKeys = exactKeys;
+        this.sketchWidth = sketchWidth;
+    }
+
+    /**
+     * Returns an instance configured from the storm config or null if there
+     * are no limits
+     **/
+    @SuppressWarnings({ "rawtypes" })
+    public static CrawlBudget getInstance(Map stormConf) {
+        int maxDiscovered = ConfUtils.getInt(stormConf, maxDiscoveredParamName,
+                -1);
+        int maxFetched = ConfUtils.getInt(stormConf, maxFetchedParamName, -1);
+        if (maxDiscovered == -1 && maxFetched == -1) {
+            return null;
+        }
+        CrawlBudget budget = new CrawlBudget(maxDiscovered, maxFetched,
+                ConfUtils.getInt(stormConf, exactKeysParamName, 100000),
+                ConfUtils.getInt(stormConf, sketchWidthParamName, 1048576));
+        budget.partitioner.configure(stormConf);
+        budget.delaySecs = ConfUtils.getInt(stormConf, delayParamName,
+                budget.delaySecs);
+        return budget;
+    }
+
+    /** Returns the host, domain or IP of a URL **/
+    public String getKey(String url, Metadata metadata) {
+        String key = partitioner.getPartition(url, metadata);
+        return key == null ? "_DEFAULT_" : key;
+    }
+
+    /** Delay in seconds by which the URLs over budget are rescheduled **/
+    public int getDelaySecs() {
+        return delaySecs;
+    }
+
+    /**
+     * Returns true if a key has reached its quota of URLs discovered. The URLs
+     * are counted separately with {@link #discovered(String)} so that only
+     * the ones actually stored are.
+     **/
+    public synchronized boolean isDiscoveredOverBudget(String key) {
+        return maxDiscovered != -1 && count(key, 0) >= maxDiscovered;
+    }
+
+    /** Counts a new URL stored for a key **/
+    public synchronized void discovered(String key) {
+        if (maxDiscovered != -1) {
+            increment(key, 0);
+        }
+    }
+
+    /** Returns true if a key has reached its quota of URLs fetched **/
+    public synchronized boolean isFetchedOverBudget(String key) {
+        return maxFetched != -1 && count(key, 1) >= maxFetched;
+    }
+
+    /**
+     * Counts a URL fetched for a key unless the key has reached its quota
+     * 
+     * @return false if the key is over budget
+     **/
+    public synchronized boolean tryFetched(String key) {
+        return tryIncrement(key, 1, maxFetched);
+    }
+
+    /** Returns the (estimated) number of URLs discovered for a key **/
+    public synchronized int getDiscovered(String key) {
+        return count(key, 0);
+    }
+
+    /** Returns the (estimated) number of URLs fetched for a key **/
+    public synchronized int getFetched(String key) {
+        return count(key, 1);
+    }
+
+    private CountMinSketch sketch(int type) {
+        if (discoveredSketch == null) {
+            discoveredSketch = new CountMinSketch(sketchWidth, SKETCH_DEPTH);
+            fetchedSketch = new CountMinSketch(sketchWidth, SKETCH_DEPTH);
+        }
+        return type == 0 ? discoveredSketch : fetchedSketch;
+    }
+
+    private int count(String key, int type) {
+        int[] exact = counts.get(key);
+        if (exact != null) {
+            return exact[type];
+        }
+        if (discoveredSketch == null) {
+            return 0;
+        }
+        return sketch(type).estimate(key);
+    }
+
+    private boolean tryIncrement(String key, int type, int max) {
+        if (max == -1) {
+            return true;
+        }
+        if (count(key, type) >= max) {
+            return false;
+        }
+        increment(key, type);
+        return true;
+    }
+
+    private void increment(String key, int type) {
+        int[] exact = counts.get(key);
+        if (exact == null && counts.size() < exactKeys) {
+            exact = new int[2];
+            counts.put(key, exact);
+        }
+        if (exact != null) {
+            exact[type]++;
+        } else {
+            sketch(type).increment(key);
+        }
+    }
+}
@@ -17,10 +17,12 @@
 
 package com.digitalpebble.stormcrawler.persistence;
 
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Matcher;
@@ -31,7 +33,10 @@ import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.util.ConfUtils;
 
 /**
- * Schedules a nextFetchDate based on the configuration
+ * Schedules a nextFetchDate based on the configuration. The custom intervals
+ * are compiled into lookup tables by metadata key and value, so that
+ * scheduling a URL only costs a few hash lookups and allocates nothing but the
+ * Date returned.
  **/
 public class DefaultScheduler extends Scheduler {
 
@@ -46,12 +51,24 @@ public class DefaultScheduler extends Scheduler {
      */
     public static final String DELAY_METADATA = "scheduler.delay.mins";
 
+    /** Marks the absence of an interval in the lookup tables **/
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private static final long MINUTE = 60 * 1000L;
+
     // fetch intervals in minutes
     private int defaultfetchInterval;
     private int fetchErrorFetchInterval;
     private int errorFetchInterval;
 
-    private CustomInterval[] customIntervals;
+    /** Fetch intervals in minutes by ordinal of the status **/
+    private int[] statusIntervals;
+
+    /** Metadata keys of the custom intervals **/
+    private String[] customKeys;
+
+    /** Custom intervals by metadata value, for each of the keys **/
+    private Map<String, CustomInterval>[] customValues;
 
     /*
      * (non-Javadoc)
@@ -59,7 +76,7 @@ public class DefaultScheduler extends Scheduler {
      * @see
      * com.digitalpebble.stormcrawler.persistence.Scheduler#init(java.util.Map)
      */
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public void init(Map stormConf) {
         defaultfetchInterval = ConfUtils.getInt(stormConf,
@@ -69,11 +86,18 @@ public class DefaultScheduler extends Scheduler {
         errorFetchInterval = ConfUtils.getInt(stormConf,
                 Constants.errorFetchIntervalParamName, 44640);
 
+        // leave the others to now e.g. DISCOVERED
+        statusIntervals = new int[Status.values().length];
+        statusIntervals[Status.FETCHED.ordinal()] = defaultfetchInterval;
+        statusIntervals[Status.FETCH_ERROR.ordinal()] = fetchErrorFetchInterval;
+        statusIntervals[Status.ERROR.ordinal()] = errorFetchInterval;
+        statusIntervals[Status.REDIRECTION.ordinal()] = defaultfetchInterval;
+
         // loads any custom key values
         // must be of form fetchInterval(.STATUS)?.keyname=value
         // e.g. fetchInterval.isFeed=true
         // e.g. fetchInterval.FETCH_ERROR.isFeed=true
-        Map<String, CustomInterval> intervals = new HashMap<>();
+        Map<String, Map<String, CustomInterval>> intervals = new LinkedHashMap<>();
         Pattern pattern = Pattern
                 .compile("^fetchInterval(\\..+?)?\\.(.+)=(.+)");
         Iterator<String> keyIter = stormConf.keySet().iterator();
@@ -92,19 +116,14 @@ public class DefaultScheduler extends Scheduler {
             String mdvalue = m.group(3);
             int customInterval = ConfUtils.getInt(stormConf, key, -1);
             if (customInterval != -1) {
-                CustomInterval interval = intervals.get(mdname + mdvalue);
-                if (interval == null) {
-                    interval = new CustomInterval(mdname, mdvalue, status,
-                            customInterval);
-                } else {
-                    interval.setDurationForStatus(status, customInterval);
-                }
                 // specify particular interval for this status
-                intervals.put(mdname + mdvalue, interval);
+                intervals.computeIfAbsent(mdname, k -> new HashMap<>())
+                        .computeIfAbsent(mdvalue, v -> new CustomInterval())
+                        .setDurationForStatus(status, customInterval);
             }
         }
-        customIntervals = intervals.values().toArray(
-                new CustomInterval[intervals.size()]);
+        customKeys = intervals.keySet().toArray(new String[intervals.size()]);
+        customValues = intervals.values().toArray(new Map[intervals.size()]);
     }
 
     /*
@@ -117,38 +136,17 @@ public class DefaultScheduler extends Scheduler {
     @Override
     public Date schedule(Status status, Metadata metadata) {
 
-        int minutesIncrement = 0;
-
-        Optional<Integer> customInterval = Optional.empty();
+        int minutesIncrement;
 
         // try with a value set in the metadata
         String customInMetadata = metadata.getFirstValue(DELAY_METADATA);
         if (customInMetadata != null) {
-            customInterval = Optional.of(Integer.parseInt(customInMetadata));
-        }
-        // try with the rules from the configuration
-        if (!customInterval.isPresent()) {
-            customInterval = checkCustomInterval(metadata, status);
-        }
-
-        if (customInterval.isPresent()) {
-            minutesIncrement = customInterval.get();
+            minutesIncrement = Integer.parseInt(customInMetadata);
         } else {
-            switch (status) {
-            case FETCHED:
-                minutesIncrement = defaultfetchInterval;
-                break;
-            case FETCH_ERROR:
-                minutesIncrement = fetchErrorFetchInterval;
-                break;
-            case ERROR:
-                minutesIncrement = errorFetchInterval;
-                break;
-            case REDIRECTION:
-                minutesIncrement = defaultfetchInterval;
-                break;
-            default:
-                // leave it to now e.g. DISCOVERED
+            // try with the rules from the configuration
+            minutesIncrement = customInterval(metadata, status);
+            if (minutesIncrement == UNSET) {
+                minutesIncrement = statusIntervals[status.ordinal()];
             }
         }
 
@@ -158,10 +156,8 @@ public class DefaultScheduler extends Scheduler {
             return NEVER;
         }
 
-        Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.MINUTE, minutesIncrement);
-
-        return cal.getTime();
+        return new Date(System.currentTimeMillis() + minutesIncrement
+                * MINUTE);
     }
 
     /**
@@ -169,58 +165,60 @@ public class DefaultScheduler extends Scheduler {
      **/
     protected final Optional<Integer> checkCustomInterval(Metadata metadata,
             Status s) {
-        if (customIntervals == null)
+        int minutes = customInterval(metadata, s);
+        if (minutes == UNSET) {
             return Optional.empty();
+        }
+        return Optional.of(minutes);
+    }
+
+    /**
+     * Returns the interval of the first matching custom interval, UNSET if
+     * there is none or if it does not apply to this status
+     **/
+    private int customInterval(Metadata metadata, Status s) {
+        if (customKeys == null)
+            return UNSET;
 
-        for (CustomInterval customInterval : customIntervals) {
-            String[] values = metadata.getValues(customInterval.key);
+        for (int i = 0; i < customKeys.length; i++) {
+            String[] values = metadata.getValues(customKeys[i]);
             if (values == null) {
                 continue;
             }
             for (String v : values) {
-                if (v.equals(customInterval.value)) {
-                    return customInterval.getDurationForStatus(s);
+                CustomInterval customInterval = customValues[i].get(v);
+                if (customInterval != null) {
+                    return customInterval.durationPerStatus[s.ordinal()];
                 }
             }
         }
 
-        return Optional.empty();
+        return UNSET;
     }
 
-    private class CustomInterval {
-        private String key;
-        private String value;
-        private Map<Status, Integer> durationPerStatus;
-        private Integer defaultDuration = null;
-
-        private CustomInterval(String key, String value, Status status,
-                int minutes) {
-            this.key = key;
-            this.value = value;
-            this.durationPerStatus = new HashMap<>();
-            setDurationForStatus(status, minutes);
-        }
+    private static class CustomInterval {
+        /** Duration by ordinal of the status, UNSET if none **/
+        private final int[] durationPerStatus;
+        private final boolean[] specific;
 
-        private void setDurationForStatus(Status s, int minutes) {
-            if (s == null) {
-                defaultDuration = minutes;
-            } else {
-                this.durationPerStatus.put(s, minutes);
-            }
+        private CustomInterval() {
+            durationPerStatus = new int[Status.values().length];
+            specific = new boolean[durationPerStatus.length];
+            Arrays.fill(durationPerStatus, UNSET);
         }
 
-        private Optional<Integer> getDurationForStatus(Status s) {
-            // do we have a specific value for this status?
-            Integer customD = durationPerStatus.get(s);
-            if (customD != null) {
-                return Optional.of(customD);
+        private void setDurationForStatus(Status s, int minutes) {
+            if (s != null) {
+                durationPerStatus[s.ordinal()] = minutes;
+                specific[s.ordinal()] = true;
+                return;
             }
-            // is there a default one set?
-            if (defaultDuration != null) {
-                return Optional.of(defaultDuration);
+            // default for the statuses without a specific value
+            for (int i = 0; i < durationPerStatus.length; i++) {
+                if (!specific[i]) {
+                    durationPerStatus[i] = minutes;
+                }
             }
-            // no default value or custom one for that status
-            return Optional.empty();
         }
     }
 }
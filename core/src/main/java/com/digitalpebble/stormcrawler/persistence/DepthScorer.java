@@ -0,0 +1,52 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.Map;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.util.MetadataTransfer;
+
+/**
+ * Gives a higher score to the URLs closer to the seeds, i.e. 1 / (1 + depth).
+ * Requires the depth to be tracked by the MetadataTransfer with
+ * <code>metadata.track.depth: true</code>, the URLs without a depth are
+ * considered as seeds.
+ * 
+ * @since 1.17
+ **/
+public class DepthScorer extends URLScorer {
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected void init(Map stormConf) {
+    }
+
+    @Override
+    public double score(String url, Status status, Metadata metadata) {
+        String depth = metadata.getFirstValue(MetadataTransfer.depthKeyName);
+        if (depth == null) {
+            return 1;
+        }
+        try {
+            return 1d / (1 + Math.max(0, Integer.parseInt(depth)));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.digitalpebble.stormcrawler.util.URLFingerprint;
+
+/**
+ * Keeps track of the URLs being processed by a spout, with an optional value,
+ * and holds them for some additional time after their removal (purgatory) so
+ * that they are not fetched a second time if they are returned by a query
+ * shortly after having been acked.
+ * <p>
+ * The keys are stored as 64 bits fingerprints in a single open addressing
+ * table along with the time at which they leave the purgatory (0 while they
+ * are being processed). Entries in purgatory are expired in bulk with a time
+ * wheel with one slot per second.
+ *
+ * @since 1.17
+ **/
+public class InProcessMap<K, V> {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /** Fingerprints of the keys, 0 marks an empty slot **/
+    private long[] keys;
+
+    /** Optional values, only set for keys being processed **/
+    private Object[] values;
+
+    /**
+     * Second (relative to the creation of the map) at which the key leaves
+     * the purgatory or 0 if the key is being processed
+     **/
+    private int[] expiries;
+
+    private int threshold;
+
+    private int inProcess = 0;
+
+    private int inPurgatory = 0;
+
+    private final int ttlSecs;
+
+    /** Fingerprints in purgatory by second of expiry **/
+    private final long[][] wheel;
+
+    private final int[] wheelSizes;
+
+    /** Last second for which the entries of the wheel have been expired **/
+    private int lastExpired;
+
+    private final long start;
+
+    private final LongSupplier clock;
+
+    public InProcessMap(long maxDuration, TimeUnit timeUnit) {
+        this(maxDuration, timeUnit, System::currentTimeMillis);
+    }
+
+    InProcessMap(long maxDuration, TimeUnit timeUnit, LongSupplier clock) {
+        this.clock = clock;
+        this.start = clock.getAsLong();
+        this.ttlSecs = (int) Math.max(0, timeUnit.toSeconds(maxDuration));
+        this.wheel = new long[ttlSecs + 1][];
+        this.wheelSizes = new int[ttlSecs + 1];
+        this.lastExpired = now();
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        expiries = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /** Seconds elapsed since the creation of the map, starts at 1 **/
+    private int now() {
+        return (int) ((clock.getAsLong() - start) / 1000) + 1;
+    }
+
+    private static long fingerprint(Object key) {
+        long f = URLFingerprint.fingerprint64(key.toString());
+        // 0 is reserved for the empty slots
+        return f == 0 ? 1 : f;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Returns the slot of the key or the empty slot where it would go **/
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Adds a key being processed **/
+    public synchronized V put(K key, V value) {
+        long f = fingerprint(key);
+        int i = indexOf(f);
+        @SuppressWarnings("unchecked")
+        V previous = (V) values[i];
+        if (keys[i] == f) {
+            if (expiries[i] != 0) {
+                inPurgatory--;
+                inProcess++;
+                expiries[i] = 0;
+            }
+            values[i] = value;
+            return previous;
+        }
+        keys[i] = f;
+        values[i] = value;
+        expiries[i] = 0;
+        inProcess++;
+        if (inProcess + inPurgatory > threshold) {
+            rehash();
+        }
+        return previous;
+    }
+
+    /**
+     * Returns true if the key is being processed or has been removed less
+     * than the TTL ago
+     **/
+    public synchronized boolean containsKey(Object key) {
+        long f = fingerprint(key);
+        int i = indexOf(f);
+        if (keys[i] != f) {
+            return false;
+        }
+        return expiries[i] == 0 || expiries[i] > now();
+    }
+
+    /**
+     * Removes the key from the ones being processed and keeps it in purgatory
+     * for the duration of the TTL
+     *
+     * @return the value associated with the key if it was being processed
+     **/
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(Object key) {
+        int now = now();
+        expire(now);
+
+        long f = fingerprint(key);
+        int i = indexOf(f);
+        V previous = null;
+
+        if (keys[i] == f) {
+            if (expiries[i] == 0) {
+                previous = (V) values[i];
+                inProcess--;
+            } else {
+                inPurgatory--;
+            }
+            if (ttlSecs == 0) {
+                delete(i);
+                return previous;
+            }
+        } else if (ttlSecs == 0) {
+            return null;
+        } else {
+            keys[i] = f;
+        }
+
+        values[i] = null;
+        expiries[i] = now + ttlSecs;
+        inPurgatory++;
+        schedule(f, expiries[i]);
+
+        if (inProcess + inPurgatory > threshold) {
+            rehash();
+        }
+        return previous;
+    }
+
+    /** Number of keys being processed **/
+    public synchronized int size() {
+        return inProcess;
+    }
+
+    /** Number of keys in purgatory **/
+    public synchronized long inCache() {
+        expire(now());
+        return inPurgatory;
+    }
+
+    private void schedule(long f, int expiry) {
+        int slot = expiry % wheel.length;
+        long[] bucket = wheel[slot];
+        int size = wheelSizes[slot];
+        if (bucket == null) {
+            bucket = new long[16];
+        } else if (size == bucket.length) {
+            bucket = Arrays.copyOf(bucket, size * 2);
+        }
+        bucket[size] = f;
+        wheel[slot] = bucket;
+        wheelSizes[slot] = size + 1;
+    }
+
+    /** Deletes the entries of the wheel which have expired **/
+    private void expire(int now) {
+        // no need to go around the wheel more than once
+        int from = Math.max(lastExpired + 1, now - wheel.length + 1);
+        for (int second = from; second <= now; second++) {
+            int slot = second % wheel.length;
+            long[] bucket = wheel[slot];
+            for (int j = 0; j < wheelSizes[slot]; j++) {
+                int i = indexOf(bucket[j]);
+                // could have been put back in process or in purgatory again
+                if (keys[i] == bucket[j] && expiries[i] != 0
+                        && expiries[i] <= now) {
+                    inPurgatory--;
+                    delete(i);
+                }
+            }
+            wheelSizes[slot] = 0;
+            // release the memory used by large buckets
+            if (bucket != null && bucket.length > 1024) {
+                wheel[slot] = null;
+            }
+        }
+        lastExpired = Math.max(lastExpired, now);
+    }
+
+    /** Empties a slot and shifts back the following entries of the cluster **/
+    private void delete(int i) {
+        int mask = keys.length - 1;
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (k == 0) {
+                break;
+            }
+            int home = mix(k) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[j];
+                expiries[gap] = expiries[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        expiries[gap] = 0;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldExpiries = expiries;
+        allocate(keys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = indexOf(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                expiries[i] = oldExpiries[j];
+            }
+        }
+    }
+}
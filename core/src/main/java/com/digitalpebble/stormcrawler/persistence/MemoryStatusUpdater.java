@@ -27,7 +27,8 @@ import com.digitalpebble.stormcrawler.spout.MemorySpout;
 /**
  * Use in combination with the MemorySpout for testing in local mode. There is
  * no guarantee that this will work in distributed mode as it expects the
- * MemorySpout to be in the same execution thread.
+ * MemorySpout to be in the same worker. Can have several instances, the URLs
+ * are routed to the instance of the MemorySpout in charge of their host.
  **/
 @SuppressWarnings("serial")
 public class MemoryStatusUpdater extends AbstractStatusUpdaterBolt {
@@ -37,7 +38,7 @@ public class MemoryStatusUpdater extends AbstractStatusUpdaterBolt {
             Date nextFetch, Tuple t) throws Exception {
         // by convention we do not refetch URLs with a next fetch date of EPOCH
         if (!nextFetch.equals(DefaultScheduler.NEVER)) {
-            MemorySpout.add(url, metadata, nextFetch);
+            MemorySpout.add(url, metadata, nextFetch.getTime());
         }
         super.ack(t, url);
     }
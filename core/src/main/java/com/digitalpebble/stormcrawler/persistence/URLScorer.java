@@ -0,0 +1,104 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
+
+/**
+ * Computes the score of a URL when its status is updated. The score is stored
+ * in the metadata of the URL by the status updater so that the spouts can
+ * fetch the most valuable URLs first e.g. with the
+ * {@link com.digitalpebble.stormcrawler.persistence.urlbuffer.ScoredURLBuffer}.
+ * 
+ * @since 1.17
+ **/
+public abstract class URLScorer {
+
+    /**
+     * Class to use for scoring the URLs. Must extend the class URLScorer. The
+     * URLs are not scored if not set.
+     */
+    public static final String scorerClassParamName = "scorer.class";
+
+    /** Key of the score in the metadata, "score" by default **/
+    public static final String scoreKeyParamName = "scorer.metadata.key";
+
+    public static final String DEFAULT_SCORE_KEY = "score";
+
+    @SuppressWarnings("rawtypes")
+    /** Configuration of the scorer based on the config. Should be called by URLScorer.getInstance() **/
+    protected abstract void init(Map stormConf);
+
+    /**
+     * Returns the score of a URL, the higher the better. The metadata are the
+     * ones before filtering by the MetadataTransfer.
+     **/
+    public abstract double score(String url, Status status, Metadata metadata);
+
+    /**
+     * Returns the score found in the metadata or 0 if there is none or if it
+     * is not a number
+     **/
+    public static double getScore(Metadata metadata, String key) {
+        String value = metadata.getFirstValue(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a URLScorer instance based on the configuration or null if none
+     * is configured
+     **/
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public static URLScorer getInstance(Map stormConf) {
+        URLScorer scorer;
+
+        String className = ConfUtils.getString(stormConf,
+                scorerClassParamName);
+
+        if (StringUtils.isBlank(className)) {
+            return null;
+        }
+
+        try {
+            Class<?> scorerc = Class.forName(className);
+            boolean interfaceOK = URLScorer.class.isAssignableFrom(scorerc);
+            if (!interfaceOK) {
+                throw new RuntimeException("Class " + className
+                        + " must extend URLScorer");
+            }
+            scorer = (URLScorer) scorerc.newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException("Can't instanciate " + className);
+        }
+
+        scorer.init(stormConf);
+        return scorer;
+    }
+}
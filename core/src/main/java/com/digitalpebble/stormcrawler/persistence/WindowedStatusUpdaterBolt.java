@@ -0,0 +1,237 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.storm.Config;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.utils.TupleUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
+
+/**
+ * Status updater which groups the updates into windows and stores them in one
+ * go with {@link #store(List)}. A window is stored when it reaches a number of
+ * URLs, an approximate size in characters of the URLs and metadata or an age,
+ * checked every second with tick tuples. The updates of the same URL within a
+ * window are collapsed into the latest one, except that a DISCOVERED status
+ * never replaces another status. The tuples of a window are all acked if the
+ * storage succeeds and all failed otherwise.
+ *
+ * @since 1.17
+ **/
+@SuppressWarnings("serial")
+public abstract class WindowedStatusUpdaterBolt extends
+        AbstractStatusUpdaterBolt {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(WindowedStatusUpdaterBolt.class);
+
+    /** Max number of distinct URLs in a window. Default is 1000. **/
+    public static String maxCountParamName = "status.updater.window.max.count";
+
+    /**
+     * Max size of a window, in characters of the URLs and metadata. Default is
+     * 5000000.
+     **/
+    public static String maxSizeParamName = "status.updater.window.max.size";
+
+    /** Max age in msec of a window. Default is 2000. **/
+    public static String maxTimeParamName = "status.updater.window.max.msec";
+
+    /** Status of a URL to store, with the tuples it originates from **/
+    public static class StatusUpdate {
+
+        private final String url;
+        private Status status;
+        private Metadata metadata;
+        private Date nextFetch;
+        private boolean known = false;
+        private final List<Tuple> tuples = new ArrayList<>(1);
+
+        StatusUpdate(String url) {
+            this.url = url;
+        }
+
+        public String getURL() {
+            return url;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        public Date getNextFetch() {
+            return nextFetch;
+        }
+
+        /**
+         * Marks a DISCOVERED URL as already in the storage so that it does not
+         * count towards the crawl budget of its host
+         **/
+        public void setKnown() {
+            known = true;
+        }
+    }
+
+    private int maxCount = 1000;
+    private long maxSize = 5000000;
+    private long maxTime = 2000;
+
+    /** Updates of the current window by URL, in order of arrival **/
+    private final Map<String, StatusUpdate> window = new LinkedHashMap<>();
+
+    private long windowSize = 0;
+
+    private long windowStart = 0;
+
+    private long collapsed = 0;
+
+    @SuppressWarnings({ "rawtypes" })
+    @Override
+    public void prepare(Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        super.prepare(stormConf, context, collector);
+        maxCount = ConfUtils.getInt(stormConf, maxCountParamName, 1000);
+        maxSize = ConfUtils.getLong(stormConf, maxSizeParamName, 5000000);
+        maxTime = ConfUtils.getLong(stormConf, maxTimeParamName, 2000);
+
+        context.registerMetric("window_collapsed", () -> {
+            long value = collapsed;
+            collapsed = 0;
+            return value;
+        }, 30);
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        if (TupleUtils.isTick(tuple)) {
+            if (!window.isEmpty()
+                    && System.currentTimeMillis() - windowStart >= maxTime) {
+                flush();
+            }
+            _collector.ack(tuple);
+            return;
+        }
+        super.execute(tuple);
+    }
+
+    @Override
+    protected final void store(String url, Status status, Metadata metadata,
+            Date nextFetch, Tuple t) {
+        if (window.isEmpty()) {
+            windowStart = System.currentTimeMillis();
+        }
+        StatusUpdate update = window.get(url);
+        if (update == null) {
+            update = new StatusUpdate(url);
+            window.put(url, update);
+            windowSize += url.length();
+        } else {
+            collapsed++;
+            // don't overwrite the status of a known URL
+            if (status.equals(Status.DISCOVERED)) {
+                update.tuples.add(t);
+                return;
+            }
+            windowSize -= size(update.metadata);
+        }
+        update.status = status;
+        update.metadata = metadata;
+        update.nextFetch = nextFetch;
+        update.tuples.add(t);
+        windowSize += size(metadata);
+
+        if (window.size() >= maxCount || windowSize >= maxSize) {
+            flush();
+        }
+    }
+
+    private static long size(Metadata metadata) {
+        long size = 0;
+        for (String key : metadata.keySet()) {
+            size += key.length();
+            for (String value : metadata.getValues(key)) {
+                size += value.length();
+            }
+        }
+        return size;
+    }
+
+    /** Stores the current window then acks or fails all its tuples **/
+    protected void flush() {
+        if (window.isEmpty()) {
+            return;
+        }
+        List<StatusUpdate> updates = new ArrayList<>(window.values());
+        window.clear();
+        windowSize = 0;
+
+        boolean success = true;
+        try {
+            store(updates);
+        } catch (Exception e) {
+            LOG.error("Exception caught when storing {} URLs", updates.size(),
+                    e);
+            success = false;
+        }
+
+        for (StatusUpdate update : updates) {
+            for (Tuple t : update.tuples) {
+                if (success) {
+                    ack(t, update.url, !update.known);
+                } else {
+                    _collector.fail(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a window of updates, each URL appearing only once. The tuples
+     * are failed if an exception is thrown.
+     **/
+    protected abstract void store(List<StatusUpdate> updates)
+            throws Exception;
+
+    @Override
+    public void cleanup() {
+        flush();
+        super.cleanup();
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Config conf = new Config();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+        return conf;
+    }
+}
@@ -0,0 +1,704 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.embedded;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.persistence.Status;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
+import com.digitalpebble.stormcrawler.util.URLFingerprint;
+
+/**
+ * File-based status storage shared by the {@link EmbeddedSpout} and the
+ * {@link EmbeddedStatusUpdater} running in the same worker, meant for small
+ * crawls and benchmarks on a single node without a search cluster or a
+ * database.
+ * <p>
+ * The URLs are sorted by next fetch date then URL in a log-structured way: the
+ * updates are appended to a write-ahead log and kept in memory until there
+ * are enough of them to be written to a sorted segment file. The segments are
+ * merged into a single one when there are too many of them. An in-memory index
+ * maps the fingerprint of every URL to the sequence number of its latest
+ * version so that the older versions can be skipped when reading and dropped
+ * when merging. Apart from the most recent updates, only the index is kept in
+ * memory, together with the position and next fetch date of the first record
+ * of each segment which is still the latest version of its URL, so that the
+ * segments with nothing due are not read and the older versions at the start
+ * of the others are read only once.
+ *
+ * @since 1.17
+ **/
+public class EmbeddedFrontier implements Closeable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(EmbeddedFrontier.class);
+
+    /** Directory where the frontier is stored **/
+    public static final String directoryParamName = "embedded.frontier.dir";
+
+    /**
+     * Number of updates kept in memory before being written to a new segment,
+     * default 100000
+     **/
+    public static final String memtableSizeParamName = "embedded.frontier.memtable.size";
+
+    /** Number of segments above which they are merged, default 8 **/
+    public static final String maxSegmentsParamName = "embedded.frontier.max.segments";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String LOG_NAME = "wal.log";
+
+    private static final Map<String, EmbeddedFrontier> instances = new HashMap<>();
+
+    /** Stored version of a URL **/
+    public static class Record {
+        final long nextFetch;
+        final String url;
+        final long seq;
+        final Status status;
+        final Metadata metadata;
+
+        Record(long nextFetch, String url, long seq, Status status,
+                Metadata metadata) {
+            this.nextFetch = nextFetch;
+            this.url = url;
+            this.seq = seq;
+            this.status = status;
+            this.metadata = metadata;
+        }
+
+        public String getURL() {
+            return url;
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getNextFetch() {
+            return nextFetch;
+        }
+    }
+
+    /** Segment file and the part of it which may still be due **/
+    private static class Segment {
+        final File file;
+
+        /** Position of the first record which may be the latest version **/
+        long offset = 0;
+
+        /** Next fetch date of that record, Long.MAX_VALUE if there is none **/
+        long due;
+
+        Segment(File file, long due) {
+            this.file = file;
+            this.due = due;
+        }
+    }
+
+    private static final Comparator<Record> ORDER = Comparator
+            .<Record> comparingLong(r -> r.nextFetch)
+            .thenComparing(r -> r.url).thenComparingLong(r -> r.seq);
+
+    private final File directory;
+
+    private final int memtableSize;
+
+    private final int maxSegments;
+
+    private final FingerprintIndex index = new FingerprintIndex();
+
+    private final TreeSet<Record> memtable = new TreeSet<>(ORDER);
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private DataOutputStream log;
+
+    private long nextSeq = 0;
+
+    private int nextSegmentId = 0;
+
+    private int references = 0;
+
+    /** Returns the frontier for the directory set in the configuration **/
+    public static EmbeddedFrontier get(Map stormConf) throws IOException {
+        String directory = ConfUtils.getString(stormConf, directoryParamName);
+        if (StringUtils.isBlank(directory)) {
+            throw new RuntimeException("Missing value for config "
+                    + directoryParamName);
+        }
+        return get(directory,
+                ConfUtils.getInt(stormConf, memtableSizeParamName, 100000),
+                ConfUtils.getInt(stormConf, maxSegmentsParamName, 8));
+    }
+
+    /**
+     * Returns the frontier for a directory, opening it if this is the first
+     * reference to it in the JVM. Must be released with {@link #release()}.
+     **/
+    public static EmbeddedFrontier get(String directory, int memtableSize,
+            int maxSegments) throws IOException {
+        String key = new File(directory).getCanonicalPath();
+        synchronized (instances) {
+            EmbeddedFrontier frontier = instances.get(key);
+            if (frontier == null) {
+                frontier = new EmbeddedFrontier(new File(key), memtableSize,
+                        maxSegments);
+                instances.put(key, frontier);
+            }
+            frontier.references++;
+            return frontier;
+        }
+    }
+
+    /** Closes the frontier once all its references have been released **/
+    public void release() throws IOException {
+        synchronized (instances) {
+            if (--references > 0) {
+                return;
+            }
+            instances.remove(directory.getPath());
+        }
+        close();
+    }
+
+    EmbeddedFrontier(File directory, int memtableSize, int maxSegments)
+            throws IOException {
+        this.directory = directory;
+        this.memtableSize = memtableSize;
+        this.maxSegments = Math.max(maxSegments, 1);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory);
+        }
+        load();
+    }
+
+    /** Rebuilds the index from the segments and replays the log **/
+    private void load() throws IOException {
+        File[] files = directory.listFiles((d, name) -> name
+                .startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        Arrays.sort(files,
+                Comparator.comparingInt(EmbeddedFrontier::segmentId));
+        for (File f : files) {
+            nextSegmentId = Math.max(nextSegmentId, segmentId(f) + 1);
+            try (SegmentReader reader = new SegmentReader(f, 0)) {
+                Record first = reader.peek();
+                segments.add(new Segment(f,
+                        first == null ? Long.MAX_VALUE : first.nextFetch));
+                for (Record r = first; r != null; r = reader.next()) {
+                    indexRecord(r);
+                }
+            }
+        }
+
+        File logFile = new File(directory, LOG_NAME);
+        int replayed = 0;
+        if (logFile.exists()) {
+            try (SegmentReader reader = new SegmentReader(logFile, 0)) {
+                for (Record r = reader.peek(); r != null; r = reader.next()) {
+                    indexRecord(r);
+                    memtable.add(r);
+                    replayed++;
+                }
+            }
+        }
+
+        LOG.info("Loaded {} URLs from {} segments and {} log entries in {}",
+                index.size(), segments.size(), replayed, directory);
+
+        // rewrites the log without a possibly truncated last entry
+        File tmp = new File(directory, LOG_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (Record r : memtable) {
+                write(out, r);
+            }
+        }
+        Files.move(tmp.toPath(), logFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(logFile, true)));
+    }
+
+    private void indexRecord(Record r) {
+        long fingerprint = URLFingerprint.fingerprint64(r.url);
+        if (r.seq > index.get(fingerprint)) {
+            index.put(fingerprint, r.seq);
+        }
+        nextSeq = Math.max(nextSeq, r.seq + 1);
+    }
+
+    private static int segmentId(File f) {
+        String name = f.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private boolean isLatest(Record r) {
+        return index.get(URLFingerprint.fingerprint64(r.url)) == r.seq;
+    }
+
+    /** Returns true if a version of the URL has been stored **/
+    public synchronized boolean contains(String url) {
+        return index.get(URLFingerprint.fingerprint64(url)) != -1;
+    }
+
+    /** Number of distinct URLs **/
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Stores a new version of a URL. URLs with a DISCOVERED status are
+     * ignored if the URL is already known.
+     *
+     * @return true if the URL was stored
+     **/
+    public synchronized boolean put(String url, Status status,
+            Metadata metadata, long nextFetch) throws IOException {
+        long fingerprint = URLFingerprint.fingerprint64(url);
+        if (status == Status.DISCOVERED && index.get(fingerprint) != -1) {
+            return false;
+        }
+        append(new Record(nextFetch, url, nextSeq++, status, metadata));
+        return true;
+    }
+
+    /**
+     * Stores a new version of a record returned by
+     * {@link #due(long, int, int, Function, Predicate)} with another next
+     * fetch date, unless the URL has been updated since.
+     *
+     * @return true if the URL was rescheduled
+     **/
+    public synchronized boolean reschedule(Record r, long nextFetch)
+            throws IOException {
+        if (!isLatest(r)) {
+            return false;
+        }
+        append(new Record(nextFetch, r.url, nextSeq++, r.status, r.metadata));
+        return true;
+    }
+
+    private void append(Record r) throws IOException {
+        write(log, r);
+        log.flush();
+        index.put(URLFingerprint.fingerprint64(r.url), r.seq);
+        memtable.add(r);
+        if (memtable.size() >= memtableSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the latest version of the URLs due for fetching in the order of
+     * their next fetch date.
+     *
+     * @param now
+     *            time in msec since the epoch
+     * @param maxResults
+     *            max number of URLs returned
+     * @param maxPerKey
+     *            max number of URLs per key returned, -1 for no limit
+     * @param keyFunction
+     *            gives the key of a URL e.g. its host
+     * @param skip
+     *            URLs to leave out e.g. the ones being processed
+     **/
+    public synchronized List<Record> due(long now, int maxResults,
+            int maxPerKey, Function<Record, String> keyFunction,
+            Predicate<Record> skip) throws IOException {
+        List<Record> results = new ArrayList<>();
+        Map<String, Integer> perKey = new HashMap<>();
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.due <= now) {
+                candidates.add(segment);
+            }
+        }
+        try (MergingReader reader = new MergingReader(candidates, true)) {
+            for (Record r = reader.next(); r != null; r = reader.next()) {
+                if (r.nextFetch > now || results.size() >= maxResults) {
+                    break;
+                }
+                if (!isLatest(r) || skip.test(r)) {
+                    continue;
+                }
+                if (maxPerKey != -1) {
+                    String key = keyFunction.apply(r);
+                    int count = perKey.merge(key, 1, Integer::sum);
+                    if (count > maxPerKey) {
+                        continue;
+                    }
+                }
+                results.add(r);
+            }
+        }
+        return results;
+    }
+
+    /** Writes the in-memory updates to a new segment and truncates the log **/
+    public synchronized void flush() throws IOException {
+        if (memtable.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Segment segment = writeSegment(memtable.iterator());
+        memtable.clear();
+        if (segment != null) {
+            segments.add(segment);
+        }
+        // the updates are now in the segment
+        log.close();
+        log = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, LOG_NAME))));
+        LOG.info("Flushed updates to {} in {} msec",
+                segment == null ? null : segment.file,
+                System.currentTimeMillis() - start);
+
+        if (segments.size() > maxSegments) {
+            compact();
+        }
+    }
+
+    /** Merges all the segments into one, dropping the older versions **/
+    private void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        List<Segment> merged = new ArrayList<>(segments);
+        Segment segment;
+        try (MergingReader reader = new MergingReader(merged, false)) {
+            segment = writeSegment(new Iterator<Record>() {
+                Record next = reader.next();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Record next() {
+                    Record r = next;
+                    try {
+                        next = reader.next();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return r;
+                }
+            });
+        }
+        segments.clear();
+        if (segment != null) {
+            segments.add(segment);
+        }
+        for (Segment s : merged) {
+            Files.delete(s.file.toPath());
+        }
+        LOG.info("Merged {} segments in {} msec", merged.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Writes the latest versions from a sorted iterator to a new segment
+     *
+     * @return the segment or null if there was nothing to write
+     **/
+    private Segment writeSegment(Iterator<Record> records)
+            throws IOException {
+        File segment = new File(directory, SEGMENT_PREFIX + nextSegmentId++
+                + SEGMENT_SUFFIX);
+        File tmp = new File(directory, segment.getName() + ".tmp");
+        int written = 0;
+        long due = Long.MAX_VALUE;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            Record previous = null;
+            while (records.hasNext()) {
+                Record r = records.next();
+                if (!isLatest(r)) {
+                    continue;
+                }
+                // can be in a segment and the log after a crash
+                if (previous != null && previous.seq == r.seq) {
+                    continue;
+                }
+                if (written++ == 0) {
+                    due = r.nextFetch;
+                }
+                write(out, r);
+                previous = r;
+            }
+        }
+        if (written == 0) {
+            Files.delete(tmp.toPath());
+            return null;
+        }
+        Files.move(tmp.toPath(), segment.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        return new Segment(segment, due);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log == null) {
+            return;
+        }
+        flush();
+        log.close();
+        log = null;
+    }
+
+    private static void write(DataOutputStream out, Record r)
+            throws IOException {
+        out.writeLong(r.nextFetch);
+        writeString(out, r.url);
+        out.writeLong(r.seq);
+        writeString(out, r.status.name());
+        out.writeInt(r.metadata.size());
+        for (String key : r.metadata.keySet()) {
+            writeString(out, key);
+            String[] values = r.metadata.getValues(key);
+            out.writeInt(values.length);
+            for (String v : values) {
+                writeString(out, v);
+            }
+        }
+    }
+
+    private static Record read(DataInputStream in) throws IOException {
+        long nextFetch = in.readLong();
+        String url = readString(in);
+        long seq = in.readLong();
+        Status status = Status.valueOf(readString(in));
+        int numKeys = in.readInt();
+        Metadata metadata = new Metadata();
+        for (int i = 0; i < numKeys; i++) {
+            String key = readString(in);
+            String[] values = new String[in.readInt()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = readString(in);
+            }
+            metadata.setValues(key, values);
+        }
+        return new Record(nextFetch, url, seq, status, metadata);
+    }
+
+    // writeUTF is limited to 64K
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Sorted sequence of records **/
+    private interface RecordSource {
+        /** Current record, null if none left **/
+        Record peek();
+
+        /** Moves to the next record and returns it, null if none left **/
+        Record next() throws IOException;
+    }
+
+    /** Reads the records of a file sequentially from a position **/
+    private static class SegmentReader implements RecordSource, Closeable {
+
+        private final DataInputStream in;
+
+        private final CountingInputStream counter;
+
+        private final long start;
+
+        private long position;
+
+        private Record current;
+
+        SegmentReader(File file, long start) throws IOException {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                fis.getChannel().position(start);
+            } catch (IOException e) {
+                fis.close();
+                throw e;
+            }
+            this.start = start;
+            counter = new CountingInputStream(new BufferedInputStream(fis));
+            in = new DataInputStream(counter);
+            next();
+        }
+
+        /** Position of the current record in the file **/
+        long position() {
+            return position;
+        }
+
+        @Override
+        public Record peek() {
+            return current;
+        }
+
+        @Override
+        public Record next() throws IOException {
+            position = start + counter.getByteCount();
+            try {
+                current = read(in);
+            } catch (EOFException e) {
+                // end of file or truncated entry at the end of the log
+                current = null;
+            }
+            return current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class MemtableSource implements RecordSource {
+
+        private final Iterator<Record> iterator;
+
+        private Record current;
+
+        MemtableSource(Iterator<Record> iterator) {
+            this.iterator = iterator;
+            next();
+        }
+
+        @Override
+        public Record peek() {
+            return current;
+        }
+
+        @Override
+        public Record next() {
+            current = iterator.hasNext() ? iterator.next() : null;
+            return current;
+        }
+    }
+
+    /**
+     * Iterates on the records of the segments and memtable in order. Moves the
+     * start of the segments past the older versions read before their first
+     * latest one, a record can't become the latest version again.
+     **/
+    private class MergingReader implements Closeable {
+
+        private final List<SegmentReader> readers = new ArrayList<>();
+
+        private final Map<RecordSource, Segment> prefixes = new HashMap<>();
+
+        private final PriorityQueue<RecordSource> sources = new PriorityQueue<>(
+                (a, b) -> ORDER.compare(a.peek(), b.peek()));
+
+        MergingReader(List<Segment> segments, boolean withMemtable)
+                throws IOException {
+            try {
+                for (Segment segment : segments) {
+                    SegmentReader reader = new SegmentReader(segment.file,
+                            segment.offset);
+                    readers.add(reader);
+                    if (reader.peek() != null) {
+                        sources.add(reader);
+                        prefixes.put(reader, segment);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            if (withMemtable && !memtable.isEmpty()) {
+                sources.add(new MemtableSource(memtable.iterator()));
+            }
+        }
+
+        Record next() throws IOException {
+            RecordSource source = sources.poll();
+            if (source == null) {
+                return null;
+            }
+            Record r = source.peek();
+            Record next = source.next();
+            if (next != null) {
+                sources.add(source);
+            }
+            Segment segment = prefixes.get(source);
+            if (segment != null) {
+                if (isLatest(r)) {
+                    prefixes.remove(source);
+                } else {
+                    segment.offset = ((SegmentReader) source).position();
+                    segment.due = next == null ? Long.MAX_VALUE
+                            : next.nextFetch;
+                }
+            }
+            return r;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (SegmentReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
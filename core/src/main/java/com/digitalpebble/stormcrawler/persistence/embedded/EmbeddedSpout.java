@@ -0,0 +1,164 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.embedded;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.storm.spout.SpoutOutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.stormcrawler.persistence.AbstractQueryingSpout;
+import com.digitalpebble.stormcrawler.persistence.embedded.EmbeddedFrontier.Record;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
+import com.digitalpebble.stormcrawler.util.URLPartitioner;
+
+/**
+ * Gets the URLs due for fetching from an {@link EmbeddedFrontier}, which is
+ * populated by an {@link EmbeddedStatusUpdater} running in the same worker.
+ * When there are several instances of the spout, each of them is in charge of
+ * a subset of the hosts (or domains or IPs depending on the value of
+ * <i>partition.url.mode</i>).
+ *
+ * @since 1.17
+ **/
+@SuppressWarnings("serial")
+public class EmbeddedSpout extends AbstractQueryingSpout {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(EmbeddedSpout.class);
+
+    /** Max number of URLs per host returned by a query, default 5 **/
+    public static final String maxURLsPerKeyParamName = "embedded.spout.max.urls.per.key";
+
+    /** Max number of URLs returned by a query, default 100 **/
+    public static final String maxResultsParamName = "embedded.spout.max.results";
+
+    private EmbeddedFrontier frontier;
+
+    private final URLPartitioner partitioner = new URLPartitioner();
+
+    private int maxURLsPerKey = 5;
+
+    private int maxResults = 100;
+
+    private int taskIndex = 0;
+
+    private int totalTasks = 1;
+
+    private String logIdprefix = "";
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void open(Map stormConf, TopologyContext context,
+            SpoutOutputCollector collector) {
+        super.open(stormConf, context, collector);
+
+        maxURLsPerKey = ConfUtils.getInt(stormConf, maxURLsPerKeyParamName,
+                maxURLsPerKey);
+        maxResults = ConfUtils.getInt(stormConf, maxResultsParamName,
+                maxResults);
+
+        partitioner.configure(stormConf);
+
+        totalTasks = context.getComponentTasks(context.getThisComponentId())
+                .size();
+        if (totalTasks > 1) {
+            taskIndex = context.getThisTaskIndex();
+            logIdprefix = "[" + context.getThisComponentId() + " #"
+                    + taskIndex + "] ";
+        }
+
+        try {
+            frontier = EmbeddedFrontier.get(stormConf);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open frontier", e);
+        }
+    }
+
+    private String partition(Record r) {
+        String key = partitioner.getPartition(r.getURL(), r.getMetadata());
+        return key == null ? "_DEFAULT_" : key;
+    }
+
+    @Override
+    protected void populateBuffer() {
+        long start = System.currentTimeMillis();
+
+        List<Record> results;
+        try {
+            results = frontier.due(start, maxResults, maxURLsPerKey,
+                    this::partition, r -> beingProcessed.containsKey(r.getURL())
+                            || !isMine(r));
+        } catch (IOException e) {
+            LOG.error("{} Exception while querying frontier", logIdprefix, e);
+            return;
+        }
+
+        long timeTaken = System.currentTimeMillis() - start;
+        queryTimes.addMeasurement(timeTaken);
+
+        int alreadyInBuffer = 0;
+        int overBudget = 0;
+        for (Record r : results) {
+            // hosts fetched too much are put off until later
+            if (budget != null && budget.isFetchedOverBudget(partition(r))) {
+                try {
+                    frontier.reschedule(r, start + budget.getDelaySecs()
+                            * 1000l);
+                    overBudget++;
+                } catch (IOException e) {
+                    LOG.error("{} Exception while rescheduling {}",
+                            logIdprefix, r.getURL(), e);
+                }
+                continue;
+            }
+            if (!buffer.add(r.getURL(), r.getMetadata())) {
+                alreadyInBuffer++;
+            }
+        }
+
+        eventCounter.scope("already_in_buffer").incrBy(alreadyInBuffer);
+        eventCounter.scope("rescheduled_over_budget").incrBy(overBudget);
+        eventCounter.scope("queries").incrBy(1);
+        eventCounter.scope("docs").incrBy(results.size());
+
+        LOG.info("{} Frontier returned {} URLs in {} msec", logIdprefix,
+                results.size(), timeTaken);
+    }
+
+    /** Whether this instance of the spout is in charge of the URL **/
+    private boolean isMine(Record r) {
+        if (totalTasks == 1) {
+            return true;
+        }
+        return Math.abs(partition(r).hashCode() % totalTasks) == taskIndex;
+    }
+
+    @Override
+    public void close() {
+        try {
+            frontier.release();
+        } catch (IOException e) {
+            LOG.error("{} Exception while closing frontier", logIdprefix, e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.embedded;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.storm.metric.api.MultiCountMetric;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.stormcrawler.persistence.WindowedStatusUpdaterBolt;
+
+/**
+ * Stores the status of the URLs in an {@link EmbeddedFrontier}. Must run in
+ * the same worker as the {@link EmbeddedSpout}. The updates are grouped into
+ * windows as described in {@link WindowedStatusUpdaterBolt}.
+ *
+ * @since 1.17
+ **/
+@SuppressWarnings("serial")
+public class EmbeddedStatusUpdater extends WindowedStatusUpdaterBolt {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(EmbeddedStatusUpdater.class);
+
+    private EmbeddedFrontier frontier;
+
+    private MultiCountMetric eventCounter;
+
+    @Override
+    public void prepare(Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        super.prepare(stormConf, context, collector);
+        try {
+            frontier = EmbeddedFrontier.get(stormConf);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open frontier", e);
+        }
+        eventCounter = context.registerMetric("counter",
+                new MultiCountMetric(), 10);
+        context.registerMetric("frontier_size", () -> frontier.size(), 10);
+    }
+
+    @Override
+    protected void store(List<StatusUpdate> updates) throws Exception {
+        for (StatusUpdate update : updates) {
+            boolean stored = frontier.put(update.getURL(),
+                    update.getStatus(), update.getMetadata(),
+                    update.getNextFetch().getTime());
+            if (!stored) {
+                update.setKnown();
+            }
+            eventCounter.scope(stored ? "stored" : "already_known").incrBy(1);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        try {
+            frontier.release();
+        } catch (IOException e) {
+            LOG.error("Exception while closing frontier", e);
+        }
+    }
+}
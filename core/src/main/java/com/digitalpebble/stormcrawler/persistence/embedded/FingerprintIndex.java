@@ -0,0 +1,105 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.embedded;
+
+/**
+ * Maps the 64 bits fingerprints of the URLs to the sequence number of their
+ * latest version, using open addressing on primitive arrays i.e. about 27
+ * bytes per URL. Not thread safe.
+ *
+ * @since 1.17
+ **/
+class FingerprintIndex {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /** 0 marks the empty slots **/
+    private long[] keys;
+
+    private long[] values;
+
+    private int size = 0;
+
+    private int threshold;
+
+    FingerprintIndex() {
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static long key(long fingerprint) {
+        // 0 is reserved for the empty slots
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** @return the value for the fingerprint or -1 if unknown **/
+    long get(long fingerprint) {
+        long k = key(fingerprint);
+        int i = indexOf(k);
+        return keys[i] == k ? values[i] : -1;
+    }
+
+    void put(long fingerprint, long value) {
+        long k = key(fingerprint);
+        int i = indexOf(k);
+        if (keys[i] != k) {
+            keys[i] = k;
+            size++;
+        }
+        values[i] = value;
+        if (size > threshold) {
+            rehash();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = indexOf(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
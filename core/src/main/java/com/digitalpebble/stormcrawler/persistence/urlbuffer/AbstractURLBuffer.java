@@ -18,18 +18,18 @@
 package com.digitalpebble.stormcrawler.persistence.urlbuffer;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.persistence.EmptyQueueListener;
+import com.digitalpebble.stormcrawler.util.LongHashSet;
+import com.digitalpebble.stormcrawler.util.URLFingerprint;
 import com.digitalpebble.stormcrawler.util.URLPartitioner;
 
 /**
@@ -43,7 +43,8 @@ public abstract class AbstractURLBuffer implements URLBuffer {
     private static final Logger LOG = LoggerFactory
             .getLogger(AbstractURLBuffer.class);
 
-    protected Set<String> in_buffer = new HashSet<>();
+    /** Fingerprints of the URLs in the buffer **/
+    protected LongHashSet in_buffer = new LongHashSet();
     protected EmptyQueueListener listener = null;
 
     protected final URLPartitioner partitioner = new URLPartitioner();
@@ -70,7 +71,9 @@ public abstract class AbstractURLBuffer implements URLBuffer {
 
         LOG.debug("Adding {}", URL);
 
-        if (in_buffer.contains(URL)) {
+        long fingerprint = URLFingerprint.fingerprint64(URL);
+
+        if (in_buffer.contains(fingerprint)) {
             LOG.debug("already in buffer {}", URL);
             return false;
         }
@@ -86,9 +89,38 @@ public abstract class AbstractURLBuffer implements URLBuffer {
 
         // create the queue if it does not exist
         // and add the url
-        queues.computeIfAbsent(key, k -> new LinkedList<URLMetadata>())
-                .add(new URLMetadata(URL, m));
-        return in_buffer.add(URL);
+        Queue<URLMetadata> queue = queues.get(key);
+        boolean created = queue == null;
+        if (created) {
+            queue = newQueue();
+            queues.put(key, queue);
+        }
+        queue.add(new URLMetadata(URL, m, fingerprint));
+        if (created) {
+            queueCreated(key);
+        } else {
+            queueUpdated(key);
+        }
+        return in_buffer.add(fingerprint);
+    }
+
+    /** Creates a queue for the URLs of a key, FIFO by default **/
+    protected Queue<URLMetadata> newQueue() {
+        return new LinkedList<>();
+    }
+
+    /**
+     * Called when a URL is added for a key which had no queue in the buffer,
+     * after the URL has been added to the new queue
+     **/
+    protected void queueCreated(String key) {
+    }
+
+    /**
+     * Called when a URL is added to a queue which was already in the buffer,
+     * after the URL has been added
+     **/
+    protected void queueUpdated(String key) {
     }
 
     /**
@@ -118,10 +150,12 @@ public abstract class AbstractURLBuffer implements URLBuffer {
     class URLMetadata {
         String url;
         Metadata metadata;
+        long fingerprint;
 
-        URLMetadata(String u, Metadata m) {
+        URLMetadata(String u, Metadata m, long f) {
             url = u;
             metadata = m;
+            fingerprint = f;
         }
     }
 
@@ -0,0 +1,217 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.urlbuffer;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.persistence.EmptyQueueListener;
+import com.digitalpebble.stormcrawler.util.LongHashSet;
+import com.digitalpebble.stormcrawler.util.URLFingerprint;
+import com.digitalpebble.stormcrawler.util.URLPartitioner;
+
+/**
+ * URLBuffer which rotates on the queues without applying any priority, like
+ * {@link SimpleURLBuffer}, but without a global lock so that the threads
+ * filling the buffer e.g. the callbacks of asynchronous queries do not contend
+ * with the spout thread draining it.
+ * <p>
+ * The queues are modified under the per bin locks of a ConcurrentHashMap, so
+ * that adding a URL only locks the queue it goes to, and the keys of the
+ * non-empty queues are rotated in a lock-free queue. The fingerprints of the
+ * URLs are kept in a set split into stripes with a lock each.
+ * <p>
+ * {@link #hasNext()} followed by {@link #next()} is guaranteed to return a URL
+ * only if there is a single thread draining the buffer, as is the case with
+ * the spouts.
+ *
+ * @since 1.17
+ **/
+public class ConcurrentURLBuffer implements URLBuffer {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ConcurrentURLBuffer.class);
+
+    private static final int STRIPES = 16;
+
+    private final LongHashSet[] fingerprints = new LongHashSet[STRIPES];
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Queues by key, only accessed within the atomic operations of the map. A
+     * queue is removed from the map as soon as it is empty, the key of a queue
+     * in the map is in the rotation exactly once.
+     **/
+    private final Map<String, Queue<URLMetadata>> queues = new ConcurrentHashMap<>();
+
+    /** Keys of the queues in the order in which they will be polled **/
+    private final Queue<String> rotation = new ConcurrentLinkedQueue<>();
+
+    private final URLPartitioner partitioner = new URLPartitioner();
+
+    private volatile EmptyQueueListener listener = null;
+
+    public ConcurrentURLBuffer() {
+        for (int i = 0; i < STRIPES; i++) {
+            fingerprints[i] = new LongHashSet();
+        }
+    }
+
+    public void configure(Map stormConf) {
+        partitioner.configure(stormConf);
+    }
+
+    private LongHashSet stripe(long fingerprint) {
+        return fingerprints[(int) (fingerprint >>> 60) & (STRIPES - 1)];
+    }
+
+    @Override
+    public boolean add(String URL, Metadata m, String key) {
+
+        LOG.debug("Adding {}", URL);
+
+        long fingerprint = URLFingerprint.fingerprint64(URL);
+
+        LongHashSet stripe = stripe(fingerprint);
+        synchronized (stripe) {
+            if (!stripe.add(fingerprint)) {
+                LOG.debug("already in buffer {}", URL);
+                return false;
+            }
+        }
+
+        if (key == null) {
+            key = partitioner.getPartition(URL, m);
+            if (key == null) {
+                key = "_DEFAULT_";
+            }
+        }
+
+        URLMetadata item = new URLMetadata(URL, m, fingerprint);
+
+        // counted before being visible to next()
+        size.incrementAndGet();
+
+        // atomic for a given key, the queue can't be removed by next()
+        // while the URL is being added to it
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                rotation.offer(k);
+            }
+            queue.offer(item);
+            return queue;
+        });
+
+        return true;
+    }
+
+    /**
+     * Retrieves the next available URL, guarantees that the URLs are always
+     * perfectly shuffled
+     *
+     * @return null if no entries are available
+     **/
+    @Override
+    public Values next() {
+        String queueName = rotation.poll();
+        if (queueName == null) {
+            return null;
+        }
+
+        LOG.debug("Next queue {}", queueName);
+
+        URLMetadata[] item = new URLMetadata[1];
+        boolean[] emptied = new boolean[1];
+
+        queues.computeIfPresent(queueName, (k, queue) -> {
+            item[0] = queue.poll();
+            if (queue.isEmpty()) {
+                emptied[0] = true;
+                return null;
+            }
+            // add to the end of the rotation
+            rotation.offer(k);
+            return queue;
+        });
+
+        if (item[0] == null) {
+            return null;
+        }
+
+        // notify that the queue is empty
+        if (emptied[0] && listener != null) {
+            listener.emptyQueue(queueName);
+        }
+
+        LOG.debug("Item {}", item[0].url);
+
+        // remove it from the list of URLs in the queue
+        LongHashSet stripe = stripe(item[0].fingerprint);
+        synchronized (stripe) {
+            stripe.remove(item[0].fingerprint);
+        }
+        size.decrementAndGet();
+
+        return new Values(item[0].url, item[0].metadata);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !rotation.isEmpty();
+    }
+
+    /** Total number of URLs in the buffer **/
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /** Total number of queues in the buffer **/
+    @Override
+    public int numQueues() {
+        return queues.size();
+    }
+
+    @Override
+    public void setEmptyQueueListener(EmptyQueueListener l) {
+        listener = l;
+    }
+
+    private static class URLMetadata {
+        final String url;
+        final Metadata metadata;
+        final long fingerprint;
+
+        URLMetadata(String u, Metadata m, long f) {
+            url = u;
+            metadata = m;
+            fingerprint = f;
+        }
+    }
+}
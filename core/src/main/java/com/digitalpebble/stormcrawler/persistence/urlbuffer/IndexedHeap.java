@@ -0,0 +1,172 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.urlbuffer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * Binary min-heap where the entries know their position, so that an entry
+ * can be removed or repositioned after a change of its priority in O(log n).
+ * Not thread safe.
+ *
+ * @since 1.17
+ **/
+class IndexedHeap<E extends IndexedHeap.Entry> {
+
+    /** Element of the heap, can be in at most one heap at a time **/
+    static class Entry {
+        int heapIndex = -1;
+
+        boolean inHeap() {
+            return heapIndex != -1;
+        }
+    }
+
+    private final Comparator<? super E> comparator;
+
+    private Entry[] heap = new Entry[16];
+
+    private int size = 0;
+
+    IndexedHeap(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the smallest entry without removing it or null if empty **/
+    @SuppressWarnings("unchecked")
+    E peek() {
+        return size == 0 ? null : (E) heap[0];
+    }
+
+    /** Removes and returns the smallest entry or null if empty **/
+    E poll() {
+        E first = peek();
+        if (first != null) {
+            remove(first);
+        }
+        return first;
+    }
+
+    void add(E e) {
+        if (e.inHeap()) {
+            throw new IllegalStateException("Entry already in a heap");
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        e.heapIndex = size;
+        heap[size++] = e;
+        siftUp(e.heapIndex);
+    }
+
+    void remove(E e) {
+        int i = e.heapIndex;
+        if (i == -1) {
+            return;
+        }
+        e.heapIndex = -1;
+        size--;
+        if (i == size) {
+            heap[size] = null;
+            return;
+        }
+        Entry last = heap[size];
+        heap[size] = null;
+        last.heapIndex = i;
+        heap[i] = last;
+        siftDown(i);
+        siftUp(last.heapIndex);
+    }
+
+    /** Restores the order after the priority of an entry has changed **/
+    void update(E e) {
+        if (e.heapIndex == -1) {
+            return;
+        }
+        siftUp(e.heapIndex);
+        siftDown(e.heapIndex);
+    }
+
+    /** Restores the order after the priorities of many entries have changed **/
+    void heapify() {
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /** Applies to all the entries, in no particular order **/
+    @SuppressWarnings("unchecked")
+    void forEach(Consumer<? super E> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept((E) heap[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(int i, int j) {
+        return comparator.compare((E) heap[i], (E) heap[j]);
+    }
+
+    private void swap(int i, int j) {
+        Entry tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+        heap[i].heapIndex = i;
+        heap[j].heapIndex = j;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compare(i, parent) >= 0) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && compare(right, left) < 0) {
+                smallest = right;
+            }
+            if (compare(smallest, i) >= 0) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+}
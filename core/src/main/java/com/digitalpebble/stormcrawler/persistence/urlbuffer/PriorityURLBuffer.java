@@ -17,16 +17,11 @@
 
 package com.digitalpebble.stormcrawler.persistence.urlbuffer;
 
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 import org.apache.storm.tuple.Values;
 import org.slf4j.Logger;
@@ -35,98 +30,167 @@ import org.slf4j.LoggerFactory;
 import com.digitalpebble.stormcrawler.Metadata;
 
 /**
- * Determines the priority of the buffers based on the number of URLs acked in a
- * configurable period of time.
+ * Determines the priority of the buffers based on the number of URLs acked in
+ * the recent past.
+ * <p>
+ * The queues are served in rounds, each queue releasing one URL per round.
+ * Within a round, the queues with the most acks go first. The acks are
+ * counted with an exponential decay so that their weight halves every 10
+ * seconds, which is done by giving the recent acks an exponentially larger
+ * weight so that the scores of the queues do not need updating as time
+ * passes. The queues are kept in a heap updated on every release and ack,
+ * which keeps the order current in O(log queues) instead of re-sorting all the
+ * queues periodically.
  * 
  * @since 1.16
  **/
 
-public class PriorityURLBuffer extends SimpleURLBuffer {
+public class PriorityURLBuffer extends AbstractURLBuffer {
 
     static final Logger LOG = LoggerFactory.getLogger(PriorityURLBuffer.class);
 
-    private Map<String, AtomicInteger> ackCount;
+    /**
+     * The landmark is moved when the weight of the acks would exceed 2^40,
+     * which keeps the scores far from the largest double
+     **/
+    private static final double MAX_EXPONENT = 40;
 
-    private Instant lastSorting;
+    /** The weight of the acks halves after that time **/
+    private long halfLifeMsec = 10000l;
 
-    private long minDelayReRankSec = 10l;
+    /** Time from which the weights of the acks are computed **/
+    private long landmark;
+
+    /** Decayed ack counts by queue, including the ones not in the buffer **/
+    private final Map<String, Double> scores = new HashMap<>();
+
+    private final Map<String, RankedQueue> ranked = new HashMap<>();
+
+    private final IndexedHeap<RankedQueue> heap = new IndexedHeap<>(Comparator
+            .<RankedQueue> comparingLong(q -> q.round)
+            .thenComparing(
+                    Comparator.<RankedQueue> comparingDouble(q -> q.score)
+                            .reversed())
+            .thenComparingLong(q -> q.sequence));
+
+    private long currentRound = 0;
+
+    private long sequence = 0;
+
+    private final LongSupplier clock;
 
     public PriorityURLBuffer() {
-        lastSorting = Instant.now();
-        ackCount = new ConcurrentHashMap<>();
+        this(System::currentTimeMillis);
     }
 
-    public synchronized Values next() {
-        // check whether we need to re-rank the buffers
-        if (lastSorting.plusSeconds(minDelayReRankSec)
-                .isBefore(Instant.now())) {
-            rerank();
-        }
-        return super.next();
+    PriorityURLBuffer(LongSupplier clock) {
+        this.clock = clock;
+        landmark = clock.getAsLong();
     }
 
-    // sorts the buffers according to the number of acks they got since the
-    // previous time
-    private void rerank() {
-        if (queues.isEmpty()) {
-            return;
-        }
-
-        List<QueueCount> sorted = new ArrayList<>();
-
-        // populate a sorted set with key - queues
-        Iterator<Entry<String, Queue<URLMetadata>>> i = queues.entrySet()
-                .iterator();
+    @Override
+    protected void queueCreated(String queueName) {
+        RankedQueue rq = new RankedQueue(queueName);
+        rq.round = currentRound;
+        rq.score = scores.getOrDefault(queueName, 0d);
+        rq.sequence = sequence++;
+        ranked.put(queueName, rq);
+        heap.add(rq);
+    }
 
-        while (i.hasNext()) {
-            Entry<String, Queue<URLMetadata>> entry = i.next();
-            String name = entry.getKey();
-            int ackNum = ackCount.getOrDefault(name, new AtomicInteger(0))
-                    .get();
-            QueueCount qc = new QueueCount(name, ackNum);
-            sorted.add(qc);
+    /**
+     * Retrieves the next available URL, guarantees that the URLs are always
+     * perfectly shuffled
+     * 
+     * @return null if no entries are available
+     **/
+    public synchronized Values next() {
+        RankedQueue rq = heap.peek();
+        if (rq == null) {
+            return null;
         }
 
-        Collections.sort(sorted);
+        LOG.debug("Next queue {}", rq.name);
+
+        Queue<URLMetadata> queue = queues.get(rq.name);
+        URLMetadata item = queue.poll();
+        currentRound = rq.round;
 
-        // now create a new Map of queues based on the sorted set
-        // lowest score go first
+        LOG.debug("Item {}", item.url);
 
-        for (QueueCount q : sorted) {
-            Queue<URLMetadata> queue = queues.remove(q.name);
-            queues.put(q.name, queue);
+        // any left? goes to the next round
+        if (!queue.isEmpty()) {
+            rq.round++;
+            rq.sequence = sequence++;
+            heap.update(rq);
+        }
+        // notify that the queue is empty
+        else {
+            heap.remove(rq);
+            ranked.remove(rq.name);
+            queues.remove(rq.name);
+            if (listener != null) {
+                listener.emptyQueue(rq.name);
+            }
         }
 
-        ackCount.clear();
-        lastSorting = Instant.now();
+        // remove it from the list of URLs in the queue
+        in_buffer.remove(item.fingerprint);
+        return new Values(item.url, item.metadata);
     }
 
-    public void acked(String url) {
+    public synchronized void acked(String url) {
         // get the queue for this URL
         String key = partitioner.getPartition(url, Metadata.empty);
         if (key == null) {
             key = "_DEFAULT_";
         }
-        // increment the counter for it
-        ackCount.computeIfAbsent(key, k -> new AtomicInteger(0))
-                .incrementAndGet();
-    }
 
-    class QueueCount implements Comparable<QueueCount> {
-        String name;
-        int count;
+        long now = clock.getAsLong();
+        double exponent = (double) (now - landmark) / halfLifeMsec;
 
-        QueueCount(String n, int c) {
-            name = n;
-            count = c;
+        // keep the weights in the range of the doubles, checked before
+        // computing the weight as it overflows after a long time without acks
+        if (exponent > MAX_EXPONENT) {
+            rescale(exponent, now);
+            exponent = 0;
         }
+        double weight = Math.pow(2, exponent);
+
+        // increment the score for it
+        double score = scores.merge(key, weight, Double::sum);
+        RankedQueue rq = ranked.get(key);
+        if (rq != null) {
+            rq.score = score;
+            heap.update(rq);
+        }
+    }
+
+    /**
+     * Divides all the scores by 2^exponent, moves the landmark to now and
+     * forgets the scores which have become negligible. The factor is applied
+     * as a multiplication by 2^-exponent, which can only underflow to 0,
+     * whereas 2^exponent could overflow to infinity and turn the scores into
+     * NaN. As scores which underflow become equal, the heap is rebuilt.
+     **/
+    private void rescale(double exponent, long now) {
+        LOG.debug("Rescaling the scores of {} queues", scores.size());
+        double factor = Math.pow(2, -exponent);
+        scores.replaceAll((k, v) -> v * factor);
+        scores.values().removeIf(v -> v < 1e-6);
+        heap.forEach(rq -> rq.score = scores.getOrDefault(rq.name, 0d));
+        heap.heapify();
+        landmark = now;
+    }
+
+    static class RankedQueue extends IndexedHeap.Entry {
+        final String name;
+        long round;
+        double score;
+        long sequence;
 
-        @Override
-        public int compareTo(QueueCount otherQueue) {
-            int countDiff = otherQueue.count - count;
-            if (countDiff == 0)
-                return name.compareTo(otherQueue.name);
-            return countDiff;
+        RankedQueue(String name) {
+            this.name = name;
         }
     }
 }
@@ -17,10 +17,9 @@
 
 package com.digitalpebble.stormcrawler.persistence.urlbuffer;
 
-import java.time.Instant;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -34,11 +33,17 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
-import com.google.common.collect.EvictingQueue;
 
 /**
  * Checks how long the last N URLs took to work out whether a queue should
  * release a URL.
+ * <p>
+ * The queues are kept in a heap ordered by the time at which they can release
+ * their next URL, i.e. the time of their last release plus the average time
+ * taken by their recent URLs, so that finding a queue ready to release or
+ * knowing that none is ready is done in constant time and releasing a URL in
+ * O(log queues). Queues without enough history are ordered by the time of
+ * their last release, which rotates on them like {@link SimpleURLBuffer}.
  **/
 
 public class SchedulingURLBuffer extends AbstractURLBuffer
@@ -56,22 +61,45 @@ public class SchedulingURLBuffer extends AbstractURLBuffer
     // keeps track of the URL having been sent
     private Cache<String, Object[]> unacked;
 
-    private Cache<String, Queue<Long>> timings;
+    /** Timings and last release of the queues, kept after they get empty **/
+    private Cache<String, QueueStats> stats;
 
-    private Cache<String, Instant> lastReleased;
+    /** Scheduling of the queues currently in the buffer **/
+    private final Map<String, ScheduledQueue> scheduled = new HashMap<>();
+
+    private final IndexedHeap<ScheduledQueue> heap = new IndexedHeap<>(
+            Comparator.<ScheduledQueue> comparingLong(q -> q.releaseTime)
+                    .thenComparingLong(q -> q.sequence));
+
+    private long sequence = 0;
+
+    public SchedulingURLBuffer() {
+        initCaches();
+    }
 
     public void configure(Map stormConf) {
         super.configure(stormConf);
         maxTimeMSec = ConfUtils.getInt(stormConf, MAXTIMEPARAM, maxTimeMSec);
+        initCaches();
+    }
+
+    private void initCaches() {
         unacked = CacheBuilder.newBuilder()
                 .expireAfterWrite(maxTimeMSec, TimeUnit.MILLISECONDS)
                 .removalListener(this).build();
-        timings = CacheBuilder.newBuilder()
-                .expireAfterAccess(10, TimeUnit.MINUTES).build();
-        lastReleased = CacheBuilder.newBuilder()
+        stats = CacheBuilder.newBuilder()
                 .expireAfterAccess(10, TimeUnit.MINUTES).build();
     }
 
+    @Override
+    protected void queueCreated(String queueName) {
+        ScheduledQueue sq = new ScheduledQueue(queueName);
+        sq.releaseTime = nextRelease(stats.getIfPresent(queueName));
+        sq.sequence = sequence++;
+        scheduled.put(queueName, sq);
+        heap.add(sq);
+    }
+
     /**
      * Retrieves the next available URL, guarantees that the URLs are always
      * perfectly shuffled
@@ -80,105 +108,90 @@ public class SchedulingURLBuffer extends AbstractURLBuffer
      **/
     public synchronized Values next() {
 
-        do {
-            Iterator<Entry<String, Queue<URLMetadata>>> i = queues.entrySet()
-                    .iterator();
-
-            if (!i.hasNext()) {
-                LOG.trace("Empty iterator");
-                return null;
-            }
+        ScheduledQueue sq = heap.peek();
+        if (sq == null) {
+            LOG.trace("Empty buffer");
+            return null;
+        }
 
-            Map.Entry<String, Queue<URLMetadata>> nextEntry = i.next();
+        long now = System.currentTimeMillis();
 
-            Queue<URLMetadata> queue = nextEntry.getValue();
-            String queueName = nextEntry.getKey();
+        // is the first queue ready to be processed?
+        if (sq.releaseTime > now) {
+            LOG.trace("Queue {} not ready to release yet", sq.name);
+            return null;
+        }
 
-            // remove the entry, gets added back later
-            i.remove();
+        LOG.trace("Next queue {}", sq.name);
 
-            LOG.trace("Next queue {}", queueName);
+        Queue<URLMetadata> queue = queues.get(sq.name);
+        URLMetadata item = queue.poll();
 
-            URLMetadata item = null;
+        LOG.trace("Item {}", item.url);
 
-            // is this queue ready to be processed?
-            if (canRelease(queueName)) {
-                // try the first element
-                item = queue.poll();
-                LOG.trace("Item {}", item.url);
-            } else {
-                LOG.trace("Queue {} not ready to release yet", queueName);
-            }
+        QueueStats qs = getStats(sq.name);
+        qs.lastReleased = now;
 
-            // any left? add to the end of the iterator
-            if (!queue.isEmpty()) {
-                LOG.debug("Adding to the back of the queue {}", queueName);
-                queues.put(queueName, queue);
-            }
-            // notify that the queue is empty
-            else {
-                if (listener != null) {
-                    listener.emptyQueue(queueName);
-                }
+        // any left? reschedule
+        if (!queue.isEmpty()) {
+            sq.releaseTime = nextRelease(qs);
+            sq.sequence = sequence++;
+            heap.update(sq);
+        }
+        // notify that the queue is empty
+        else {
+            heap.remove(sq);
+            scheduled.remove(sq.name);
+            queues.remove(sq.name);
+            if (listener != null) {
+                listener.emptyQueue(sq.name);
             }
+        }
 
-            if (item != null) {
-                lastReleased.put(queueName, Instant.now());
-                unacked.put(item.url,
-                        new Object[] { Instant.now(), queueName });
-                // remove it from the list of URLs in the queue
-                in_buffer.remove(item.url);
-                return new Values(item.url, item.metadata);
-            }
-        } while (!queues.isEmpty());
-        return null;
+        unacked.put(item.url, new Object[] { now, sq.name });
+        // remove it from the list of URLs in the queue
+        in_buffer.remove(item.fingerprint);
+        return new Values(item.url, item.metadata);
     }
 
-    private boolean canRelease(String queueName) {
-        // return true if enough time has expired since the previous release
-        // given the past performance of the last N urls
-
-        Queue<Long> times = timings.getIfPresent(queueName);
-        if (times == null)
-            return true;
-
-        // not enough history yet? just say yes
-        if (times.size() < historySize)
-            return true;
+    /** Returns true if a queue is ready to release a URL **/
+    @Override
+    public synchronized boolean hasNext() {
+        ScheduledQueue sq = heap.peek();
+        return sq != null && sq.releaseTime <= System.currentTimeMillis();
+    }
 
-        // get the average duration over the recent history
-        long totalMsec = 0l;
-        for (Long t : times) {
-            totalMsec += t;
+    /**
+     * Returns the time at which a queue can release a URL given the past
+     * performance of the last N urls
+     **/
+    private long nextRelease(QueueStats qs) {
+        // not enough history yet? rotate on the queues
+        if (qs == null) {
+            return 0;
         }
-        long average = totalMsec / historySize;
-
-        LOG.trace("Average for {}: {} msec", queueName, average);
-
-        Instant lastRelease = lastReleased.getIfPresent(queueName);
-        if (lastRelease == null) {
-            // removed? bit unlikely but nevermind
-            return true;
+        if (qs.count < historySize) {
+            return qs.lastReleased;
         }
-
-        // check that enough time has elapsed
-        // since the previous release from this queue
-        return lastRelease.plusMillis(average).isBefore(Instant.now());
+        long average = qs.total / historySize;
+        LOG.trace("Average: {} msec", average);
+        return qs.lastReleased + average;
     }
 
-    public void acked(String url) {
+    public synchronized void acked(String url) {
         // get notified that the URL has been acked
         // use that to compute how long it took
-        Object[] cached = (Object[]) unacked.getIfPresent(url);
+        Object[] cached = unacked.getIfPresent(url);
         // has already been discarded - its timing set to max
         if (cached == null) {
             return;
         }
+        unacked.invalidate(url);
 
-        Instant t = (Instant) cached[0];
+        long t = (Long) cached[0];
         String key = (String) cached[1];
 
-        long tookmsec = Instant.now().toEpochMilli() - t.toEpochMilli();
+        long tookmsec = System.currentTimeMillis() - t;
 
         LOG.trace("Adding new timing for {}: {} msec - {}", key, tookmsec, url);
 
@@ -188,20 +201,65 @@ public class SchedulingURLBuffer extends AbstractURLBuffer
 
     @Override
     public void onRemoval(RemovalNotification<String, Object[]> notification) {
+        // the acked URLs are removed explicitly
+        if (!notification.wasEvicted()) {
+            return;
+        }
         String key = (String) notification.getValue()[1];
         addTiming(maxTimeMSec, key);
     }
 
-    void addTiming(long t, String queueName) {
-        Queue<Long> times;
+    synchronized void addTiming(long t, String queueName) {
+        QueueStats qs = getStats(queueName);
+        qs.add(t, historySize);
+        // reschedule the queue according to its new average
+        ScheduledQueue sq = scheduled.get(queueName);
+        if (sq != null) {
+            sq.releaseTime = nextRelease(qs);
+            heap.update(sq);
+        }
+    }
+
+    private QueueStats getStats(String queueName) {
         try {
-            times = timings.get(queueName, () -> {
-                return EvictingQueue.create(historySize);
-            });
-            times.add(t);
+            return stats.get(queueName, () -> new QueueStats(historySize));
         } catch (ExecutionException e) {
-            LOG.error("ExecutionException", e);
+            // can't happen
+            throw new RuntimeException(e);
         }
     }
 
+    static class ScheduledQueue extends IndexedHeap.Entry {
+        final String name;
+        long releaseTime;
+        long sequence;
+
+        ScheduledQueue(String name) {
+            this.name = name;
+        }
+    }
+
+    /** Durations of the last N URLs of a queue **/
+    static class QueueStats {
+        final long[] timings;
+        int count = 0;
+        int position = 0;
+        long total = 0;
+        long lastReleased = 0;
+
+        QueueStats(int historySize) {
+            timings = new long[historySize];
+        }
+
+        void add(long t, int historySize) {
+            if (count == historySize) {
+                total -= timings[position];
+            } else {
+                count++;
+            }
+            timings[position] = t;
+            total += t;
+            position = (position + 1) % historySize;
+        }
+    }
 }
@@ -0,0 +1,227 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.urlbuffer;
+
+import java.util.AbstractQueue;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import org.apache.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.stormcrawler.persistence.URLScorer;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
+
+/**
+ * Releases the URLs with the highest scores first, as set in their metadata by
+ * a {@link URLScorer} in the status updater. The URLs without a score count as
+ * 0.
+ * <p>
+ * Within a queue, the URLs are sorted by decreasing score. The queues are
+ * served in rounds, each queue releasing one URL per round so that a host with
+ * many high scores does not monopolise the fetchers; within a round, the
+ * queues go in the order of the score of their best URL.
+ * 
+ * @since 1.17
+ **/
+public class ScoredURLBuffer extends AbstractURLBuffer {
+
+    static final Logger LOG = LoggerFactory.getLogger(ScoredURLBuffer.class);
+
+    private String scoreKey = URLScorer.DEFAULT_SCORE_KEY;
+
+    private final Map<String, RankedQueue> ranked = new HashMap<>();
+
+    private final IndexedHeap<RankedQueue> heap = new IndexedHeap<>(Comparator
+            .<RankedQueue> comparingLong(q -> q.round)
+            .thenComparing(
+                    Comparator.<RankedQueue> comparingDouble(q -> q.score)
+                            .reversed())
+            .thenComparingLong(q -> q.sequence));
+
+    private long currentRound = 0;
+
+    private long sequence = 0;
+
+    @Override
+    public void configure(Map stormConf) {
+        super.configure(stormConf);
+        scoreKey = ConfUtils.getString(stormConf,
+                URLScorer.scoreKeyParamName, URLScorer.DEFAULT_SCORE_KEY);
+    }
+
+    @Override
+    protected Queue<URLMetadata> newQueue() {
+        return new ScoredQueue();
+    }
+
+    @Override
+    protected void queueCreated(String queueName) {
+        RankedQueue rq = new RankedQueue(queueName);
+        rq.round = currentRound;
+        rq.score = bestScore(queueName);
+        rq.sequence = sequence++;
+        ranked.put(queueName, rq);
+        heap.add(rq);
+    }
+
+    @Override
+    protected void queueUpdated(String queueName) {
+        RankedQueue rq = ranked.get(queueName);
+        double score = bestScore(queueName);
+        if (score != rq.score) {
+            rq.score = score;
+            heap.update(rq);
+        }
+    }
+
+    private double bestScore(String queueName) {
+        return ((ScoredQueue) queues.get(queueName)).bestScore();
+    }
+
+    /**
+     * Retrieves the URL with the highest score from the queue with the lowest
+     * round, ties on the round being broken by the best score of the queues
+     * then by the order in which they were ranked. The queue then moves to the
+     * next round, a new queue joins the current one.
+     *
+     * @return null if no entries are available
+     **/
+    public synchronized Values next() {
+        RankedQueue rq = heap.peek();
+        if (rq == null) {
+            return null;
+        }
+
+        LOG.debug("Next queue {}", rq.name);
+
+        ScoredQueue queue = (ScoredQueue) queues.get(rq.name);
+        URLMetadata item = queue.poll();
+        currentRound = rq.round;
+
+        LOG.debug("Item {}", item.url);
+
+        // any left? goes to the next round
+        if (!queue.isEmpty()) {
+            rq.round++;
+            rq.score = queue.bestScore();
+            rq.sequence = sequence++;
+            heap.update(rq);
+        }
+        // notify that the queue is empty
+        else {
+            heap.remove(rq);
+            ranked.remove(rq.name);
+            queues.remove(rq.name);
+            if (listener != null) {
+                listener.emptyQueue(rq.name);
+            }
+        }
+
+        // remove it from the list of URLs in the queue
+        in_buffer.remove(item.fingerprint);
+        return new Values(item.url, item.metadata);
+    }
+
+    static class RankedQueue extends IndexedHeap.Entry {
+        final String name;
+        long round;
+        double score;
+        long sequence;
+
+        RankedQueue(String name) {
+            this.name = name;
+        }
+    }
+
+    /** URLs sorted by decreasing score then in order of arrival **/
+    private class ScoredQueue extends AbstractQueue<URLMetadata> {
+
+        private final PriorityQueue<ScoredURL> urls = new PriorityQueue<>(
+                Comparator.<ScoredURL> comparingDouble(u -> u.score)
+                        .reversed().thenComparingLong(u -> u.sequence));
+
+        private long added = 0;
+
+        double bestScore() {
+            ScoredURL best = urls.peek();
+            return best == null ? 0 : best.score;
+        }
+
+        @Override
+        public boolean offer(URLMetadata e) {
+            return urls.offer(new ScoredURL(e, URLScorer.getScore(e.metadata,
+                    scoreKey), added++));
+        }
+
+        @Override
+        public URLMetadata poll() {
+            ScoredURL u = urls.poll();
+            return u == null ? null : u.item;
+        }
+
+        @Override
+        public URLMetadata peek() {
+            ScoredURL u = urls.peek();
+            return u == null ? null : u.item;
+        }
+
+        @Override
+        public Iterator<URLMetadata> iterator() {
+            Iterator<ScoredURL> i = urls.iterator();
+            return new Iterator<URLMetadata>() {
+                @Override
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+
+                @Override
+                public URLMetadata next() {
+                    return i.next().item;
+                }
+
+                @Override
+                public void remove() {
+                    i.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return urls.size();
+        }
+    }
+
+    private static class ScoredURL {
+        final URLMetadata item;
+        final double score;
+        final long sequence;
+
+        ScoredURL(URLMetadata item, double score, long sequence) {
+            this.item = item;
+            this.score = score;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -85,7 +85,7 @@ public class SimpleURLBuffer extends AbstractURLBuffer {
         }
 
         // remove it from the list of URLs in the queue
-        in_buffer.remove(item.url);
+        in_buffer.remove(item.fingerprint);
         return new Values(item.url, item.metadata);
     }
 }
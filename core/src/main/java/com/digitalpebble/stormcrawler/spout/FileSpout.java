@@ -17,22 +17,24 @@
 
 package com.digitalpebble.stormcrawler.spout;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.TreeSet;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.storm.spout.Scheme;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -44,13 +46,21 @@ import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.stormcrawler.Constants;
 import com.digitalpebble.stormcrawler.persistence.Status;
+import com.digitalpebble.stormcrawler.util.ConfUtils;
 import com.digitalpebble.stormcrawler.util.StringTabScheme;
 
 /**
- * Reads the lines from a UTF-8 file and use them as a spout. Load the entire
- * content into memory. Uses StringTabScheme to parse the lines into URLs and
- * Metadata, generates tuples on the default stream unless withDiscoveredStatus
- * is set to true.
+ * Reads the lines from a UTF-8 file and use them as a spout. The files are
+ * mapped in memory and read in batches. Uses StringTabScheme to parse the
+ * lines into URLs and Metadata, generates tuples on the default stream unless
+ * withDiscoveredStatus is set to true.
+ * <p>
+ * When the spout has several instances, each of them reads a distinct range of
+ * bytes of the files. If a checkpoint directory is configured with
+ * {@value #CHECKPOINT_DIR_PARAM}, the offset up to which all the lines have
+ * been acked is saved periodically for each file and task, so that a restarted
+ * topology resumes from there, provided that the parallelism of the spout has
+ * not changed.
  */
 @SuppressWarnings("serial")
 public class FileSpout extends BaseRichSpout {
@@ -58,10 +68,41 @@ public class FileSpout extends BaseRichSpout {
     public static final int BATCH_SIZE = 10000;
     public static final Logger LOG = LoggerFactory.getLogger(FileSpout.class);
 
+    /**
+     * Directory where the offsets of the files are checkpointed, no
+     * checkpointing if not set
+     * 
+     * @since 1.17
+     **/
+    public static final String CHECKPOINT_DIR_PARAM = "file.spout.checkpoint.dir";
+
+    /**
+     * Frequency at which the offsets are checkpointed
+     * 
+     * @since 1.17
+     **/
+    public static final String CHECKPOINT_INTERVAL_PARAM = "file.spout.checkpoint.interval.sec";
+
     protected SpoutOutputCollector _collector;
 
     private Queue<String> _inputFiles;
-    private BufferedReader currentBuffer;
+    private MappedLineReader currentReader;
+
+    private int taskIndex = 0;
+    private int totalTasks = 1;
+
+    private File checkpointDir;
+    private long checkpointInterval = 10000;
+    private long lastCheckpoint;
+
+    /** Range of the file being read, null if not checkpointing **/
+    private Range currentRange;
+
+    /** Ranges with lines not acked yet **/
+    private final List<Range> ranges = new ArrayList<>();
+
+    /** Lines of the buffer, if checkpointing **/
+    private final LinkedList<Line> lines = new LinkedList<>();
 
     protected Scheme _scheme = new StringTabScheme();
 
@@ -147,44 +188,117 @@ public class FileSpout extends BaseRichSpout {
     }
 
     protected void populateBuffer() throws IOException {
-        if (currentBuffer == null) {
+        if (currentReader == null) {
             String file = _inputFiles.poll();
             if (file == null)
                 return;
-            Path inputPath = Paths.get(file);
-            currentBuffer = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(inputPath.toFile()),
-                    StandardCharsets.UTF_8));
+            openFile(Paths.get(file));
         }
 
-        // no more files to read from
-        if (currentBuffer == null)
-            return;
-
-        String line = null;
+        byte[] line = null;
         int linesRead = 0;
         while (linesRead < BATCH_SIZE
-                && (line = currentBuffer.readLine()) != null) {
-            if (StringUtils.isBlank(line))
+                && (line = currentReader.next()) != null) {
+            int start = 0;
+            int end = line.length;
+            while (start < end && isWhitespace(line[start]))
+                start++;
+            while (end > start && isWhitespace(line[end - 1]))
+                end--;
+            if (start == end)
                 continue;
-            if (line.startsWith("#"))
+            if (line[start] == '#')
                 continue;
-            buffer.add(line.trim().getBytes(StandardCharsets.UTF_8));
+            if (start > 0 || end < line.length) {
+                line = Arrays.copyOfRange(line, start, end);
+            }
+            buffer.add(line);
+            if (currentRange != null) {
+                long offset = currentReader.lineOffset();
+                currentRange.pending.add(offset);
+                lines.add(new Line(currentRange, offset));
+            }
             linesRead++;
         }
 
+        if (currentRange != null) {
+            currentRange.position = currentReader.position();
+        }
+
         // finished the file?
         if (line == null) {
-            currentBuffer.close();
-            currentBuffer = null;
+            currentReader.close();
+            currentReader = null;
+            currentRange = null;
         }
     }
 
+    private static boolean isWhitespace(byte b) {
+        // same as String.trim(), the bytes of multibyte chars are negative
+        return b >= 0 && b <= ' ';
+    }
+
+    /** Opens the range of the file allocated to this task **/
+    private void openFile(Path file) throws IOException {
+        long size = Files.size(file);
+        long start = size * taskIndex / totalTasks;
+        long end = size * (taskIndex + 1) / totalTasks;
+        long resume = -1;
+        if (checkpointDir != null) {
+            currentRange = new Range(checkpointFile(file), start);
+            resume = currentRange.readCheckpoint();
+            ranges.add(currentRange);
+        }
+        LOG.info("Reading {} from {} to {}", file, Math.max(start, resume),
+                end);
+        currentReader = new MappedLineReader(file, start, end, resume);
+    }
+
+    private File checkpointFile(Path file) {
+        Path absolute = file.toAbsolutePath();
+        String name = absolute.getFileName() + "."
+                + Integer.toHexString(absolute.toString().hashCode()) + "."
+                + taskIndex + "-" + totalTasks + ".offset";
+        return new File(checkpointDir, name);
+    }
+
+    /** Saves the offsets of the ranges and forgets the completed ones **/
+    private void checkpoint() {
+        Iterator<Range> iter = ranges.iterator();
+        while (iter.hasNext()) {
+            Range range = iter.next();
+            try {
+                range.writeCheckpoint();
+            } catch (IOException e) {
+                LOG.error("Could not write checkpoint {}", range.checkpoint, e);
+                continue;
+            }
+            if (range != currentRange && range.pending.isEmpty()) {
+                iter.remove();
+            }
+        }
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
     @SuppressWarnings("rawtypes")
     @Override
     public void open(Map conf, TopologyContext context,
             SpoutOutputCollector collector) {
         _collector = collector;
+
+        taskIndex = context.getThisTaskIndex();
+        totalTasks = context.getComponentTasks(context.getThisComponentId())
+                .size();
+
+        String dir = ConfUtils.getString(conf, CHECKPOINT_DIR_PARAM);
+        if (dir != null) {
+            checkpointDir = new File(dir);
+            checkpointDir.mkdirs();
+            checkpointInterval = ConfUtils.getInt(conf,
+                    CHECKPOINT_INTERVAL_PARAM, 10) * 1000L;
+            lastCheckpoint = System.currentTimeMillis();
+        }
+
         try {
             populateBuffer();
         } catch (IOException e) {
@@ -194,6 +308,11 @@ public class FileSpout extends BaseRichSpout {
 
     @Override
     public void nextTuple() {
+        if (checkpointDir != null && System.currentTimeMillis()
+                - lastCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+
         if (!active)
             return;
 
@@ -212,12 +331,34 @@ public class FileSpout extends BaseRichSpout {
         byte[] head = buffer.removeFirst();
         List<Object> fields = this._scheme.deserialize(ByteBuffer.wrap(head));
 
+        Object msgId = fields.get(0).toString();
+        if (checkpointDir != null) {
+            Line line = lines.removeFirst();
+            line.url = msgId.toString();
+            msgId = line;
+        }
+
         if (withDiscoveredStatus) {
             fields.add(Status.DISCOVERED);
-            this._collector.emit(Constants.StatusStreamName, fields, fields
-                    .get(0).toString());
+            this._collector.emit(Constants.StatusStreamName, fields, msgId);
         } else {
-            this._collector.emit(fields, fields.get(0).toString());
+            this._collector.emit(fields, msgId);
+        }
+    }
+
+    @Override
+    public void ack(Object msgId) {
+        if (msgId instanceof Line) {
+            ((Line) msgId).done();
+        }
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        // the lines are not replayed
+        if (msgId instanceof Line) {
+            LOG.debug("Failed {}", msgId);
+            ((Line) msgId).done();
         }
     }
 
@@ -234,6 +375,16 @@ public class FileSpout extends BaseRichSpout {
 
     @Override
     public void close() {
+        if (checkpointDir != null) {
+            checkpoint();
+        }
+        if (currentReader != null) {
+            try {
+                currentReader.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close reader", e);
+            }
+        }
     }
 
     @Override
@@ -247,4 +398,84 @@ public class FileSpout extends BaseRichSpout {
         super.deactivate();
         active = false;
     }
+
+    /** Range of a file read by this task, with the lines not acked yet **/
+    private static class Range {
+
+        private final File checkpoint;
+
+        /** Offsets of the lines read but not acked **/
+        private final TreeSet<Long> pending = new TreeSet<>();
+
+        /** Offset up to which the range has been read **/
+        private long position;
+
+        private long lastSaved = -1;
+
+        Range(File checkpoint, long start) {
+            this.checkpoint = checkpoint;
+            this.position = start;
+        }
+
+        /** Offset before which all the lines have been acked **/
+        long offset() {
+            return pending.isEmpty() ? position : pending.first();
+        }
+
+        long readCheckpoint() throws IOException {
+            if (!checkpoint.exists()) {
+                return -1;
+            }
+            String value = new String(Files.readAllBytes(checkpoint.toPath()),
+                    StandardCharsets.UTF_8).trim();
+            try {
+                position = Math.max(position, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid checkpoint {}: {}", checkpoint, value);
+                return -1;
+            }
+            lastSaved = position;
+            return position;
+        }
+
+        void writeCheckpoint() throws IOException {
+            long offset = offset();
+            if (offset == lastSaved) {
+                return;
+            }
+            // write to a temporary file then replace the previous one
+            File tmp = new File(checkpoint.getParentFile(),
+                    checkpoint.getName() + ".tmp");
+            Files.write(tmp.toPath(), Long.toString(offset)
+                    .getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), checkpoint.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            lastSaved = offset;
+        }
+    }
+
+    /** Message ID of a line, used when checkpointing **/
+    private static class Line {
+
+        private final Range range;
+
+        private final long offset;
+
+        private String url;
+
+        Line(Range range, long offset) {
+            this.range = range;
+            this.offset = offset;
+        }
+
+        void done() {
+            range.pending.remove(offset);
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
 }
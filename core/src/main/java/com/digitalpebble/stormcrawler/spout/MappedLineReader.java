@@ -0,0 +1,169 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.spout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a range of bytes of a file, which is mapped in memory one
+ * window at a time. A line belongs to the range in which its first byte is,
+ * so that a file can be read in parallel from disjoint ranges without
+ * duplicates or omissions. The line terminators (\n or \r\n) are not returned.
+ * Not thread safe.
+ *
+ * @since 1.17
+ **/
+class MappedLineReader implements Closeable {
+
+    /** Size of the regions of the file mapped in memory **/
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final long fileSize;
+
+    private final long end;
+
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    /** Offset of the next line **/
+    private long position;
+
+    /** Offset of the last line returned **/
+    private long lineOffset = -1;
+
+    /**
+     * @param start
+     *            offset of the beginning of the range
+     * @param end
+     *            offset of the end of the range, exclusive
+     * @param resume
+     *            offset of a line within the range to start from, e.g. a
+     *            checkpoint, ignored if lower than the start of the range
+     **/
+    MappedLineReader(Path file, long start, long end, long resume)
+            throws IOException {
+        this(file, start, end, resume, WINDOW_SIZE);
+    }
+
+    MappedLineReader(Path file, long start, long end, long resume,
+            int windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.end = Math.min(end, fileSize);
+        this.windowSize = windowSize;
+        position = start;
+        // skip the line started in the previous range
+        if (start > 0 && start < this.end && byteAt(start - 1) != '\n') {
+            position = Math.min(indexOf((byte) '\n', start) + 1, fileSize);
+        }
+        if (resume > position) {
+            position = resume;
+        }
+    }
+
+    /**
+     * Returns the next line of the range or null if there are no more lines
+     **/
+    byte[] next() throws IOException {
+        if (position >= end) {
+            return null;
+        }
+        long newline = indexOf((byte) '\n', position);
+        long lineEnd = newline;
+        if (lineEnd > position && byteAt(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        byte[] line = read(position, lineEnd);
+        lineOffset = position;
+        position = Math.min(newline + 1, fileSize);
+        return line;
+    }
+
+    /** Offset of the last line returned by {@link #next()} **/
+    long lineOffset() {
+        return lineOffset;
+    }
+
+    /** Offset of the line returned by the next call to {@link #next()} **/
+    long position() {
+        return position;
+    }
+
+    private void map(long offset) throws IOException {
+        if (window != null && offset >= windowStart
+                && offset < windowStart + window.limit()) {
+            return;
+        }
+        long size = Math.min(windowSize, fileSize - offset);
+        window = channel.map(MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+    }
+
+    private byte byteAt(long offset) throws IOException {
+        map(offset);
+        return window.get((int) (offset - windowStart));
+    }
+
+    /** Offset of the next occurrence of b or the size of the file if none **/
+    private long indexOf(byte b, long from) throws IOException {
+        long offset = from;
+        while (offset < fileSize) {
+            map(offset);
+            int limit = window.limit();
+            for (int i = (int) (offset - windowStart); i < limit; i++) {
+                if (window.get(i) == b) {
+                    return windowStart + i;
+                }
+            }
+            offset = windowStart + limit;
+        }
+        return fileSize;
+    }
+
+    private byte[] read(long from, long to) throws IOException {
+        byte[] bytes = new byte[(int) (to - from)];
+        int copied = 0;
+        while (copied < bytes.length) {
+            long offset = from + copied;
+            map(offset);
+            int i = (int) (offset - windowStart);
+            int length = Math.min(bytes.length - copied, window.limit() - i);
+            window.position(i);
+            window.get(bytes, copied, length);
+            copied += length;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.spout;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.digitalpebble.stormcrawler.Metadata;
+
+/**
+ * In-memory URLs shared by the instances of the {@link MemorySpout} in a JVM.
+ * The URLs are split into a fixed number of shards by host, each spout task
+ * owning a subset of the shards.
+ * <p>
+ * Within a shard, the URLs are scheduled with a timing wheel of one second
+ * slots, those due beyond the span of the wheel waiting in a heap until they
+ * get within it. The URLs which are due are held in one queue per host and
+ * released in turn from each host.
+ *
+ * @since 1.17
+ **/
+class MemoryFrontier {
+
+    static final int NUM_SHARDS = 64;
+
+    private static final Shard[] shards = new Shard[NUM_SHARDS];
+
+    static {
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = new Shard(System.currentTimeMillis());
+        }
+    }
+
+    private MemoryFrontier() {
+    }
+
+    static final class ScheduledURL {
+        final String url;
+        final Metadata metadata;
+        final long nextFetch;
+        final String host;
+
+        ScheduledURL(String url, Metadata metadata, long nextFetch,
+                String host) {
+            this.url = url;
+            this.metadata = metadata;
+            this.nextFetch = nextFetch;
+            this.host = host;
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /** Index of the shard in charge of the host **/
+    static int shardIndex(String host) {
+        return Math.abs(host.hashCode() % NUM_SHARDS);
+    }
+
+    static void add(String url, Metadata metadata, long nextFetch) {
+        String host = host(url);
+        shards[shardIndex(host)].add(new ScheduledURL(url, metadata,
+                nextFetch, host));
+    }
+
+    static Shard shard(int index) {
+        return shards[index];
+    }
+
+    /** Not thread safe, access must be synchronized on the shard **/
+    static final class Shard {
+
+        private static final int WHEEL_SIZE = 1024;
+
+        /** URLs due within the span of the wheel, by second **/
+        private final ArrayDeque<ScheduledURL>[] wheel;
+
+        /** URLs due after the span of the wheel **/
+        private final PriorityQueue<ScheduledURL> overflow;
+
+        /** URLs ready for fetching by host, in the order of rotation **/
+        private final LinkedHashMap<String, ArrayDeque<ScheduledURL>> ready;
+
+        /** Second up to which the wheel has been moved to the ready queues **/
+        private long current;
+
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        Shard(long now) {
+            current = now / 1000;
+            wheel = new ArrayDeque[WHEEL_SIZE];
+            overflow = new PriorityQueue<>(
+                    (a, b) -> Long.compare(a.nextFetch, b.nextFetch));
+            ready = new LinkedHashMap<>();
+        }
+
+        synchronized void add(ScheduledURL u) {
+            size++;
+            long second = u.nextFetch / 1000;
+            if (second <= current) {
+                ready.computeIfAbsent(u.host, h -> new ArrayDeque<>()).add(u);
+            } else if (second - current < WHEEL_SIZE) {
+                int slot = (int) (second % WHEEL_SIZE);
+                if (wheel[slot] == null) {
+                    wheel[slot] = new ArrayDeque<>();
+                }
+                wheel[slot].add(u);
+            } else {
+                overflow.add(u);
+            }
+        }
+
+        /** Returns the next URL ready for fetching or null if none **/
+        synchronized ScheduledURL poll(long now) {
+            advance(now / 1000);
+            Iterator<Map.Entry<String, ArrayDeque<ScheduledURL>>> i = ready
+                    .entrySet().iterator();
+            if (!i.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, ArrayDeque<ScheduledURL>> first = i.next();
+            ArrayDeque<ScheduledURL> queue = first.getValue();
+            ScheduledURL u = queue.poll();
+            // send the host to the back of the rotation
+            i.remove();
+            if (!queue.isEmpty()) {
+                ready.put(first.getKey(), queue);
+            }
+            size--;
+            return u;
+        }
+
+        /** Moves the URLs due up to the given second to the ready queues **/
+        private void advance(long second) {
+            if (second <= current) {
+                return;
+            }
+            // no need to go around the wheel more than once
+            long from = Math.max(current + 1, second - WHEEL_SIZE + 1);
+            for (long s = from; s <= second; s++) {
+                ArrayDeque<ScheduledURL> slot = wheel[(int) (s % WHEEL_SIZE)];
+                if (slot == null) {
+                    continue;
+                }
+                // the slot contains URLs from a single second
+                for (ScheduledURL u : slot) {
+                    ready.computeIfAbsent(u.host, h -> new ArrayDeque<>())
+                            .add(u);
+                }
+                slot.clear();
+            }
+            current = second;
+            // bring the URLs from the overflow within the span of the wheel
+            while (!overflow.isEmpty()) {
+                ScheduledURL u = overflow.peek();
+                long s = u.nextFetch / 1000;
+                if (s - current >= WHEEL_SIZE) {
+                    break;
+                }
+                overflow.poll();
+                size--;
+                add(u);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+}
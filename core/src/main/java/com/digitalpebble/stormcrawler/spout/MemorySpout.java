@@ -19,13 +19,12 @@ package com.digitalpebble.stormcrawler.spout;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 
-import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -37,6 +36,8 @@ import org.slf4j.LoggerFactory;
 import com.digitalpebble.stormcrawler.Constants;
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.persistence.Status;
+import com.digitalpebble.stormcrawler.spout.MemoryFrontier.ScheduledURL;
+import com.digitalpebble.stormcrawler.spout.MemoryFrontier.Shard;
 import com.digitalpebble.stormcrawler.util.StringTabScheme;
 
 /**
@@ -45,6 +46,9 @@ import com.digitalpebble.stormcrawler.util.StringTabScheme;
  * Metadata, generates tuples on the default stream unless withDiscoveredStatus
  * is set to true. Can be used with the MemoryStatusUpdater to receive
  * discovered URLs and emulate a recursive crawl.
+ * <p>
+ * The URLs are partitioned by host between the instances of the spout, see
+ * {@link MemoryFrontier}. The seeds are added by the first instance only.
  */
 @SuppressWarnings("serial")
 public class MemorySpout extends BaseRichSpout {
@@ -58,10 +62,14 @@ public class MemorySpout extends BaseRichSpout {
 
     private boolean withDiscoveredStatus = false;
 
-    private static PriorityQueue<ScheduledURL> queue = new PriorityQueue<>();
-
     private String[] startingURLs;
 
+    /** Shards owned by this instance of the spout **/
+    private Shard[] shards;
+
+    /** Shard to poll first on the next call to nextTuple **/
+    private int nextShard = 0;
+
     public MemorySpout(String... urls) {
         this(false, urls);
     }
@@ -85,11 +93,18 @@ public class MemorySpout extends BaseRichSpout {
      * @param nextFetch
      **/
     public static void add(String url, Metadata md, Date nextFetch) {
+        add(url, md, nextFetch.getTime());
+    }
+
+    /**
+     * Add a new URL
+     * 
+     * @param nextFetch
+     *            in msec since the epoch
+     **/
+    public static void add(String url, Metadata md, long nextFetch) {
         LOG.debug("Adding {} with md {} and nextFetch {}", url, md, nextFetch);
-        ScheduledURL tuple = new ScheduledURL(url, md, nextFetch);
-        synchronized (queue) {
-            queue.add(tuple);
-        }
+        MemoryFrontier.add(url, md, nextFetch);
     }
 
     @Override
@@ -97,54 +112,67 @@ public class MemorySpout extends BaseRichSpout {
             TopologyContext context, SpoutOutputCollector collector) {
         _collector = collector;
 
-        // check that there is only one instance of it
         int totalTasks = context
                 .getComponentTasks(context.getThisComponentId()).size();
-        if (totalTasks > 1) {
-            throw new RuntimeException(
-                    "Can't have more than one instance of the MemorySpout");
+        int taskIndex = context.getThisTaskIndex();
+
+        if (totalTasks > MemoryFrontier.NUM_SHARDS) {
+            LOG.warn("Only {} instances out of {} will get URLs",
+                    MemoryFrontier.NUM_SHARDS, totalTasks);
         }
 
-        Date now = new Date();
-        for (String u : startingURLs) {
-            LOG.debug("About to deserialize {} ", u);
-            List<Object> tuple = scheme.deserialize(ByteBuffer.wrap(u
-                    .getBytes(StandardCharsets.UTF_8)));
-            add((String) tuple.get(0), (Metadata) tuple.get(1), now);
+        List<Shard> owned = new ArrayList<>();
+        for (int i = taskIndex; i < MemoryFrontier.NUM_SHARDS;
+                i += totalTasks) {
+            owned.add(MemoryFrontier.shard(i));
         }
-        context.registerMetric("queue_size", () -> queue.size(), 10);
+        shards = owned.toArray(new Shard[0]);
+
+        if (taskIndex == 0) {
+            long now = System.currentTimeMillis();
+            for (String u : startingURLs) {
+                LOG.debug("About to deserialize {} ", u);
+                List<Object> tuple = scheme.deserialize(ByteBuffer.wrap(u
+                        .getBytes(StandardCharsets.UTF_8)));
+                add((String) tuple.get(0), (Metadata) tuple.get(1), now);
+            }
+        }
+
+        context.registerMetric("queue_size", () -> {
+            int size = 0;
+            for (Shard shard : shards) {
+                size += shard.size();
+            }
+            return size;
+        }, 10);
     }
 
     @Override
     public void nextTuple() {
-        if (!active)
+        if (!active || shards.length == 0)
             return;
 
-        synchronized (queue) {
-            // removes the URL
-            ScheduledURL tuple = queue.poll();
-            if (tuple == null)
-                return;
+        long now = System.currentTimeMillis();
 
-            // check whether it is due for fetching
-            if (tuple.nextFetchDate.after(new Date())) {
-                LOG.debug("Tuple {} not ready for fetching", tuple.URL);
+        // take turns between the shards
+        ScheduledURL tuple = null;
+        for (int i = 0; i < shards.length && tuple == null; i++) {
+            tuple = shards[nextShard].poll(now);
+            nextShard = (nextShard + 1) % shards.length;
+        }
 
-                // put it back and wait
-                queue.add(tuple);
-                return;
-            }
+        if (tuple == null)
+            return;
 
-            List<Object> tobs = new LinkedList<>();
-            tobs.add(tuple.URL);
-            tobs.add(tuple.m);
+        List<Object> tobs = new LinkedList<>();
+        tobs.add(tuple.url);
+        tobs.add(tuple.metadata);
 
-            if (withDiscoveredStatus) {
-                tobs.add(Status.DISCOVERED);
-                _collector.emit(Constants.StatusStreamName, tobs, tuple.URL);
-            } else {
-                _collector.emit(tobs, tuple.URL);
-            }
+        if (withDiscoveredStatus) {
+            tobs.add(Status.DISCOVERED);
+            _collector.emit(Constants.StatusStreamName, tobs, tuple.url);
+        } else {
+            _collector.emit(tobs, tuple.url);
         }
     }
 
@@ -172,36 +200,3 @@ public class MemorySpout extends BaseRichSpout {
     }
 
 }
-
-class ScheduledURL implements Comparable<ScheduledURL> {
-    Date nextFetchDate;
-    String URL;
-    Metadata m;
-
-    ScheduledURL(String URL, Metadata m, Date nextFetchDate) {
-        this.nextFetchDate = nextFetchDate;
-        this.URL = URL;
-        this.m = m;
-    }
-
-    @Override
-    public String toString() {
-        return URL + "\t" + nextFetchDate;
-    }
-
-    @Override
-    /** Sort by next fetch date then URl **/
-    public int compareTo(ScheduledURL o) {
-        // compare the URL
-        int compString = URL.compareTo(o.URL);
-        if (compString == 0)
-            return 0;
-
-        // compare the date
-        int comp = nextFetchDate.compareTo(o.nextFetchDate);
-        if (comp != 0)
-            return comp;
-
-        return compString;
-    }
-}
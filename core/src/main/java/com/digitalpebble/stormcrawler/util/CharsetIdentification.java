@@ -1,7 +1,5 @@
 package com.digitalpebble.stormcrawler.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
@@ -10,13 +8,6 @@ import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.ByteOrderMark;
-import org.apache.commons.io.input.BOMInputStream;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
-
 import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.protocol.HttpHeaders;
 import com.ibm.icu.text.CharsetDetector;
@@ -86,14 +77,20 @@ public class CharsetIdentification {
      * Detects any BOMs and returns the corresponding charset
      */
     private static String getCharsetFromBOM(final byte[] byteData) {
-        try (BOMInputStream bomIn = new BOMInputStream(
-                new ByteArrayInputStream(byteData))) {
-            ByteOrderMark bom = bomIn.getBOM();
-            if (bom != null) {
-                return bom.getCharsetName();
+        if (byteData.length >= 3 && (byteData[0] & 0xFF) == 0xEF
+                && (byteData[1] & 0xFF) == 0xBB
+                && (byteData[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8.name();
+        }
+        if (byteData.length >= 2) {
+            int first = byteData[0] & 0xFF;
+            int second = byteData[1] & 0xFF;
+            if (first == 0xFE && second == 0xFF) {
+                return StandardCharsets.UTF_16BE.name();
+            }
+            if (first == 0xFF && second == 0xFE) {
+                return StandardCharsets.UTF_16LE.name();
             }
-        } catch (IOException e) {
-            return null;
         }
         return null;
     }
@@ -130,41 +127,157 @@ public class CharsetIdentification {
 
     /**
      * Attempt to find a META tag in the HTML that hints at the character set
-     * used to write the document.
+     * used to write the document. The bytes are scanned directly, which works
+     * for any charset where ASCII characters are single bytes.
      */
-    private static String getCharsetFromMeta(byte buffer[], int maxlength) {
-        // convert to UTF-8 String -- which hopefully will not mess up the
-        // characters we're interested in...
+    static String getCharsetFromMeta(byte buffer[], int maxlength) {
         int len = buffer.length;
         if (maxlength > 0 && maxlength < len) {
             len = maxlength;
         }
-        String html = new String(buffer, 0, len, DEFAULT_CHARSET);
+        int pos = 0;
+        while (pos < len) {
+            int lt = indexOf(buffer, (byte) '<', pos, len);
+            if (lt == -1) {
+                return null;
+            }
+            if (startsWith(buffer, lt + 1, len, "!--")) {
+                int end = indexOf(buffer, (byte) '-', lt + 4, len);
+                while (end != -1 && !startsWith(buffer, end, len, "-->")) {
+                    end = indexOf(buffer, (byte) '-', end + 1, len);
+                }
+                pos = end == -1 ? len : end + 3;
+            } else if (startsWith(buffer, lt + 1, len, "meta")
+                    && lt + 5 < len && isSpaceOrSlash(buffer[lt + 5])) {
+                MetaTag meta = new MetaTag();
+                pos = meta.parse(buffer, lt + 5, len);
+                String foundCharset = null;
+                // look for <meta http-equiv="Content-Type"
+                // content="text/html;charset=gb2312"> or HTML5 <meta
+                // charset="gb2312">
+                if (meta.httpEquiv != null
+                        && meta.httpEquiv.trim().equalsIgnoreCase(
+                                "content-type")) {
+                    foundCharset = getCharsetFromContentType(meta.content);
+                }
+                if (foundCharset == null) {
+                    foundCharset = meta.charset;
+                }
+                if (foundCharset != null) {
+                    return foundCharset;
+                }
+            } else {
+                pos = lt + 1;
+            }
+        }
+        return null;
+    }
 
-        String foundCharset = null;
+    /** Attributes of a meta tag relevant to the charset **/
+    private static class MetaTag {
+        private String httpEquiv;
+        private String content;
+        private String charset;
 
-        try {
-            Document doc = Parser.htmlParser().parseInput(html, "dummy");
-
-            // look for <meta http-equiv="Content-Type"
-            // content="text/html;charset=gb2312"> or HTML5 <meta
-            // charset="gb2312">
-            Elements metaElements = doc
-                    .select("meta[http-equiv=content-type], meta[charset]");
-            for (Element meta : metaElements) {
-                if (meta.hasAttr("http-equiv"))
-                    foundCharset = getCharsetFromContentType(meta
-                            .attr("content"));
-                if (foundCharset == null && meta.hasAttr("charset"))
-                    foundCharset = meta.attr("charset");
-                if (foundCharset != null)
-                    return foundCharset;
+        /** Reads the attributes, returns the position after the tag **/
+        private int parse(byte[] buffer, int pos, int len) {
+            while (pos < len) {
+                byte b = buffer[pos];
+                if (b == '>') {
+                    return pos + 1;
+                }
+                if (isSpaceOrSlash(b)) {
+                    pos++;
+                    continue;
+                }
+                int nameStart = pos;
+                while (pos < len && buffer[pos] != '=' && buffer[pos] != '>'
+                        && !isSpaceOrSlash(buffer[pos])) {
+                    pos++;
+                }
+                int nameEnd = pos;
+                while (pos < len && isSpace(buffer[pos])) {
+                    pos++;
+                }
+                String value = "";
+                if (pos < len && buffer[pos] == '=') {
+                    pos++;
+                    while (pos < len && isSpace(buffer[pos])) {
+                        pos++;
+                    }
+                    int valueStart = pos;
+                    if (pos < len
+                            && (buffer[pos] == '"' || buffer[pos] == '\'')) {
+                        int close = indexOf(buffer, buffer[pos], pos + 1, len);
+                        if (close == -1) {
+                            return len;
+                        }
+                        valueStart = pos + 1;
+                        pos = close + 1;
+                        value = ascii(buffer, valueStart, close);
+                    } else {
+                        while (pos < len && buffer[pos] != '>'
+                                && !isSpace(buffer[pos])) {
+                            pos++;
+                        }
+                        value = ascii(buffer, valueStart, pos);
+                    }
+                }
+                // the first occurrence of an attribute wins
+                int nameLength = nameEnd - nameStart;
+                if (nameLength == 10 && httpEquiv == null
+                        && startsWith(buffer, nameStart, len, "http-equiv")) {
+                    httpEquiv = value;
+                } else if (nameLength == 7 && content == null
+                        && startsWith(buffer, nameStart, len, "content")) {
+                    content = value;
+                } else if (nameLength == 7 && charset == null
+                        && startsWith(buffer, nameStart, len, "charset")) {
+                    charset = value;
+                }
+            }
+            return len;
+        }
+    }
+
+    private static String ascii(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start,
+                StandardCharsets.ISO_8859_1);
+    }
+
+    private static int indexOf(byte[] buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Case insensitive match of a lowercase ASCII string **/
+    private static boolean startsWith(byte[] buffer, int pos, int len,
+            String s) {
+        if (pos + s.length() > len) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int b = buffer[pos + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != s.charAt(i)) {
+                return false;
             }
-        } catch (Exception e) {
-            foundCharset = null;
         }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\f' || b == '\r';
+    }
 
-        return foundCharset;
+    private static boolean isSpaceOrSlash(byte b) {
+        return b == '/' || isSpace(b);
     }
 
     /**
@@ -0,0 +1,84 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+/**
+ * Count-min sketch with conservative updates: estimates the counts of an
+ * unbounded number of keys in a fixed amount of memory. The estimates are
+ * never lower than the actual counts and exceed them by at most
+ * e * total / width with a probability of 1 - exp(-depth). Not thread safe.
+ *
+ * @since 1.17
+ **/
+public class CountMinSketch {
+
+    private final int[][] counters;
+
+    private final int mask;
+
+    /**
+     * @param width
+     *            number of counters per row, rounded up to a power of 2
+     * @param depth
+     *            number of rows
+     **/
+    public CountMinSketch(int width, int depth) {
+        int w = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+        counters = new int[depth][w];
+        mask = w - 1;
+    }
+
+    private int index(long hash, int row) {
+        // double hashing, the two halves of the hash as the base and step
+        int h = (int) hash + row * (int) (hash >>> 32);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** Returns the estimated count of a key **/
+    public int estimate(String key) {
+        long hash = URLFingerprint.fingerprint64(key);
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < counters.length; row++) {
+            min = Math.min(min, counters[row][index(hash, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * Increments the count of a key by one and returns its new estimate. Only
+     * the counters at the minimum are incremented, which reduces the
+     * overestimation.
+     **/
+    public int increment(String key) {
+        long hash = URLFingerprint.fingerprint64(key);
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < counters.length; row++) {
+            min = Math.min(min, counters[row][index(hash, row)]);
+        }
+        if (min == Integer.MAX_VALUE) {
+            return min;
+        }
+        for (int row = 0; row < counters.length; row++) {
+            int i = index(hash, row);
+            if (counters[row][i] == min) {
+                counters[row][i]++;
+            }
+        }
+        return min + 1;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.storm.metric.api.IMetric;
+
+/**
+ * Number of invocations, rejections and latency of each filter in a chain
+ * such as the URLFilters or ParseFilters. The latencies are kept in a
+ * histogram with 4 buckets per power of 2 of nanoseconds, the percentiles
+ * being accurate within 25%. The values are reported as
+ * <code>name.count</code>, <code>name.rejected</code>,
+ * <code>name.time_usec</code> for the total time then
+ * <code>name.p50_usec</code>, <code>name.p99_usec</code> for the percentiles.
+ * Thread safe.
+ *
+ * @since 1.17
+ **/
+public class FilterMetrics implements IMetric {
+
+    private static final int BUCKETS = 248;
+
+    private final String[] names;
+
+    private final Stats[] stats;
+
+    private final Stats[] cumulated;
+
+    private final boolean rejections;
+
+    private static class Stats {
+        long count;
+        long rejected;
+        long nanos;
+        final long[] histogram = new long[BUCKETS];
+
+        void add(long elapsed, boolean reject) {
+            count++;
+            nanos += elapsed;
+            if (reject) {
+                rejected++;
+            }
+            histogram[bucket(elapsed)]++;
+        }
+
+        void clear() {
+            count = 0;
+            rejected = 0;
+            nanos = 0;
+            Arrays.fill(histogram, 0);
+        }
+
+        /** Returns the upper bound of the percentile in nanoseconds **/
+        long percentile(double p) {
+            long rank = (long) Math.ceil(count * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @param filters
+     *            the filters of the chain, named after their class
+     * @param rejections
+     *            whether the filters can reject their input and these should
+     *            be reported
+     **/
+    public FilterMetrics(Object[] filters, boolean rejections) {
+        this.rejections = rejections;
+        names = new String[filters.length];
+        stats = new Stats[filters.length];
+        cumulated = new Stats[filters.length];
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < filters.length; i++) {
+            String name = filters[i].getClass().getSimpleName();
+            // several instances of the same class
+            for (int j = 1; !used.add(name); j++) {
+                name = filters[i].getClass().getSimpleName() + "." + j;
+            }
+            names[i] = name;
+            stats[i] = new Stats();
+            cumulated[i] = new Stats();
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < 4) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exp - 2)) & 3;
+        return (exp - 1) * 4 + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exp = bucket / 4 + 1;
+        int sub = bucket % 4;
+        return ((5L + sub) << (exp - 2)) - 1;
+    }
+
+    /**
+     * Records an invocation of the filter at the given position in the chain
+     **/
+    public void record(int filter, long nanos, boolean rejected) {
+        synchronized (stats) {
+            stats[filter].add(nanos, rejected);
+            cumulated[filter].add(nanos, rejected);
+        }
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        synchronized (stats) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                Stats s = stats[i];
+                if (s.count == 0) {
+                    continue;
+                }
+                values.put(names[i] + ".count", s.count);
+                if (rejections) {
+                    values.put(names[i] + ".rejected", s.rejected);
+                }
+                values.put(names[i] + ".time_usec", s.nanos / 1000);
+                values.put(names[i] + ".p50_usec", s.percentile(0.5) / 1000d);
+                values.put(names[i] + ".p99_usec", s.percentile(0.99) / 1000d);
+                s.clear();
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Returns a table of the values recorded since the creation of the object,
+     * one line per filter
+     **/
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %10s %10s %12s %10s %10s %10s%n",
+                "filter", "count", "rejected", "total msec", "mean usec",
+                "p50 usec", "p99 usec"));
+        synchronized (stats) {
+            for (int i = 0; i < names.length; i++) {
+                Stats s = cumulated[i];
+                double mean = s.count == 0 ? 0 : s.nanos / 1000d / s.count;
+                sb.append(String.format(
+                        "%-40s %10d %10s %12.3f %10.3f %10.3f %10.3f%n",
+                        names[i], s.count, rejections ? s.rejected : "-",
+                        s.nanos / 1000000d, mean, s.percentile(0.5) / 1000d,
+                        s.percentile(0.99) / 1000d));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs based on open addressing with linear probing, used
+ * for storing URL fingerprints without the cost of boxing. Not thread safe.
+ *
+ * @since 1.17
+ **/
+public class LongHashSet {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** 0 marks the empty slots, its presence is tracked separately **/
+    private long[] slots;
+
+    private boolean containsZero = false;
+
+    private int size = 0;
+
+    private int threshold;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(
+                (int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        slots = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(long key) {
+        int mask = slots.length - 1;
+        int i = mix(key) & mask;
+        while (slots[i] != 0 && slots[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return containsZero;
+        }
+        return slots[indexOf(key)] == key;
+    }
+
+    /** @return true if the key was not already in the set **/
+    public boolean add(long key) {
+        if (key == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int i = indexOf(key);
+        if (slots[i] == key) {
+            return false;
+        }
+        slots[i] = key;
+        if (++size > threshold) {
+            rehash(slots.length << 1);
+        }
+        return true;
+    }
+
+    /** @return true if the key was in the set **/
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int mask = slots.length - 1;
+        int i = indexOf(key);
+        if (slots[i] != key) {
+            return false;
+        }
+        // shift back the following entries of the cluster
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = slots[j];
+            if (k == 0) {
+                break;
+            }
+            int home = mix(k) & mask;
+            // can k move to the gap without going past its home slot?
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                slots[gap] = k;
+                gap = j;
+            }
+        }
+        slots[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        containsZero = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        allocate(capacity);
+        for (long k : old) {
+            if (k != 0) {
+                slots[indexOf(k)] = k;
+            }
+        }
+    }
+}
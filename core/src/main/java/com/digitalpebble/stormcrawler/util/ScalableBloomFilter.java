@@ -0,0 +1,170 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+
+/**
+ * Bloom filter which grows as elements are added to it. When the current
+ * filter reaches its expected number of insertions, a new one is added with
+ * twice the capacity and half the false positive probability, so that the
+ * overall false positive probability stays under twice the initial one. Can
+ * be saved to and loaded from a file.
+ *
+ * @since 1.17
+ **/
+public class ScalableBloomFilter {
+
+    private static final Funnel<CharSequence> FUNNEL = Funnels
+            .stringFunnel(StandardCharsets.UTF_8);
+
+    private final List<Slice> slices = new CopyOnWriteArrayList<>();
+
+    private final long initialCapacity;
+
+    private final double initialFpp;
+
+    private static class Slice {
+        final long capacity;
+        final double fpp;
+        final BloomFilter<CharSequence> filter;
+
+        Slice(long capacity, double fpp, BloomFilter<CharSequence> filter) {
+            this.capacity = capacity;
+            this.fpp = fpp;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * @param expectedInsertions
+     *            number of elements expected in the first filter
+     * @param fpp
+     *            false positive probability of the first filter
+     **/
+    public ScalableBloomFilter(long expectedInsertions, double fpp) {
+        this.initialCapacity = expectedInsertions;
+        this.initialFpp = fpp;
+        addSlice(expectedInsertions, fpp);
+    }
+
+    private void addSlice(long capacity, double fpp) {
+        slices.add(new Slice(capacity, fpp,
+                BloomFilter.create(FUNNEL, capacity, fpp)));
+    }
+
+    public boolean mightContain(String element) {
+        for (Slice s : slices) {
+            if (s.filter.mightContain(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void put(String element) {
+        Slice current = slices.get(slices.size() - 1);
+        if (current.filter.approximateElementCount() >= current.capacity) {
+            synchronized (slices) {
+                current = slices.get(slices.size() - 1);
+                if (current.filter.approximateElementCount() >= current.capacity) {
+                    addSlice(current.capacity * 2, current.fpp / 2);
+                    current = slices.get(slices.size() - 1);
+                }
+            }
+        }
+        current.filter.put(element);
+    }
+
+    /** Approximate number of distinct elements added to the filter **/
+    public long approximateElementCount() {
+        long total = 0;
+        for (Slice s : slices) {
+            total += s.filter.approximateElementCount();
+        }
+        return total;
+    }
+
+    /** Number of underlying Bloom filters **/
+    public int numFilters() {
+        return slices.size();
+    }
+
+    /**
+     * Writes the content of the filter to a temporary file which is then
+     * moved to the target file.
+     **/
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            Slice[] snapshot = slices.toArray(new Slice[0]);
+            out.writeInt(snapshot.length);
+            for (Slice s : snapshot) {
+                out.writeLong(s.capacity);
+                out.writeDouble(s.fpp);
+                s.filter.writeTo(out);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the content of the filter with the one stored in a file. Must
+     * be called before the filter is used.
+     **/
+    public void load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int num = in.readInt();
+            List<Slice> loaded = new ArrayList<>(num);
+            for (int i = 0; i < num; i++) {
+                long capacity = in.readLong();
+                double fpp = in.readDouble();
+                loaded.add(new Slice(capacity, fpp, BloomFilter.readFrom(in,
+                        FUNNEL)));
+            }
+            synchronized (slices) {
+                slices.clear();
+                slices.addAll(loaded);
+                if (slices.isEmpty()) {
+                    addSlice(initialCapacity, initialFpp);
+                }
+            }
+        }
+    }
+}
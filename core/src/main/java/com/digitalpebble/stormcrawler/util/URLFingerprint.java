@@ -0,0 +1,93 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compact representation of a URL as a 128 bits non-cryptographic hash
+ * (Murmur3), meant to be used instead of the URL strings as keys of the
+ * structures used for deduplication. Uses 32 bytes of memory regardless of the
+ * length of the URL.
+ *
+ * @since 1.17
+ **/
+public final class URLFingerprint {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long high;
+    private final long low;
+
+    private URLFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /** Returns the 128 bits fingerprint of a URL **/
+    public static URLFingerprint of(String url) {
+        byte[] bytes = HASH.hashString(url, StandardCharsets.UTF_8).asBytes();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(
+                ByteOrder.LITTLE_ENDIAN);
+        return new URLFingerprint(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Returns a 64 bits fingerprint of a URL, for structures where a collision
+     * is acceptable e.g. a URL not being added to a buffer.
+     **/
+    public static long fingerprint64(String url) {
+        return HASH.hashString(url, StandardCharsets.UTF_8).asLong();
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof URLFingerprint)) {
+            return false;
+        }
+        URLFingerprint other = (URLFingerprint) obj;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // the bits are already well distributed
+        return (int) high;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
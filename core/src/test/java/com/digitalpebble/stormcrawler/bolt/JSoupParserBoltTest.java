@@ -262,4 +262,26 @@ public class JSoupParserBoltTest extends ParsingTester {
         Assert.assertEquals(10, statusTuples.size());
     }
 
+    @Test
+    public void testExecuteWithOutlinksBatch() throws IOException {
+        stormConf.put("parser.emitOutlinks.batch", true);
+        bolt.prepare(stormConf, TestUtil.getMockedTopologyContext(),
+                new OutputCollector(output));
+
+        parse("http://www.digitalpebble.com", "digitalpebble.com.html");
+
+        // nothing sent individually
+        Assert.assertEquals(0,
+                output.getEmitted(Constants.StatusStreamName).size());
+
+        List<List<Object>> batches = output
+                .getEmitted(Constants.OutlinksStreamName);
+        Assert.assertEquals(1, batches.size());
+
+        List<Object> batch = batches.get(0);
+        Assert.assertEquals("http://www.digitalpebble.com", batch.get(0));
+        Assert.assertEquals(10, ((List<?>) batch.get(2)).size());
+        Assert.assertEquals(10, ((List<?>) batch.get(3)).size());
+    }
+
 }
@@ -357,6 +357,83 @@ public class BasicURLNormalizerTest {
                 normalizedUrl);
     }
 
+    @Test
+    public void testDotSegmentsAndEscaping() throws MalformedURLException {
+        URLFilter urlFilter = createFilter(true, true);
+        URL testSourceUrl = new URL("http://www.example.com/");
+
+        String inputURL = "http://www.Example.com/a/./b/../c//d/%7euser/%2fx?q=a%20b#frag";
+        String expectedURL = "http://www.example.com/a/c/d/~user/%2Fx?q=a%20b";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+
+        inputURL = "http://www.example.com/a/b/..";
+        expectedURL = "http://www.example.com/a/";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+
+        // dot segments above the root are kept, as URI.normalize() does
+        inputURL = "http://www.example.com/../a/./";
+        expectedURL = "http://www.example.com/../a/";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+
+        inputURL = "https://www.example.com/café/[1]|2";
+        expectedURL = "https://www.example.com/caf%C3%A9/%5B1%5D%7C2";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+
+        // unchanged
+        inputURL = "https://www.example.com/search?q=storm+crawler&page=2";
+        assertEquals(inputURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+
+        // rejected
+        inputURL = "http://www.example.com/a%zz";
+        assertEquals(null,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+    }
+
+    @Test
+    public void testSortedQueryElements() throws MalformedURLException {
+        URLFilter urlFilter = createFilter(queryParamsToFilter);
+        URL testSourceUrl = new URL("http://www.example.com/");
+
+        // the elements with the same name keep their order
+        String inputURL = "http://www.example.com/p?z=1&foo=bar&b=2&a=3&b=1";
+        String expectedURL = "http://www.example.com/p?b=2&b=1&z=1";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+
+        inputURL = "http://www.example.com/p?q=a%20b#frag";
+        expectedURL = "http://www.example.com/p?q=a+b";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+    }
+
+    @Test
+    public void testUnreservedCharactersInQuery() throws MalformedURLException {
+        URLFilter urlFilter = createFilter(Arrays.asList("utm"));
+        URL testSourceUrl = new URL("http://www.example.com/");
+
+        // the tilde is re-encoded with the query elements then unescaped
+        String inputURL = "http://a.com/x?k=a%7Eb&utm=1";
+        String expectedURL = "http://a.com/x?k=a~b";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+    }
+
+    @Test
+    public void testWhitespaceBeforeAnchor() throws MalformedURLException {
+        URLFilter urlFilter = createFilter(queryParamsToFilter);
+        URL testSourceUrl = new URL("http://www.example.com/");
+
+        String inputURL = "http://Ex.com/x #top";
+        String expectedURL = "http://ex.com/x";
+        assertEquals(expectedURL,
+                urlFilter.filter(testSourceUrl, new Metadata(), inputURL));
+    }
+
     private JsonNode getArrayNode(List<String> queryElementsToRemove) {
         ObjectMapper mapper = new ObjectMapper();
         return mapper.valueToTree(queryElementsToRemove);
@@ -0,0 +1,117 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.filtering.regex;
+
+import static com.digitalpebble.stormcrawler.filtering.regex.MultiPatternMatcher.requiredLiteral;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class MultiPatternMatcherTest {
+
+    private static final String[] REGEXES = { "^(file|ftp|mailto):",
+            "(?i)\\.(gif|jpg)(\\?|&|$)", "\\.jpg", "/digitalpebble/",
+            "/wp-admin/", "sessionid=", "\\?replytocom=\\d+", "^https?://a\\.",
+            "/(tag|category)/", "calendar", "/print/?$", "[?&]page=\\d{3,}",
+            "/cgi-bin/", "\\.pdf$", "utm_source", "/feed/?$", "ab?cd",
+            "x{0}yz", "(?:/\\d+){4}", "\\Q.php?\\E", "/search\\b", ".+" };
+
+    private static final String[] URLS = { "ftp://example.com/",
+            "http://example.com/a.GIF?x=1", "http://example.com/a.jpg.html",
+            "https://stormcrawler.net/digitalpebble/index.html",
+            "https://example.com/wp-admin/edit.php?post=1",
+            "http://example.com/?sessionid=12", "http://a.example.com/",
+            "http://example.com/p?replytocom=123",
+            "http://example.com/tag/java", "http://example.com/calendar/2020",
+            "http://example.com/article/print", "http://example.com/?page=1234",
+            "http://example.com/?page=12", "http://example.com/doc.pdf",
+            "http://example.com/doc.pdf?dl=1", "http://example.com/?utm_source=x",
+            "http://example.com/acd", "http://example.com/abcd",
+            "http://example.com/yz", "http://example.com/1/2/3/4",
+            "http://example.com/index.php?id=1",
+            "http://example.com/searching", "http://example.com/search?q=1",
+            "" };
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals(".jpg", requiredLiteral("\\.jpg"));
+        assertEquals(".pdf", requiredLiteral("\\.pdf$"));
+        assertEquals("/digitalpebble/", requiredLiteral("/digitalpebble/"));
+        assertEquals("://a.", requiredLiteral("^https?://a\\."));
+        assertEquals("?replytocom=", requiredLiteral("\\?replytocom=\\d+"));
+        assertEquals("/print", requiredLiteral("/print/?$"));
+        assertEquals("page=", requiredLiteral("[?&]page=\\d{3,}"));
+        assertEquals("cd", requiredLiteral("ab?cd"));
+        assertEquals("yz", requiredLiteral("x{0}yz"));
+        assertEquals("/search", requiredLiteral("/search\\b"));
+        assertEquals("ab", requiredLiteral("ab+"));
+        assertEquals("1", requiredLiteral("\\x41\\u00421"));
+        assertNull(requiredLiteral("(?i)\\.(gif|jpg)(\\?|&|$)"));
+        assertEquals(":", requiredLiteral("^(file|ftp|mailto):"));
+        assertNull(requiredLiteral("foo|bar"));
+        assertNull(requiredLiteral(".+"));
+        assertNull(requiredLiteral("(?:/\\d+){4}"));
+        assertNull(requiredLiteral("\\Q.php?\\E"));
+        assertNull(requiredLiteral("[a-z]*"));
+    }
+
+    @Test
+    public void testSameAsSequential() {
+        Pattern[] patterns = new Pattern[REGEXES.length];
+        boolean[] whole = new boolean[REGEXES.length];
+        for (int i = 0; i < REGEXES.length; i++) {
+            patterns[i] = Pattern.compile(REGEXES[i]);
+            whole[i] = i % 3 != 0;
+        }
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns, whole);
+        for (String url : URLS) {
+            int query = url.indexOf('?');
+            String path = query == -1 ? url : url.substring(0, query);
+            int expected = -1;
+            for (int i = 0; i < patterns.length && expected == -1; i++) {
+                String haystack = whole[i] ? url : path;
+                if (patterns[i].matcher(haystack).find()) {
+                    expected = i;
+                }
+            }
+            assertEquals(url, expected,
+                    matcher.firstMatch(url, path.length()));
+        }
+    }
+
+    @Test
+    public void testFirstMatch() {
+        // skips the last pattern which matches anything
+        String[] regexes = new String[REGEXES.length - 1];
+        System.arraycopy(REGEXES, 0, regexes, 0, regexes.length);
+        Pattern[] patterns = new Pattern[regexes.length];
+        for (int i = 0; i < regexes.length; i++) {
+            patterns[i] = Pattern.compile(regexes[i]);
+        }
+        MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+        assertEquals(1, matcher.firstMatch("http://example.com/a.jpg"));
+        assertEquals(2, matcher.firstMatch("http://example.com/a.jpg.html"));
+        assertEquals(3, matcher.firstMatch("http://example.com/digitalpebble/"
+                + "wp-admin/"));
+        assertEquals(16, matcher.firstMatch("http://example.com/xabcd"));
+        assertEquals(-1, matcher.firstMatch("http://example.com/"));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.parse.filter.DebugParseFilter;
+import com.digitalpebble.stormcrawler.parse.filter.MimeTypeNormalization;
+import com.digitalpebble.stormcrawler.parse.filter.XPathFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ParseFiltersTest {
+
+    @Test
+    public void testGroup() throws IOException {
+        XPathFilter xpath = new XPathFilter();
+        xpath.configure(new HashMap<>(),
+                new ObjectMapper().readTree("{\"title\": \"//TITLE\"}"));
+
+        ParseFilter[][] stages = ParseFilters.group(new ParseFilter[] {
+                new MimeTypeNormalization(), xpath,
+                new MimeTypeNormalization(), new DebugParseFilter() });
+
+        // the second MimeTypeNormalization writes the same key as the first
+        // one and the DebugParseFilter does not declare what it reads
+        assertEquals(3, stages.length);
+        assertEquals(2, stages[0].length);
+        assertEquals(1, stages[1].length);
+        assertEquals(1, stages[2].length);
+    }
+
+    @Test
+    public void testSameAsSequential() throws IOException {
+        String url = "https://digitalpebble.com/";
+        byte[] content = IOUtils.toByteArray(getClass().getClassLoader()
+                .getResourceAsStream("digitalpebble.com.html"));
+        Document jsoupDoc = Jsoup.parse(
+                new String(content, StandardCharsets.UTF_8), url);
+
+        Map<String, Object> conf = new HashMap<>();
+        ParseFilters sequential = new ParseFilters(conf,
+                "test.parsefilters.json");
+        conf.put(ParseFilters.PARALLELISM_PARAM_NAME, 2);
+        conf.put(ParseFilters.PARALLEL_MIN_SIZE_PARAM_NAME, 0);
+        ParseFilters parallel = new ParseFilters(conf,
+                "test.parsefilters.json");
+
+        ParseResult expected = new ParseResult();
+        expected.get(url).setText("some text");
+        sequential.filter(url, content, jsoupDoc, null, expected);
+
+        ParseResult parse = new ParseResult();
+        parse.get(url).setText("some text");
+        parallel.filter(url, content, jsoupDoc, null, parse);
+
+        Metadata expectedMD = expected.get(url).getMetadata();
+        Metadata metadata = parse.get(url).getMetadata();
+        assertEquals(expectedMD.keySet(), metadata.keySet());
+        for (String key : expectedMD.keySet()) {
+            assertArrayEquals(expectedMD.getValues(key),
+                    metadata.getValues(key));
+        }
+        assertEquals("some text", parse.get(url).getText());
+    }
+}
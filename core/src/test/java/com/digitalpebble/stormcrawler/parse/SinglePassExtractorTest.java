@@ -0,0 +1,102 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.storm.Config;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.select.Elements;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.parse.SinglePassExtractor.Link;
+
+public class SinglePassExtractorTest {
+
+    /** Checks that the results are the same as with separate selections **/
+    private static void compare(String content, Config conf) {
+        Document jsoupDoc = Parser.htmlParser().parseInput(content,
+                "http://www.digitalpebble.com/");
+        TextExtractor textExtractor = new TextExtractor(conf);
+        SinglePassExtractor extractor = new SinglePassExtractor(
+                textExtractor);
+        extractor.extract(jsoupDoc);
+
+        Element robots = jsoupDoc
+                .selectFirst("meta[name~=(?i)robots][content]");
+        assertEquals(robots == null ? null : robots.attr("content"),
+                extractor.getRobotsContent());
+
+        Element refresh = jsoupDoc
+                .selectFirst("meta[http-equiv~=(?i)refresh][content]");
+        assertEquals(refresh == null ? null : refresh.attr("content"),
+                extractor.getRefreshContent());
+
+        Elements links = jsoupDoc.select("a[href]");
+        assertEquals(links.size(), extractor.getLinks().size());
+        for (int i = 0; i < links.size(); i++) {
+            Link link = extractor.getLinks().get(i);
+            assertEquals(links.get(i).attr("abs:href"), link.getURL());
+            assertEquals(links.get(i).text(), link.getAnchor());
+        }
+
+        assertEquals(textExtractor.text(jsoupDoc.body()),
+                extractor.getText());
+    }
+
+    @Test
+    public void testSameAsSelections() throws IOException {
+        String content = IOUtils.toString(getClass().getClassLoader()
+                .getResourceAsStream("digitalpebble.com.html"),
+                StandardCharsets.UTF_8);
+        compare(content, new Config());
+
+        Config conf = new Config();
+        conf.put(TextExtractor.EXCLUDE_PARAM_NAME, "SCRIPT");
+        compare(content, conf);
+    }
+
+    @Test
+    public void testNestedElements() throws IOException {
+        String content = "<html><head><META NAME=ROBOTS CONTENT=NONE>"
+                + "<meta http-equiv=Refresh content='0;URL=/next'></head>"
+                + "<body>a<div>b</div>c<a href='/x'>one<div>two</div>three"
+                + "<br>four</a><p>x<a href=y rel=nofollow> y </a></p></body>"
+                + "</html>";
+        compare(content, new Config());
+    }
+
+    @Test
+    public void testDeeplyNestedPre() {
+        String content = "<html><body>x  y<pre><div><div><div><div><div>"
+                + "<div><div><span>a   b</span></div></div></div></div></div>"
+                + "</div></div>  c</pre><p>d   e</p></body></html>";
+        compare(content, new Config());
+        SinglePassExtractor extractor = new SinglePassExtractor(
+                new TextExtractor(new Config()));
+        extractor.extract(Parser.htmlParser().parseInput(content,
+                "http://www.digitalpebble.com/"));
+        assertEquals("x y a   b   c d e", extractor.getText());
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.storm.Config;
+import org.jsoup.parser.Parser;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.parse.SinglePassExtractor.Link;
+
+public class StreamingExtractorTest {
+
+    /** Checks that the results are the same as with a JSoup document **/
+    private static void compare(String content, Config conf) {
+        String url = "http://www.digitalpebble.com/";
+        TextExtractor textExtractor = new TextExtractor(conf);
+        SinglePassExtractor expected = new SinglePassExtractor(textExtractor);
+        expected.extract(Parser.htmlParser().parseInput(content, url));
+        StreamingExtractor extractor = new StreamingExtractor(textExtractor);
+        extractor.extract(content, url);
+
+        assertEquals(expected.getRobotsContent(),
+                extractor.getRobotsContent());
+        assertEquals(expected.getRefreshContent(),
+                extractor.getRefreshContent());
+        assertEquals(expected.getLinks().size(), extractor.getLinks().size());
+        for (int i = 0; i < expected.getLinks().size(); i++) {
+            Link link = extractor.getLinks().get(i);
+            assertEquals(expected.getLinks().get(i).getURL(), link.getURL());
+            assertEquals(expected.getLinks().get(i).isNoFollow(),
+                    link.isNoFollow());
+            assertEquals(expected.getLinks().get(i).getAnchor(),
+                    link.getAnchor());
+        }
+        assertEquals(expected.getText(), extractor.getText());
+    }
+
+    @Test
+    public void testSameAsDocument() throws IOException {
+        String content = IOUtils.toString(getClass().getClassLoader()
+                .getResourceAsStream("digitalpebble.com.html"),
+                StandardCharsets.UTF_8);
+        compare(content, new Config());
+
+        Config conf = new Config();
+        conf.put(TextExtractor.EXCLUDE_PARAM_NAME, "SCRIPT");
+        compare(content, conf);
+    }
+
+    @Test
+    public void testMarkup() {
+        Config conf = new Config();
+        compare("<html><head><META NAME=ROBOTS CONTENT=NONE>"
+                + "<meta http-equiv=Refresh content='0;URL=/next'></head>"
+                + "<body>a<div>b</div>c<a href='/x'>one<div>two</div>three"
+                + "<br>four</a><p>x<a href=y rel=nofollow> y </a></p>"
+                + "<!-- <a href=comment>no</a> --></body></html>", conf);
+        compare("<title>T &amp; t</title><base href='http://other.com/d/'>"
+                + "text &eacute;t&eacute; <a href='a?b=1&amp;c=2'>q</a>"
+                + "<pre>  keep   spaces </pre><textarea> a <b> </textarea>"
+                + "<script>var a = '<a href=\"x\">';</script>", conf);
+        // the last '/' belongs to the value, not a self-closing tag
+        compare("<p><a href=/foo/>text</a> after<br/><a href='/x'/>y</a>"
+                + "<a href=\"/z\" />z</a><span / >s</span></p>", conf);
+        // whitespace is preserved however deep the pre element is
+        compare("<body>x  y<pre><div><div><div><div><div><div><div><span>"
+                + "a   b <a href=l>c   d</a></span></div></div></div></div>"
+                + "</div></div></div>  e</pre><p>f   g</p></body>", conf);
+    }
+
+    @Test
+    public void testSlashInUnquotedValue() {
+        StreamingExtractor extractor = new StreamingExtractor(
+                new TextExtractor(new Config()));
+        extractor.extract("<p><a href=/foo/>text</a> after</p>",
+                "http://www.digitalpebble.com/");
+        assertEquals(1, extractor.getLinks().size());
+        assertEquals("http://www.digitalpebble.com/foo/", extractor
+                .getLinks().get(0).getURL());
+        assertEquals("text", extractor.getLinks().get(0).getAnchor());
+        assertEquals("text after", extractor.getText());
+    }
+
+    @Test(timeout = 5000)
+    public void testLargePageWithoutEntities() {
+        // each text run used to be followed by a search for the next '&'
+        // until the end of the page
+        StringBuilder content = new StringBuilder("<p>a &amp; b</p>");
+        StringBuilder expected = new StringBuilder("a & b");
+        for (int i = 0; i < 400000; i++) {
+            content.append("<b>x</b>");
+            expected.append('x');
+        }
+        StreamingExtractor extractor = new StreamingExtractor(
+                new TextExtractor(new Config()));
+        extractor.extract(content.toString(), "http://www.digitalpebble.com/");
+        assertEquals(expected.toString(), extractor.getText());
+    }
+}
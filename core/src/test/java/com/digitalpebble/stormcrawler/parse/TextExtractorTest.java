@@ -76,4 +76,56 @@ public class TextExtractorTest {
         assertEquals("the content of the page", text);
     }
 
+    @Test
+    public void testNestedExclusion() throws IOException {
+        Config conf = new Config();
+        conf.put(TextExtractor.EXCLUDE_PARAM_NAME, "DIV");
+
+        TextExtractor extractor = new TextExtractor(conf);
+
+        String content = "<html>the<div>main<div>nested</div>menu</div>content of the page</html>";
+
+        Document jsoupDoc = Parser.htmlParser().parseInput(content,
+                "http://stormcrawler.net");
+        String text = extractor.text(jsoupDoc.body());
+
+        assertEquals("the content of the page", text);
+    }
+
+    @Test
+    public void testPreserveWhitespace() throws IOException {
+        TextExtractor extractor = new TextExtractor(new Config());
+
+        String content = "<html><p>some   text</p><pre><b>pre\n  formatted</b></pre></html>";
+
+        Document jsoupDoc = Parser.htmlParser().parseInput(content,
+                "http://stormcrawler.net");
+        String text = extractor.text(jsoupDoc.body());
+
+        assertEquals("some text pre\n  formatted", text);
+    }
+
+    @Test
+    public void testMaxLength() throws IOException {
+        Config conf = new Config();
+        conf.put(TextExtractor.MAX_LENGTH_PARAM_NAME, 12);
+
+        TextExtractor extractor = new TextExtractor(conf);
+
+        String content = "<html><p>the content</p><p>of the page</p></html>";
+
+        Document jsoupDoc = Parser.htmlParser().parseInput(content,
+                "http://stormcrawler.net");
+
+        assertEquals("the content", extractor.text(jsoupDoc.body()));
+
+        SinglePassExtractor singlePass = new SinglePassExtractor(extractor);
+        singlePass.extract(jsoupDoc);
+        assertEquals("the content", singlePass.getText());
+
+        StreamingExtractor streaming = new StreamingExtractor(extractor);
+        streaming.extract(content, "http://stormcrawler.net");
+        assertEquals("the content", streaming.getText());
+    }
+
 }
@@ -0,0 +1,91 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse.filter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.jsoup.nodes.Document;
+import org.jsoup.parser.Parser;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.NodeList;
+
+import com.digitalpebble.stormcrawler.parse.DocumentFragmentBuilder;
+
+public class JSoupXPathTest {
+
+    private static final String[] EXPRESSIONS = { "//SPAN[@class=\"concept\"]",
+            "//*[@class=\"concept\"]", "//SCRIPT[@type='text/javascript']",
+            "//META[@name=\"keywords\"]/@content", "//TITLE", "//span",
+            "/HTML/BODY//A", "//A/@href", "//DIV//A[1]", "//DIV/A[2]",
+            "//LI[1]/A", "//*[@id]", "//DIV[contains(@class,'n')]",
+            "//A[starts-with(@href,'http')]/text()",
+            "HTML/HEAD/META/@content", "//DIV//DIV", "//@class",
+            "//DIV//@id", "//P/text()", "//A[@href!='#']", "//UL/LI[2]",
+            "//*[1]", "//BODY/*", "//DIV[@class][1]",
+            // the attribute names are in lowercase
+            "//META[@NAME=\"keywords\"]/@content", "//META/@CONTENT",
+            "//*[@ID]", "//A[contains(@HREF,'http')]" };
+
+    @Test
+    public void testSameAsDOM() throws IOException, XPathExpressionException {
+        String content = IOUtils.toString(getClass().getClassLoader()
+                .getResourceAsStream("digitalpebble.com.html"),
+                StandardCharsets.UTF_8);
+        Document jsoupDoc = Parser.htmlParser().parseInput(content,
+                "http://www.digitalpebble.com/");
+        DocumentFragment fragment = DocumentFragmentBuilder
+                .fromJsoup(jsoupDoc);
+        XPath xpath = XPathFactory.newInstance().newXPath();
+
+        for (String expression : EXPRESSIONS) {
+            JSoupXPath compiled = JSoupXPath.compile(expression);
+            Assert.assertNotNull(expression, compiled);
+            NodeList nodes = (NodeList) xpath.compile(expression).evaluate(
+                    fragment, XPathConstants.NODESET);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                expected.add(nodes.item(i).getTextContent());
+            }
+            Assert.assertEquals(expression, expected,
+                    compiled.evaluate(jsoupDoc));
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        Assert.assertNull(JSoupXPath.compile("count(//A)"));
+        Assert.assertNull(JSoupXPath.compile("//A | //B"));
+        Assert.assertNull(JSoupXPath.compile("//A[last()]"));
+        Assert.assertNull(JSoupXPath.compile("//A/.."));
+        Assert.assertNull(JSoupXPath.compile("//@href/text()"));
+        Assert.assertNull(JSoupXPath.compile("//A/@abs:href"));
+        Assert.assertNull(JSoupXPath.compile("//*[@xml:lang='en']"));
+        Assert.assertNull(JSoupXPath.compile("//svg:svg"));
+    }
+}
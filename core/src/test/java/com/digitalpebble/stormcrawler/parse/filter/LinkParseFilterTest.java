@@ -0,0 +1,70 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse.filter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.stormcrawler.parse.DocumentFragmentBuilder;
+import com.digitalpebble.stormcrawler.parse.Outlink;
+import com.digitalpebble.stormcrawler.parse.ParseFilters;
+import com.digitalpebble.stormcrawler.parse.ParseResult;
+
+public class LinkParseFilterTest {
+
+    private static final String URL = "http://www.example.com/page.html";
+
+    private static final String HTML = "<html><body><p>text</p>"
+            + "<img src=\"/images/a.png\"><video><source src=\"movie.mp4\">"
+            + "</video></body></html>";
+
+    @Test
+    public void testWithJSoupDocument() throws IOException {
+        ParseFilters filters = new ParseFilters(new HashMap<>(),
+                "test.linkparsefilter.json");
+        Assert.assertTrue(filters.needsDOMWithJSoup());
+
+        byte[] content = HTML.getBytes(StandardCharsets.UTF_8);
+        Document jsoupDoc = Jsoup.parse(HTML, URL);
+        DocumentFragment fragment = DocumentFragmentBuilder
+                .fromJsoup(jsoupDoc);
+
+        ParseResult parse = new ParseResult();
+        parse.get(URL);
+        filters.filter(URL, content, jsoupDoc, fragment, parse);
+
+        // the links are added as outlinks, not as metadata
+        Set<String> targets = new HashSet<>();
+        for (Outlink outlink : parse.getOutlinks()) {
+            targets.add(outlink.getTargetURL());
+        }
+        Assert.assertEquals(2, targets.size());
+        Assert.assertTrue(targets.contains("http://www.example.com/images/a.png"));
+        Assert.assertTrue(targets.contains("http://www.example.com/movie.mp4"));
+        Assert.assertNull(parse.get(URL).getMetadata().getFirstValue("pattern"));
+    }
+}
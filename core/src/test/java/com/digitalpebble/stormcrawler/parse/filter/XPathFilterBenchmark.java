@@ -0,0 +1,110 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.parse.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.digitalpebble.stormcrawler.parse.DocumentFragmentBuilder;
+import com.digitalpebble.stormcrawler.parse.ParseResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures the cost of applying the expressions of the XPathFilter from
+ * test.parsefilters.json to a page, evaluated directly on the JSoup document
+ * or on the DocumentFragment built from it. Not run as part of the tests, use
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.digitalpebble.stormcrawler.parse.filter.XPathFilterBenchmark
+ * </pre>
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class XPathFilterBenchmark {
+
+    private static final String URL = "https://digitalpebble.com/";
+
+    private XPathFilter filter;
+
+    private byte[] content;
+
+    private Document jsoupDoc;
+
+    @Setup
+    public void setup() throws IOException {
+        ClassLoader loader = getClass().getClassLoader();
+        try (InputStream stream = loader
+                .getResourceAsStream("test.parsefilters.json")) {
+            JsonNode filters = new ObjectMapper().readTree(stream)
+                    .get("com.digitalpebble.stormcrawler.parse.ParseFilters");
+            filter = new XPathFilter();
+            filter.configure(new HashMap<>(), filters.get(0).get("params"));
+        }
+        try (InputStream stream = loader
+                .getResourceAsStream("digitalpebble.com.html")) {
+            content = IOUtils.toByteArray(stream);
+        }
+        jsoupDoc = Jsoup.parse(new String(content, "UTF-8"), URL);
+    }
+
+    @Benchmark
+    public ParseResult jsoup() {
+        ParseResult parse = new ParseResult();
+        filter.filter(URL, content, jsoupDoc, null, parse);
+        return parse;
+    }
+
+    @Benchmark
+    public ParseResult dom() {
+        ParseResult parse = new ParseResult();
+        filter.filter(URL, content,
+                DocumentFragmentBuilder.fromJsoup(jsoupDoc), parse);
+        return parse;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(XPathFilterBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
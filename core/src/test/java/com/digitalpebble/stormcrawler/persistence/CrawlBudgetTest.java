@@ -0,0 +1,68 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+
+public class CrawlBudgetTest {
+
+    @Test
+    public void testExactCounts() {
+        CrawlBudget budget = new CrawlBudget(3, -1, 1000, 1024);
+        String key = budget.getKey("http://a.net/test.html", new Metadata());
+        Assert.assertEquals("a.net", key);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(budget.isDiscoveredOverBudget(key));
+            budget.discovered(key);
+        }
+        Assert.assertTrue(budget.isDiscoveredOverBudget(key));
+        Assert.assertEquals(3, budget.getDiscovered(key));
+        Assert.assertFalse(budget.isDiscoveredOverBudget("b.net"));
+        // no limit on the fetched URLs
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(budget.tryFetched(key));
+        }
+        Assert.assertFalse(budget.isFetchedOverBudget(key));
+    }
+
+    @Test
+    public void testEstimatedCounts() {
+        // only the first 10 hosts have exact counts
+        CrawlBudget budget = new CrawlBudget(-1, 5, 10, 4096);
+        for (int host = 0; host < 1000; host++) {
+            for (int i = 0; i < 5; i++) {
+                budget.tryFetched("host" + host + ".net");
+            }
+        }
+        int over = 0;
+        for (int host = 0; host < 1000; host++) {
+            String key = "host" + host + ".net";
+            // never under the actual count
+            Assert.assertTrue(budget.getFetched(key) >= 5);
+            if (!budget.tryFetched(key)) {
+                over++;
+            }
+        }
+        Assert.assertEquals(1000, over);
+        // a new host is very unlikely to be blocked
+        Assert.assertTrue(budget.tryFetched("new.net"));
+    }
+}
@@ -73,6 +73,35 @@ public class DefaultSchedulerTest {
                 DateUtils.round(nextFetch, Calendar.SECOND));
     }
 
+    @Test
+    public void testSpecificStatusFirst() throws MalformedURLException {
+        Map<String, Object> stormConf = new HashMap<>();
+        stormConf.put("fetchInterval.testKey=someValue", 3600);
+        stormConf.put("fetchInterval.FETCHED.testKey=someValue", 360);
+        stormConf.put("fetchInterval.FETCH_ERROR.testKey=otherValue", 60);
+        DefaultScheduler scheduler = new DefaultScheduler();
+        scheduler.init(stormConf);
+
+        Metadata metadata = new Metadata();
+        metadata.addValue("testKey", "someValue");
+        Assert.assertEquals(360,
+                scheduler.checkCustomInterval(metadata, Status.FETCHED).get()
+                        .intValue());
+        Assert.assertEquals(3600,
+                scheduler.checkCustomInterval(metadata, Status.ERROR).get()
+                        .intValue());
+
+        // no default for that value
+        metadata.setValue("testKey", "otherValue");
+        Assert.assertFalse(scheduler.checkCustomInterval(metadata,
+                Status.FETCHED).isPresent());
+        Date nextFetch = scheduler.schedule(Status.FETCH_ERROR, metadata);
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.MINUTE, 60);
+        Assert.assertEquals(DateUtils.round(cal.getTime(), Calendar.SECOND),
+                DateUtils.round(nextFetch, Calendar.SECOND));
+    }
+
     @Test
     public void testBadConfig() throws MalformedURLException {
         Map<String, Object> stormConf = new HashMap<>();
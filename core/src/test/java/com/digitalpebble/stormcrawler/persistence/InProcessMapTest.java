@@ -0,0 +1,91 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InProcessMapTest {
+
+    private final AtomicLong time = new AtomicLong(0);
+
+    @Test
+    public void testPurgatory() {
+        InProcessMap<String, Object> map = new InProcessMap<>(30,
+                TimeUnit.SECONDS, time::get);
+
+        map.put("http://www.example.com/", "value");
+        Assert.assertTrue(map.containsKey("http://www.example.com/"));
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals(0, map.inCache());
+
+        Assert.assertEquals("value", map.remove("http://www.example.com/"));
+        Assert.assertEquals(0, map.size());
+        Assert.assertEquals(1, map.inCache());
+        // still there while in purgatory
+        Assert.assertTrue(map.containsKey("http://www.example.com/"));
+
+        time.addAndGet(29000);
+        Assert.assertTrue(map.containsKey("http://www.example.com/"));
+
+        time.addAndGet(2000);
+        Assert.assertFalse(map.containsKey("http://www.example.com/"));
+        Assert.assertEquals(0, map.inCache());
+    }
+
+    @Test
+    public void testNoPurgatory() {
+        InProcessMap<String, Object> map = new InProcessMap<>(0,
+                TimeUnit.SECONDS, time::get);
+        map.put("http://www.example.com/", null);
+        Assert.assertTrue(map.containsKey("http://www.example.com/"));
+        map.remove("http://www.example.com/");
+        Assert.assertFalse(map.containsKey("http://www.example.com/"));
+        Assert.assertEquals(0, map.inCache());
+    }
+
+    @Test
+    public void testManyEntries() {
+        InProcessMap<String, Object> map = new InProcessMap<>(10,
+                TimeUnit.SECONDS, time::get);
+        for (int i = 0; i < 10000; i++) {
+            map.put("http://www.example.com/" + i, null);
+        }
+        Assert.assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i += 2) {
+            map.remove("http://www.example.com/" + i);
+            time.addAndGet(1);
+        }
+        Assert.assertEquals(5000, map.size());
+        Assert.assertEquals(5000, map.inCache());
+
+        // put back in process while in purgatory
+        map.put("http://www.example.com/0", null);
+        Assert.assertEquals(5001, map.size());
+
+        time.addAndGet(60000);
+        Assert.assertEquals(0, map.inCache());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(i % 2 == 1 || i == 0,
+                    map.containsKey("http://www.example.com/" + i));
+        }
+    }
+}
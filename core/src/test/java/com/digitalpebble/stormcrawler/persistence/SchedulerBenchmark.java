@@ -0,0 +1,106 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.digitalpebble.stormcrawler.Metadata;
+
+/**
+ * Measures the cost of scheduling a URL with the DefaultScheduler configured
+ * with a few custom intervals, for metadata matching one of them or none. Not
+ * run as part of the tests, use
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.digitalpebble.stormcrawler.persistence.SchedulerBenchmark
+ * </pre>
+ * 
+ * and add <code>-prof gc</code> to the options to check the allocations.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SchedulerBenchmark {
+
+    private DefaultScheduler scheduler;
+
+    private Metadata matching;
+
+    private Metadata notMatching;
+
+    @Setup
+    public void setup() {
+        Map<String, Object> stormConf = new HashMap<>();
+        stormConf.put("fetchInterval.isFeed=true", 360);
+        stormConf.put("fetchInterval.FETCH_ERROR.isFeed=true", 60);
+        stormConf.put("fetchInterval.isSitemap=true", 720);
+        stormConf.put("fetchInterval.FETCHED.depth=0", 60);
+        stormConf.put("fetchInterval.ERROR.depth=0", -1);
+        scheduler = new DefaultScheduler();
+        scheduler.init(stormConf);
+
+        // typical metadata of a fetched page
+        notMatching = new Metadata();
+        notMatching.setValue("url.path", "http://www.example.com/");
+        notMatching.setValue("depth", "2");
+        notMatching.setValue("fetch.statusCode", "200");
+        notMatching.setValue("signature", "d41d8cd98f00b204e9800998ecf8427e");
+        notMatching.setValue("lastProcessedDate", "2020-04-01T10:00:00Z");
+
+        matching = new Metadata();
+        matching.putAll(notMatching);
+        matching.setValue("isFeed", "true");
+    }
+
+    @Benchmark
+    public Date scheduleDefault() {
+        return scheduler.schedule(Status.FETCHED, notMatching);
+    }
+
+    @Benchmark
+    public Date scheduleCustom() {
+        return scheduler.schedule(Status.FETCH_ERROR, matching);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SchedulerBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
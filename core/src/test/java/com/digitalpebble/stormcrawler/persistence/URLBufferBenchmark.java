@@ -0,0 +1,115 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.storm.tuple.Values;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.persistence.urlbuffer.URLBuffer;
+
+/**
+ * Compares the URLBuffer implementations with one thread filling the buffer,
+ * like the callbacks of the asynchronous queries of a spout, and another one
+ * draining it, like nextTuple(). Not run as part of the tests, use
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.digitalpebble.stormcrawler.persistence.URLBufferBenchmark
+ * </pre>
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class URLBufferBenchmark {
+
+    /** Keeps the buffer to a realistic size if the producer is faster **/
+    private static final int MAX_SIZE = 50000;
+
+    @State(Scope.Group)
+    public static class BufferState {
+
+        @Param({ "SimpleURLBuffer", "ConcurrentURLBuffer" })
+        public String implementation;
+
+        URLBuffer buffer;
+
+        @Setup
+        public void setup() throws Exception {
+            buffer = (URLBuffer) Class.forName(
+                    "com.digitalpebble.stormcrawler.persistence.urlbuffer."
+                            + implementation).newInstance();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final Metadata metadata = new Metadata();
+        long counter = 0;
+
+        String nextURL() {
+            long c = counter++;
+            return "http://host" + (c % 100) + ".com/page" + c + ".html";
+        }
+    }
+
+    @Benchmark
+    @Group("fillAndDrain")
+    @GroupThreads(1)
+    public boolean add(BufferState state, Producer producer) {
+        if (state.buffer.size() >= MAX_SIZE) {
+            return false;
+        }
+        return state.buffer.add(producer.nextURL(), producer.metadata);
+    }
+
+    @Benchmark
+    @Group("fillAndDrain")
+    @GroupThreads(1)
+    public Values next(BufferState state) {
+        if (!state.buffer.hasNext()) {
+            return null;
+        }
+        return state.buffer.next();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(URLBufferBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
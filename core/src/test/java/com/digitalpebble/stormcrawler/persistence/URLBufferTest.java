@@ -18,12 +18,18 @@
 package com.digitalpebble.stormcrawler.persistence;
 
 import java.net.MalformedURLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.persistence.urlbuffer.ConcurrentURLBuffer;
 import com.digitalpebble.stormcrawler.persistence.urlbuffer.PriorityURLBuffer;
+import com.digitalpebble.stormcrawler.persistence.urlbuffer.SchedulingURLBuffer;
+import com.digitalpebble.stormcrawler.persistence.urlbuffer.ScoredURLBuffer;
 import com.digitalpebble.stormcrawler.persistence.urlbuffer.SimpleURLBuffer;
 import com.digitalpebble.stormcrawler.persistence.urlbuffer.URLBuffer;
 
@@ -49,6 +55,136 @@ public class URLBufferTest {
         Assert.assertFalse(buffer.hasNext());
     }
 
+    private static Metadata scored(double score) {
+        Metadata md = new Metadata();
+        md.setValue("score", Double.toString(score));
+        return md;
+    }
+
+    @Test
+    public void testScoredURLBuffer() throws MalformedURLException {
+        URLBuffer buffer = new ScoredURLBuffer();
+        buffer.add("http://a.net/low.html", scored(0.1));
+        buffer.add("http://a.net/high.html", scored(0.9));
+        buffer.add("http://a.net/none.html", new Metadata());
+        buffer.add("http://b.net/test.html", scored(0.5));
+        buffer.add("http://c.net/test.html", scored(0.2));
+        // raises the best score of c.net
+        buffer.add("http://c.net/test2.html", scored(0.7));
+
+        // one URL per queue and per round, the best ones first
+        Assert.assertEquals("http://a.net/high.html", buffer.next().get(0));
+        Assert.assertEquals("http://c.net/test2.html", buffer.next().get(0));
+        Assert.assertEquals("http://b.net/test.html", buffer.next().get(0));
+        // second round
+        Assert.assertEquals("http://c.net/test.html", buffer.next().get(0));
+        Assert.assertEquals("http://a.net/low.html", buffer.next().get(0));
+        Assert.assertEquals("http://a.net/none.html", buffer.next().get(0));
+        Assert.assertFalse(buffer.hasNext());
+    }
+
+    @Test
+    public void testConcurrentURLBuffer() throws MalformedURLException {
+        URLBuffer buffer = new ConcurrentURLBuffer();
+        AtomicInteger emptied = new AtomicInteger();
+        buffer.setEmptyQueueListener(q -> emptied.incrementAndGet());
+        Assert.assertFalse(buffer.hasNext());
+        buffer.add("http://a.net/test.html", new Metadata());
+        buffer.add("http://a.net/test2.html", new Metadata());
+        buffer.add("http://b.net/test.html", new Metadata());
+        buffer.add("http://c.net/test.html", new Metadata());
+        Assert.assertEquals(4, buffer.size());
+        Assert.assertEquals(3, buffer.numQueues());
+        Assert.assertEquals("http://a.net/test.html", buffer.next().get(0));
+        Assert.assertEquals("http://b.net/test.html", buffer.next().get(0));
+        // should return false if already there
+        boolean added = buffer.add("http://c.net/test.html", new Metadata());
+        Assert.assertFalse(added);
+        added = buffer.add("http://d.net/test.html", new Metadata());
+        Assert.assertTrue(added);
+        Assert.assertEquals("http://c.net/test.html", buffer.next().get(0));
+        Assert.assertEquals("http://a.net/test2.html", buffer.next().get(0));
+        Assert.assertEquals("http://d.net/test.html", buffer.next().get(0));
+        Assert.assertFalse(buffer.hasNext());
+        Assert.assertNull(buffer.next());
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertEquals(4, emptied.get());
+        // can be added again once out of the buffer
+        Assert.assertTrue(buffer.add("http://a.net/test.html", new Metadata()));
+    }
+
+    @Test
+    public void testConcurrentURLBufferThreads() throws Exception {
+        URLBuffer buffer = new ConcurrentURLBuffer();
+        final int producers = 4;
+        final int perProducer = 5000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    buffer.add("http://host" + (i % 50) + ".net/" + id + "/"
+                            + i, new Metadata());
+                }
+            });
+            threads[p].start();
+        }
+
+        // drain while the producers are running
+        Set<Object> seen = new HashSet<>();
+        while (seen.size() < producers * perProducer) {
+            if (buffer.hasNext()) {
+                Assert.assertTrue(seen.add(buffer.next().get(0)));
+            } else {
+                Thread.yield();
+            }
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertFalse(buffer.hasNext());
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertEquals(0, buffer.numQueues());
+    }
+
+    @Test
+    public void testSchedulingURLBuffer() throws InterruptedException {
+        URLBuffer buffer = new SchedulingURLBuffer();
+        Assert.assertFalse(buffer.hasNext());
+        for (int i = 0; i < 7; i++) {
+            buffer.add("http://a.net/test" + i + ".html", new Metadata());
+        }
+        buffer.add("http://b.net/test.html", new Metadata());
+
+        // no history yet: rotates on the queues
+        Assert.assertEquals("http://a.net/test0.html", buffer.next().get(0));
+        Assert.assertEquals("http://b.net/test.html", buffer.next().get(0));
+        Assert.assertEquals(1, buffer.numQueues());
+
+        Assert.assertEquals("http://a.net/test1.html", buffer.next().get(0));
+        Assert.assertEquals("http://a.net/test2.html", buffer.next().get(0));
+        Assert.assertEquals("http://a.net/test3.html", buffer.next().get(0));
+
+        // builds a history of slow URLs for a.net
+        Thread.sleep(200);
+        for (int i = 0; i < 4; i++) {
+            buffer.acked("http://a.net/test" + i + ".html");
+        }
+
+        // not enough history yet
+        Assert.assertEquals("http://a.net/test4.html", buffer.next().get(0));
+        buffer.acked("http://a.net/test4.html");
+
+        // the queue has to wait for the average time to release again
+        Assert.assertFalse(buffer.hasNext());
+        Assert.assertNull(buffer.next());
+        Assert.assertEquals(2, buffer.size());
+
+        Thread.sleep(300);
+        Assert.assertTrue(buffer.hasNext());
+        Assert.assertEquals("http://a.net/test5.html", buffer.next().get(0));
+    }
+
     @Test
     public void testPriorityBuffer()
             throws MalformedURLException, InterruptedException {
@@ -81,4 +217,30 @@ public class URLBufferTest {
 
         Assert.assertFalse(buffer.hasNext());
     }
+
+    @Test
+    public void testPriorityBufferRounds() throws MalformedURLException {
+        URLBuffer buffer = new PriorityURLBuffer();
+        buffer.add("http://a.net/test.html", new Metadata());
+        buffer.add("http://a.net/test2.html", new Metadata());
+        buffer.add("http://b.net/test.html", new Metadata());
+        buffer.add("http://b.net/test2.html", new Metadata());
+        buffer.add("http://c.net/test.html", new Metadata());
+
+        // no acks yet: same order as added
+        Assert.assertEquals("http://a.net/test.html", buffer.next().get(0));
+
+        // the new priority applies straight away
+        buffer.acked("http://c.net/test.html");
+        Assert.assertEquals("http://c.net/test.html", buffer.next().get(0));
+        Assert.assertEquals("http://b.net/test.html", buffer.next().get(0));
+
+        // a queue which has been served waits for the next round
+        buffer.acked("http://a.net/test.html");
+        buffer.acked("http://a.net/test.html");
+        buffer.acked("http://b.net/test.html");
+        Assert.assertEquals("http://a.net/test2.html", buffer.next().get(0));
+        Assert.assertEquals("http://b.net/test2.html", buffer.next().get(0));
+        Assert.assertFalse(buffer.hasNext());
+    }
 }
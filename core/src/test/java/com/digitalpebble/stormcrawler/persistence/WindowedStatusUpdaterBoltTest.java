@@ -0,0 +1,209 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.storm.Constants;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.tuple.Tuple;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.TestOutputCollector;
+import com.digitalpebble.stormcrawler.TestUtil;
+
+public class WindowedStatusUpdaterBoltTest {
+
+    /** Keeps the windows instead of storing them **/
+    @SuppressWarnings("serial")
+    private static class WindowRecorder extends WindowedStatusUpdaterBolt {
+
+        private final List<List<StatusUpdate>> windows = new ArrayList<>();
+
+        private boolean failing = false;
+
+        @Override
+        protected void store(List<StatusUpdate> updates) throws Exception {
+            if (failing) {
+                throw new Exception("Storage unavailable");
+            }
+            windows.add(updates);
+        }
+    }
+
+    private WindowRecorder bolt;
+
+    private TestOutputCollector output;
+
+    private Map<String, Object> config;
+
+    @Before
+    public void setUp() {
+        bolt = new WindowRecorder();
+        output = new TestOutputCollector();
+        config = new HashMap<>();
+        config.put("scheduler.class",
+                "com.digitalpebble.stormcrawler.persistence.DefaultScheduler");
+        config.put(AbstractStatusUpdaterBolt.useCacheParamName, false);
+    }
+
+    @After
+    public void tearDown() {
+        bolt.cleanup();
+    }
+
+    private void prepare() {
+        bolt.prepare(config, TestUtil.getMockedTopologyContext(),
+                new OutputCollector(output));
+    }
+
+    private Tuple update(String url, Status status) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("url", url);
+        values.put("status", status);
+        values.put("metadata", new Metadata());
+        Tuple tuple = TestUtil.getMockedTestTuple(values);
+        bolt.execute(tuple);
+        return tuple;
+    }
+
+    private void tick() {
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.getSourceComponent()).thenReturn(
+                Constants.SYSTEM_COMPONENT_ID);
+        when(tuple.getSourceStreamId()).thenReturn(
+                Constants.SYSTEM_TICK_STREAM_ID);
+        bolt.execute(tuple);
+    }
+
+    @Test
+    public void testCollapsing() {
+        config.put(WindowedStatusUpdaterBolt.maxCountParamName, 3);
+        prepare();
+
+        Tuple fetched = update("http://a.net/", Status.FETCHED);
+        Tuple discovered = update("http://a.net/", Status.DISCOVERED);
+        Tuple error = update("http://b.net/", Status.FETCH_ERROR);
+        Tuple redirection = update("http://b.net/", Status.REDIRECTION);
+        Assert.assertTrue(bolt.windows.isEmpty());
+        Tuple newURL = update("http://c.net/", Status.DISCOVERED);
+
+        // full with 3 URLs
+        Assert.assertEquals(1, bolt.windows.size());
+        List<WindowedStatusUpdaterBolt.StatusUpdate> window = bolt.windows
+                .get(0);
+        Assert.assertEquals(3, window.size());
+        // a DISCOVERED status does not replace another one
+        Assert.assertEquals("http://a.net/", window.get(0).getURL());
+        Assert.assertEquals(Status.FETCHED, window.get(0).getStatus());
+        // the latest status otherwise
+        Assert.assertEquals("http://b.net/", window.get(1).getURL());
+        Assert.assertEquals(Status.REDIRECTION, window.get(1).getStatus());
+        Assert.assertEquals("http://c.net/", window.get(2).getURL());
+
+        // all the tuples of the window are acked
+        List<Tuple> acked = output.getAckedTuples();
+        Assert.assertEquals(5, acked.size());
+        Assert.assertTrue(acked.contains(fetched));
+        Assert.assertTrue(acked.contains(discovered));
+        Assert.assertTrue(acked.contains(error));
+        Assert.assertTrue(acked.contains(redirection));
+        Assert.assertTrue(acked.contains(newURL));
+    }
+
+    @Test
+    public void testFlushOnSize() {
+        // less than a URL and its metadata
+        config.put(WindowedStatusUpdaterBolt.maxSizeParamName, 10);
+        prepare();
+
+        update("http://a.net/", Status.DISCOVERED);
+        Assert.assertEquals(1, bolt.windows.size());
+        update("http://b.net/", Status.DISCOVERED);
+        Assert.assertEquals(2, bolt.windows.size());
+        Assert.assertEquals(2, output.getAckedTuples().size());
+    }
+
+    @Test
+    public void testFlushOnTick() {
+        config.put(WindowedStatusUpdaterBolt.maxTimeParamName, 0);
+        prepare();
+
+        tick();
+        Assert.assertTrue(bolt.windows.isEmpty());
+        Assert.assertEquals(1, output.getAckedTuples().size());
+
+        update("http://a.net/", Status.DISCOVERED);
+        update("http://b.net/", Status.FETCHED);
+        Assert.assertTrue(bolt.windows.isEmpty());
+        tick();
+        Assert.assertEquals(1, bolt.windows.size());
+        Assert.assertEquals(2, bolt.windows.get(0).size());
+        // the two updates and the two ticks
+        Assert.assertEquals(4, output.getAckedTuples().size());
+    }
+
+    @Test
+    public void testNoFlushBeforeMaxTime() {
+        config.put(WindowedStatusUpdaterBolt.maxTimeParamName, 3600000);
+        prepare();
+
+        update("http://a.net/", Status.DISCOVERED);
+        tick();
+        Assert.assertTrue(bolt.windows.isEmpty());
+        // stored when the bolt is cleaned up
+        bolt.cleanup();
+        Assert.assertEquals(1, bolt.windows.size());
+    }
+
+    @Test
+    public void testFailure() {
+        config.put(WindowedStatusUpdaterBolt.maxCountParamName, 2);
+        prepare();
+        bolt.failing = true;
+
+        Tuple first = update("http://a.net/", Status.FETCHED);
+        Tuple second = update("http://a.net/", Status.DISCOVERED);
+        Tuple third = update("http://b.net/", Status.DISCOVERED);
+
+        // all the tuples of the window are failed, none acked
+        List<Tuple> failed = output.getFailedTuples();
+        Assert.assertEquals(3, failed.size());
+        Assert.assertTrue(failed.contains(first));
+        Assert.assertTrue(failed.contains(second));
+        Assert.assertTrue(failed.contains(third));
+        Assert.assertTrue(output.getAckedTuples().isEmpty());
+
+        // the next window is not affected
+        bolt.failing = false;
+        update("http://c.net/", Status.DISCOVERED);
+        update("http://d.net/", Status.DISCOVERED);
+        Assert.assertEquals(1, bolt.windows.size());
+        Assert.assertEquals(2, output.getAckedTuples().size());
+    }
+}
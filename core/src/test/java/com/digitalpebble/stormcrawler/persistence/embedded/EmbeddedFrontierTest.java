@@ -0,0 +1,218 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.embedded;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.persistence.Status;
+import com.digitalpebble.stormcrawler.persistence.embedded.EmbeddedFrontier.Record;
+
+public class EmbeddedFrontierTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("frontier").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<Record> due(EmbeddedFrontier frontier, long now,
+            int max, int maxPerKey) throws IOException {
+        return frontier.due(now, max, maxPerKey,
+                r -> r.getURL().substring(0, r.getURL().indexOf('/', 8)),
+                r -> false);
+    }
+
+    @Test
+    public void testPutAndDue() throws IOException {
+        EmbeddedFrontier frontier = new EmbeddedFrontier(directory, 1000, 8);
+        Metadata md = new Metadata();
+        md.setValue("key", "value");
+        Assert.assertTrue(frontier.put("http://a.com/1", Status.DISCOVERED,
+                md, 20));
+        Assert.assertTrue(frontier.put("http://a.com/2", Status.DISCOVERED,
+                md, 10));
+        Assert.assertTrue(frontier.put("http://b.com/1", Status.DISCOVERED,
+                md, 30));
+
+        // known URL
+        Assert.assertFalse(frontier.put("http://a.com/1", Status.DISCOVERED,
+                md, 0));
+
+        List<Record> due = due(frontier, 25, 10, -1);
+        Assert.assertEquals(2, due.size());
+        Assert.assertEquals("http://a.com/2", due.get(0).getURL());
+        Assert.assertEquals("value",
+                due.get(0).getMetadata().getFirstValue("key"));
+
+        // the new version replaces the old one
+        Assert.assertTrue(frontier.put("http://a.com/2", Status.FETCHED, md,
+                100));
+        due = due(frontier, 50, 10, -1);
+        Assert.assertEquals(2, due.size());
+        Assert.assertEquals("http://a.com/1", due.get(0).getURL());
+        Assert.assertEquals("http://b.com/1", due.get(1).getURL());
+
+        // max per host
+        due = due(frontier, 1000, 10, 1);
+        Assert.assertEquals(2, due.size());
+        Assert.assertEquals("http://a.com/1", due.get(0).getURL());
+        Assert.assertEquals(3, frontier.size());
+        frontier.close();
+    }
+
+    @Test
+    public void testReschedule() throws IOException {
+        EmbeddedFrontier frontier = new EmbeddedFrontier(directory, 1000, 8);
+        frontier.put("http://a.com/1", Status.DISCOVERED, new Metadata(), 10);
+        frontier.put("http://a.com/2", Status.DISCOVERED, new Metadata(), 20);
+        List<Record> due = due(frontier, 50, 10, -1);
+        Assert.assertEquals(2, due.size());
+
+        // keeps its status
+        Assert.assertTrue(frontier.reschedule(due.get(0), 1000));
+        due = due(frontier, 50, 10, -1);
+        Assert.assertEquals(1, due.size());
+        Assert.assertEquals("http://a.com/2", due.get(0).getURL());
+        due = due(frontier, 1000, 10, -1);
+        Assert.assertEquals("http://a.com/1", due.get(1).getURL());
+        Assert.assertEquals(Status.DISCOVERED, due.get(1).getStatus());
+
+        // updated since it was returned
+        frontier.put("http://a.com/2", Status.FETCHED, new Metadata(), 30);
+        Assert.assertFalse(frontier.reschedule(due.get(0), 2000));
+        Assert.assertEquals(30, due(frontier, 50, 10, -1).get(0)
+                .getNextFetch());
+        frontier.close();
+    }
+
+    @Test
+    public void testSegmentsAndReload() throws IOException {
+        EmbeddedFrontier frontier = new EmbeddedFrontier(directory, 10, 3);
+        for (int i = 0; i < 100; i++) {
+            frontier.put("http://a.com/" + i, Status.DISCOVERED,
+                    new Metadata(), i);
+        }
+        // update half of them
+        for (int i = 0; i < 100; i += 2) {
+            frontier.put("http://a.com/" + i, Status.FETCHED, new Metadata(),
+                    1000 + i);
+        }
+        List<Record> due = due(frontier, 999, 1000, -1);
+        Assert.assertEquals(50, due.size());
+        Assert.assertEquals("http://a.com/1", due.get(0).getURL());
+
+        // merged segments
+        Assert.assertTrue(directory.list((d, n) -> n.endsWith(".seg")).length <= 4);
+
+        frontier.put("http://a.com/1", Status.FETCHED, new Metadata(), 5000);
+        frontier.close();
+        frontier = new EmbeddedFrontier(directory, 10, 3);
+        Assert.assertEquals(100, frontier.size());
+        due = due(frontier, 999, 1000, -1);
+        Assert.assertEquals(49, due.size());
+        Assert.assertEquals("http://a.com/3", due.get(0).getURL());
+        due = due(frontier, 10000, 1000, -1);
+        Assert.assertEquals(100, due.size());
+        Assert.assertEquals("http://a.com/1", due.get(99).getURL());
+        Assert.assertEquals(Status.FETCHED, due.get(99).getStatus());
+        frontier.close();
+    }
+
+    @Test
+    public void testLogReplay() throws IOException {
+        EmbeddedFrontier frontier = new EmbeddedFrontier(directory, 10, 3);
+        for (int i = 0; i < 15; i++) {
+            frontier.put("http://a.com/" + i, Status.DISCOVERED,
+                    new Metadata(), i);
+        }
+        frontier.put("http://a.com/0", Status.FETCHED, new Metadata(), 100);
+
+        // copies the files as they would be after a crash
+        File copy = Files.createTempDirectory("frontier").toFile();
+        try {
+            for (File f : directory.listFiles()) {
+                Files.copy(f.toPath(), new File(copy, f.getName()).toPath());
+            }
+            frontier.close();
+            EmbeddedFrontier reloaded = new EmbeddedFrontier(copy, 10, 3);
+            Assert.assertEquals(15, reloaded.size());
+            List<Record> due = due(reloaded, 1000, 1000, -1);
+            Assert.assertEquals(15, due.size());
+            Assert.assertEquals("http://a.com/0", due.get(14).getURL());
+            Assert.assertEquals(Status.FETCHED, due.get(14).getStatus());
+            reloaded.close();
+        } finally {
+            for (File f : copy.listFiles()) {
+                f.delete();
+            }
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void testDueAfterUpdates() throws IOException {
+        EmbeddedFrontier frontier = new EmbeddedFrontier(directory, 10, 100);
+        for (int i = 0; i < 100; i++) {
+            frontier.put("http://a.com/" + i, Status.DISCOVERED,
+                    new Metadata(), i);
+        }
+        // fetches the URLs due one batch after the other
+        for (int batch = 0; batch < 10; batch++) {
+            List<Record> due = due(frontier, 1000, 10, -1);
+            Assert.assertEquals(10, due.size());
+            Assert.assertEquals("http://a.com/" + batch * 10, due.get(0)
+                    .getURL());
+            for (Record r : due) {
+                frontier.put(r.getURL(), Status.FETCHED, new Metadata(),
+                        2000 + r.getNextFetch());
+            }
+        }
+        Assert.assertTrue(due(frontier, 1000, 10, -1).isEmpty());
+        List<Record> due = due(frontier, 3000, 1000, -1);
+        Assert.assertEquals(100, due.size());
+        Assert.assertEquals(Status.FETCHED, due.get(0).getStatus());
+
+        // same after a reload
+        frontier.close();
+        frontier = new EmbeddedFrontier(directory, 10, 100);
+        Assert.assertTrue(due(frontier, 1000, 10, -1).isEmpty());
+        Assert.assertEquals(100, due(frontier, 3000, 1000, -1).size());
+        frontier.close();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.persistence.urlbuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+
+public class PriorityURLBufferTest {
+
+    @Test
+    public void testLongTimeWithoutAcks() {
+        AtomicLong clock = new AtomicLong(0);
+        PriorityURLBuffer buffer = new PriorityURLBuffer(clock::get);
+        buffer.add("http://a.net/test.html", new Metadata());
+        buffer.add("http://a.net/test2.html", new Metadata());
+        buffer.add("http://b.net/test.html", new Metadata());
+        buffer.add("http://b.net/test2.html", new Metadata());
+        buffer.add("http://c.net/test.html", new Metadata());
+        buffer.add("http://c.net/test2.html", new Metadata());
+
+        buffer.acked("http://b.net/test.html");
+
+        // 2^(10 hours / 10 secs) is not representable as a double
+        clock.addAndGet(TimeUnit.HOURS.toMillis(10));
+        buffer.acked("http://c.net/test.html");
+        buffer.acked("http://a.net/test.html");
+        buffer.acked("http://a.net/test.html");
+
+        // the ack of b is negligible by now
+        Assert.assertEquals("http://a.net/test.html", buffer.next().get(0));
+        Assert.assertEquals("http://c.net/test.html", buffer.next().get(0));
+        Assert.assertEquals("http://b.net/test.html", buffer.next().get(0));
+
+        // same after a second gap, the scores have not become NaN
+        clock.addAndGet(TimeUnit.HOURS.toMillis(10));
+        buffer.acked("http://b.net/test.html");
+        Assert.assertEquals("http://b.net/test2.html", buffer.next().get(0));
+        Assert.assertEquals("http://a.net/test2.html", buffer.next().get(0));
+        Assert.assertEquals("http://c.net/test2.html", buffer.next().get(0));
+        Assert.assertFalse(buffer.hasNext());
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.spout;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedLineReaderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("lines", ".txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("http://www.example.com/").append(i);
+            // mix the line terminators
+            content.append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        // no terminator on the last line
+        content.append("last");
+        Files.write(file.toPath(),
+                content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private List<String> read(long start, long end, long resume,
+            int windowSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (MappedLineReader reader = new MappedLineReader(file.toPath(),
+                start, end, resume, windowSize)) {
+            byte[] line;
+            while ((line = reader.next()) != null) {
+                lines.add(new String(line, StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testWholeFile() throws IOException {
+        List<String> lines = read(0, file.length(), -1, 100);
+        Assert.assertEquals(1001, lines.size());
+        Assert.assertEquals("http://www.example.com/0", lines.get(0));
+        Assert.assertEquals("http://www.example.com/999", lines.get(999));
+        Assert.assertEquals("last", lines.get(1000));
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        long size = file.length();
+        for (int parts : new int[] { 2, 3, 7, 50 }) {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                lines.addAll(read(size * i / parts, size * (i + 1) / parts,
+                        -1, 64));
+            }
+            Assert.assertEquals(read(0, size, -1, 64), lines);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        long offset;
+        try (MappedLineReader reader = new MappedLineReader(file.toPath(), 0,
+                file.length(), -1)) {
+            for (int i = 0; i < 10; i++) {
+                reader.next();
+            }
+            offset = reader.lineOffset();
+        }
+        List<String> lines = read(0, file.length(), offset, 100);
+        Assert.assertEquals(992, lines.size());
+        Assert.assertEquals("http://www.example.com/9", lines.get(0));
+    }
+}
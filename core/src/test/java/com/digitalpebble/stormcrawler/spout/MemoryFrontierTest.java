@@ -0,0 +1,69 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.spout;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.spout.MemoryFrontier.ScheduledURL;
+import com.digitalpebble.stormcrawler.spout.MemoryFrontier.Shard;
+
+public class MemoryFrontierTest {
+
+    private static ScheduledURL url(String url, long nextFetch) {
+        String host = url.substring(7, url.indexOf('/', 7));
+        return new ScheduledURL(url, new Metadata(), nextFetch, host);
+    }
+
+    @Test
+    public void testScheduling() {
+        long now = 1_000_000L;
+        Shard shard = new Shard(now);
+        shard.add(url("http://a.com/1", now + 5000));
+        // beyond the span of the wheel
+        shard.add(url("http://a.com/2", now + 5_000_000));
+        shard.add(url("http://b.com/1", now - 1000));
+        Assert.assertEquals(3, shard.size());
+
+        Assert.assertEquals("http://b.com/1", shard.poll(now).url);
+        Assert.assertNull(shard.poll(now + 4000));
+        Assert.assertEquals("http://a.com/1", shard.poll(now + 5000).url);
+        Assert.assertNull(shard.poll(now + 4_999_000));
+        Assert.assertEquals("http://a.com/2", shard.poll(now + 5_000_000).url);
+        Assert.assertEquals(0, shard.size());
+    }
+
+    @Test
+    public void testHostRotation() {
+        long now = 1_000_000L;
+        Shard shard = new Shard(now);
+        for (int i = 0; i < 3; i++) {
+            shard.add(url("http://a.com/" + i, now));
+        }
+        shard.add(url("http://b.com/0", now));
+        shard.add(url("http://c.com/0", now));
+
+        Assert.assertEquals("http://a.com/0", shard.poll(now).url);
+        Assert.assertEquals("http://b.com/0", shard.poll(now).url);
+        Assert.assertEquals("http://c.com/0", shard.poll(now).url);
+        Assert.assertEquals("http://a.com/1", shard.poll(now).url);
+        Assert.assertEquals("http://a.com/2", shard.poll(now).url);
+        Assert.assertNull(shard.poll(now));
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.protocol.HttpHeaders;
+
+public class CharsetIdentificationTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void testBOM() {
+        byte[] utf8 = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'a' };
+        Assert.assertEquals("UTF-8",
+                CharsetIdentification.getCharset(new Metadata(), utf8, -1));
+        byte[] utf16 = { (byte) 0xFF, (byte) 0xFE, 'a', 0 };
+        Assert.assertEquals("UTF-16LE",
+                CharsetIdentification.getCharset(new Metadata(), utf16, -1));
+    }
+
+    @Test
+    public void testMeta() {
+        Assert.assertEquals("iso-8859-1", CharsetIdentification
+                .getCharsetFromMeta(bytes("<html><head><META CHARSET="
+                        + "'iso-8859-1'></head></html>"), -1));
+        Assert.assertEquals("Shift_JIS", CharsetIdentification
+                .getCharsetFromMeta(bytes("<meta http-equiv=Content-Type "
+                        + "content=\"text/html; charset=Shift_JIS\">"), -1));
+        // comments and meta tags without a charset are skipped
+        Assert.assertEquals("windows-1251", CharsetIdentification
+                .getCharsetFromMeta(bytes("<!-- <meta charset=koi8-r> -->"
+                        + "<meta name=x><meta http-equiv=content-type "
+                        + "content=text/html><meta charset=windows-1251>"),
+                        -1));
+        // beyond the max length
+        Assert.assertNull(CharsetIdentification.getCharsetFromMeta(
+                bytes("<html><meta charset=utf-8>"), 10));
+    }
+
+    @Test
+    public void testHeaderAndMeta() {
+        Metadata metadata = new Metadata();
+        metadata.setValue(HttpHeaders.CONTENT_TYPE,
+                "text/html; charset=windows-1252");
+        Assert.assertEquals("windows-1252", CharsetIdentification.getCharset(
+                metadata, bytes("<meta charset=WINDOWS-1252>"), 10000));
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FilterMetricsTest {
+
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (int i = 0; i < 248; i++) {
+            long bound = FilterMetrics.upperBound(i);
+            Assert.assertTrue(bound > previous);
+            Assert.assertEquals(i, FilterMetrics.bucket(bound));
+            Assert.assertEquals(i, FilterMetrics.bucket(previous + 1));
+            // within 25% of the lowest value in the bucket
+            Assert.assertTrue(bound - previous - 1 <= (previous + 1) / 4);
+            previous = bound;
+        }
+        Assert.assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testValues() {
+        FilterMetrics metrics = new FilterMetrics(
+                new Object[] { "a", "b", new StringBuilder() }, true);
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(0, i * 1000, i % 10 == 0);
+        }
+        metrics.record(2, 5000, false);
+
+        Map<String, Object> values = (Map<String, Object>) metrics
+                .getValueAndReset();
+        Assert.assertEquals(100L, values.get("String.count"));
+        Assert.assertEquals(10L, values.get("String.rejected"));
+        Assert.assertEquals(5050L, values.get("String.time_usec"));
+        double p50 = (Double) values.get("String.p50_usec");
+        Assert.assertTrue(p50 >= 50 && p50 <= 50 * 1.25);
+        double p99 = (Double) values.get("String.p99_usec");
+        Assert.assertTrue(p99 >= 99 && p99 <= 99 * 1.25);
+        // not invoked
+        Assert.assertFalse(values.containsKey("String.1.count"));
+        Assert.assertEquals(1L, values.get("StringBuilder.count"));
+
+        values = (Map<String, Object>) metrics.getValueAndReset();
+        Assert.assertTrue(values.isEmpty());
+
+        // the report covers everything since the creation
+        String report = metrics.report();
+        Assert.assertTrue(report.contains("String.1 "));
+        Assert.assertTrue(report.matches("(?s).*\\nString +100 +10 .*"));
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+
+    @Test
+    public void testGrowth() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(100, 0.001);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("http://www.example.com/" + i);
+        }
+        Assert.assertTrue(filter.numFilters() > 1);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(filter.mightContain("http://www.example.com/"
+                    + i));
+        }
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        ScalableBloomFilter filter = new ScalableBloomFilter(100, 0.001);
+        for (int i = 0; i < 500; i++) {
+            filter.put("http://www.example.com/" + i);
+        }
+
+        File file = File.createTempFile("bloom", ".bin");
+        file.deleteOnExit();
+        filter.save(file);
+
+        ScalableBloomFilter loaded = new ScalableBloomFilter(100, 0.001);
+        loaded.load(file);
+        Assert.assertEquals(filter.numFilters(), loaded.numFilters());
+        for (int i = 0; i < 500; i++) {
+            Assert.assertTrue(loaded.mightContain("http://www.example.com/"
+                    + i));
+        }
+        Assert.assertFalse(loaded.mightContain("http://www.example.org/"));
+    }
+}
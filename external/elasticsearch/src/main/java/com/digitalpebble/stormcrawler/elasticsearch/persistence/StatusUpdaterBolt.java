@@ -24,6 +24,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
@@ -90,6 +91,12 @@ public class StatusUpdaterBolt extends AbstractStatusUpdaterBolt implements
 
     private Cache<String, List<Tuple>> waitAck;
 
+    /**
+     * URL stored under each ID in waitAck, which is not the one of the tuple
+     * for a batch of outlinks
+     **/
+    private final Map<String, String> waitAckURLs = new ConcurrentHashMap<>();
+
     private MultiCountMetric eventCounter;
 
     public StatusUpdaterBolt() {
@@ -158,6 +165,7 @@ public class StatusUpdaterBolt extends AbstractStatusUpdaterBolt implements
 
     @Override
     public void cleanup() {
+        super.cleanup();
         if (connection != null)
             connection.close();
     }
@@ -240,6 +248,7 @@ public class StatusUpdaterBolt extends AbstractStatusUpdaterBolt implements
             if (tt == null) {
                 tt = new LinkedList<>();
                 waitAck.put(sha256hex, tt);
+                waitAckURLs.put(sha256hex, url);
             }
             tt.add(tuple);
             LOG.debug("Added to waitAck {} with ID {} total {}", url,
@@ -252,6 +261,7 @@ public class StatusUpdaterBolt extends AbstractStatusUpdaterBolt implements
     }
 
     public void onRemoval(RemovalNotification<String, List<Tuple>> removal) {
+        waitAckURLs.remove(removal.getKey());
         if (!removal.wasEvicted())
             return;
         LOG.error("Purged from waitAck {} with {} values", removal.getKey(),
@@ -294,13 +304,14 @@ public class StatusUpdaterBolt extends AbstractStatusUpdaterBolt implements
                 List<Tuple> xx = waitAck.getIfPresent(id);
                 if (xx != null) {
                     LOG.debug("Acked {} tuple(s) for ID {}", xx.size(), id);
+                    String url = waitAckURLs.get(id);
                     for (Tuple x : xx) {
                         if (!failed) {
-                            String url = x.getStringByField("url");
                             acked++;
-                            // ack and put in cache
+                            // ack and put in cache, a conflict means that
+                            // the URL was already known
                             LOG.debug("Acked {} with ID {}", url, id);
-                            super.ack(x, url);
+                            super.ack(x, url, f == null);
                         } else {
                             failurecount++;
                             _collector.fail(x);
@@ -0,0 +1,140 @@
+/**
+ * Licensed to DigitalPebble Ltd under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * DigitalPebble licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.stormcrawler.elasticsearch.persistence;
+
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.tuple.Tuple;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.digitalpebble.stormcrawler.Constants;
+import com.digitalpebble.stormcrawler.Metadata;
+import com.digitalpebble.stormcrawler.TestOutputCollector;
+import com.digitalpebble.stormcrawler.TestUtil;
+import com.digitalpebble.stormcrawler.persistence.AbstractStatusUpdaterBolt;
+import com.digitalpebble.stormcrawler.persistence.CrawlBudget;
+import com.digitalpebble.stormcrawler.persistence.Status;
+
+public class StatusUpdaterBoltTest {
+
+    private static final ShardId SHARD = new ShardId("status", "_na_", 0);
+
+    private StatusUpdaterBolt bolt;
+
+    private TestOutputCollector output;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("scheduler.class",
+                "com.digitalpebble.stormcrawler.persistence.DefaultScheduler");
+        config.put(AbstractStatusUpdaterBolt.useCacheParamName, false);
+        config.put(CrawlBudget.maxDiscoveredParamName, 2);
+        // the bulks are only sent when the bolt is cleaned up
+        config.put("es.status.addresses", "localhost");
+        config.put("es.status.sniff", false);
+        config.put("es.status.bulkActions", 100);
+        config.put("es.status.flushInterval", "1h");
+        bolt = new StatusUpdaterBolt();
+        output = new TestOutputCollector();
+        bolt.prepare(config, TestUtil.getMockedTopologyContext(),
+                new OutputCollector(output));
+    }
+
+    @After
+    public void tearDown() {
+        bolt.cleanup();
+    }
+
+    private static BulkItemResponse created(int item, String url) {
+        return BulkItemResponse.success(item, OpType.CREATE,
+                new IndexResponse(SHARD, "_doc", DigestUtils.sha256Hex(url),
+                        0, 1, 1, true));
+    }
+
+    private static BulkItemResponse conflict(int item, String url) {
+        String id = DigestUtils.sha256Hex(url);
+        return BulkItemResponse.failure(item, OpType.CREATE,
+                new BulkItemResponse.Failure("status", "_doc", id,
+                        new ElasticsearchStatusException(
+                                "document already exists",
+                                RestStatus.CONFLICT)));
+    }
+
+    private static Tuple discovered(String url) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("url", url);
+        values.put("status", Status.DISCOVERED);
+        values.put("metadata", new Metadata());
+        return TestUtil.getMockedTestTuple(values);
+    }
+
+    @Test
+    public void testKnownTargetOfBatch() {
+        List<String> targets = Arrays.asList("http://a.com/known",
+                "http://a.com/new");
+        Map<String, Object> values = new HashMap<>();
+        values.put("url", "http://source.com/");
+        values.put("metadata", new Metadata());
+        values.put("targets", targets);
+        values.put("targetsMetadata", Arrays.asList(null, null));
+        Tuple batch = TestUtil.getMockedTestTuple(values);
+        when(batch.getSourceStreamId()).thenReturn(
+                Constants.OutlinksStreamName);
+        bolt.execute(batch);
+
+        // the first target was already in the index
+        bolt.afterBulk(1, new BulkRequest(),
+                new BulkResponse(new BulkItemResponse[] {
+                        conflict(0, targets.get(0)),
+                        created(1, targets.get(1)) }, 10));
+        Assert.assertEquals(Arrays.asList(batch), output.getAckedTuples());
+
+        // only the new target counts towards the budget of a.com
+        Tuple other = discovered("http://a.com/other");
+        bolt.execute(other);
+        Assert.assertEquals(1, output.getAckedTuples().size());
+
+        // which is now exhausted
+        bolt.afterBulk(2, new BulkRequest(), new BulkResponse(
+                new BulkItemResponse[] { created(0, "http://a.com/other") },
+                10));
+        Tuple last = discovered("http://a.com/last");
+        bolt.execute(last);
+        Assert.assertEquals(Arrays.asList(batch, other, last),
+                output.getAckedTuples());
+    }
+}
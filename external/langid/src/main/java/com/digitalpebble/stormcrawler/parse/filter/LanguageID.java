@@ -18,9 +18,12 @@
 package com.digitalpebble.stormcrawler.parse.filter;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.w3c.dom.DocumentFragment;
@@ -145,4 +148,17 @@ public class LanguageID extends ParseFilter {
         }
     }
 
+    @Override
+    public Set<String> getReadSet() {
+        Set<String> keys = new HashSet<>();
+        keys.add(extractedKeyName);
+        keys.add(TEXT);
+        return keys;
+    }
+
+    @Override
+    public Set<String> getWriteSet() {
+        return Collections.singleton(mdKey);
+    }
+
 }
@@ -99,6 +99,7 @@ public class StatusUpdaterBolt extends AbstractStatusUpdaterBolt {
 
     @Override
     public void cleanup() {
+        super.cleanup();
         if (connection != null) {
             try {
                 connection.close();
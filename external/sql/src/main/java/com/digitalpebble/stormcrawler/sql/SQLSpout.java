@@ -19,6 +19,7 @@ package com.digitalpebble.stormcrawler.sql;
 
 import java.nio.ByteBuffer;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -214,6 +215,24 @@ public class SQLSpout extends AbstractQueryingSpout {
         }
     }
 
+    /** Puts off the URL until the host is allowed to be fetched again **/
+    @Override
+    protected void overBudget(String url, Metadata metadata) {
+        String query = "UPDATE " + tableName
+                + " SET nextfetchdate = ? WHERE url = ?";
+        long nextFetch = System.currentTimeMillis() + budget.getDelaySecs()
+                * 1000l;
+        try (PreparedStatement st = connection.prepareStatement(query)) {
+            st.setTimestamp(1, new Timestamp(nextFetch));
+            st.setString(2, url);
+            st.executeUpdate();
+        } catch (SQLException e) {
+            LOG.error("{} Exception while rescheduling {}", logIdprefix, url,
+                    e);
+            super.overBudget(url, metadata);
+        }
+    }
+
     @Override
     public void ack(Object msgId) {
         LOG.debug("{}  Ack for {}", logIdprefix, msgId);
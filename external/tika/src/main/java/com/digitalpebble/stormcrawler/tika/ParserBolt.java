@@ -58,7 +58,6 @@ import com.digitalpebble.stormcrawler.Metadata;
 import com.digitalpebble.stormcrawler.filtering.URLFilters;
 import com.digitalpebble.stormcrawler.parse.Outlink;
 import com.digitalpebble.stormcrawler.parse.ParseData;
-import com.digitalpebble.stormcrawler.parse.ParseFilter;
 import com.digitalpebble.stormcrawler.parse.ParseFilters;
 import com.digitalpebble.stormcrawler.parse.ParseResult;
 import com.digitalpebble.stormcrawler.persistence.Status;
@@ -77,7 +76,7 @@ public class ParserBolt extends BaseRichBolt {
     private Tika tika;
 
     private URLFilters urlFilters = null;
-    private ParseFilter parseFilters = null;
+    private ParseFilters parseFilters = null;
 
     private OutputCollector collector;
 
@@ -107,8 +106,10 @@ public class ParserBolt extends BaseRichBolt {
         emitOutlinks = ConfUtils.getBoolean(conf, "parser.emitOutlinks", true);
 
         urlFilters = URLFilters.fromConf(conf);
+        urlFilters.registerMetrics(context, 10);
 
         parseFilters = ParseFilters.fromConf(conf);
+        parseFilters.registerMetrics(context, 10);
 
         upperCaseElementNames = ConfUtils.getBoolean(conf,
                 "parser.uppercase.element.names", true);